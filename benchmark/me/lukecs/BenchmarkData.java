@@ -0,0 +1,197 @@
+package me.lukecs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The inputs the benchmarks run over, and the helpers they share. The test data is read from the directory named by the
+ * huffman.data system property, or test_data_sets when it isn't set.
+ */
+class BenchmarkData {
+    static final int SYNTHETIC_SIZE = HuffmanFormat.BLOCK_SIZE;
+    static final int MESSAGE_SIZE = 256;
+    static final String SYNTHETIC_BINARY = "synthetic-binary";
+    static final String[] SYNTHETIC = {"synthetic-skewed", "synthetic-uniform", SYNTHETIC_BINARY, "synthetic-log"};
+
+    private BenchmarkData() {
+    }
+
+    static File directory() {
+        return new File(System.getProperty("huffman.data", "test_data_sets"));
+    }
+
+    /**
+     * Lists every input, the test data sets first in name order and then the synthetic ones.
+     *
+     * @return The names of the inputs.
+     * @throws IOException If the test data directory can't be read.
+     */
+    static List<String> names() throws IOException {
+        File[] files = directory().listFiles(File::isFile);
+        if (files == null) {
+            throw new IOException(directory() + " is not a directory!");
+        }
+        Arrays.sort(files);
+        List<String> names = new ArrayList<>();
+        for (File file : files) {
+            names.add(file.getName());
+        }
+        names.addAll(Arrays.asList(SYNTHETIC));
+        return names;
+    }
+
+    /**
+     * Loads an input by name, either a file in the test data directory or one of the synthetic inputs.
+     *
+     * @param name The name of the input.
+     * @return The input.
+     * @throws IOException If the file can't be read.
+     */
+    static byte[] load(String name) throws IOException {
+        switch (name) {
+            case "synthetic-skewed":
+                return skewedText(SYNTHETIC_SIZE);
+            case "synthetic-uniform":
+                return uniformText(SYNTHETIC_SIZE);
+            case SYNTHETIC_BINARY:
+                return binary(SYNTHETIC_SIZE);
+            case "synthetic-log":
+                return log(SYNTHETIC_SIZE);
+            default:
+                return Files.readAllBytes(new File(directory(), name).toPath());
+        }
+    }
+
+    /**
+     * Every input one after another, so there are enough blocks for reading, coding and writing to overlap.
+     *
+     * @return The joined inputs.
+     * @throws IOException If the test data can't be read.
+     */
+    static byte[] joined() throws IOException {
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (String name : names()) {
+            byte[] bytes = load(name);
+            joined.write(bytes, 0, bytes.length);
+        }
+        return joined.toByteArray();
+    }
+
+    /**
+     * Trains the dictionary that messages are compressed against, on the English samples, or on every file if there aren't any.
+     *
+     * @return The dictionary.
+     * @throws IOException If the test data can't be read.
+     */
+    static HuffmanDictionary dictionary() throws IOException {
+        List<byte[]> inputs = new ArrayList<>();
+        List<byte[]> samples = new ArrayList<>();
+        for (String name : names()) {
+            byte[] bytes = load(name);
+            inputs.add(bytes);
+            if (name.endsWith("_en.txt")) {
+                samples.add(bytes);
+            }
+        }
+        return HuffmanDictionary.train(1, samples.isEmpty() ? inputs : samples);
+    }
+
+    static byte[] compressFile(byte[] bytes, CodecOptions options) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+        try {
+            FileUtilities.compress(new ByteArrayInputStream(bytes), out, options);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] decompressFile(byte[] compressed, CodecOptions options) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 2);
+        try {
+            FileUtilities.decompress(new ByteArrayInputStream(compressed), out, options);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] compressAdaptive(byte[] bytes) {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(bytes.length / 2);
+        try (AdaptiveHuffmanOutputStream out = new AdaptiveHuffmanOutputStream(encoded)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return encoded.toByteArray();
+    }
+
+    static byte[] decompressAdaptive(byte[] encoded, int size) {
+        byte[] decoded = new byte[size];
+        try (AdaptiveHuffmanInputStream in = new AdaptiveHuffmanInputStream(new ByteArrayInputStream(encoded))) {
+            int length = 0;
+            int read;
+            while ((read = in.read(decoded, length, decoded.length - length)) > 0) {
+                length += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return decoded;
+    }
+
+    /*
+    Synthetic inputs, all generated from a fixed seed so every run sees the same data.
+     */
+    private static byte[] skewedText(int size) {
+        // Each letter is twice as likely as the next, which gives a few very short codes and a long tail.
+        Random random = new Random(1);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            int letter = 0;
+            while (letter < 25 && random.nextBoolean()) {
+                letter++;
+            }
+            data[i] = (byte) ('a' + letter);
+        }
+        return data;
+    }
+
+    private static byte[] uniformText(int size) {
+        Random random = new Random(2);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (' ' + random.nextInt(95));
+        }
+        return data;
+    }
+
+    private static byte[] log(int size) {
+        // Lines that differ only in their timestamps and a few numbers, like the logs of a busy server.
+        Random random = new Random(4);
+        String[] messages = {"GET /api/v1/users/%d 200 %dms", "POST /api/v1/orders 201 %dms", "worker-%d heartbeat ok",
+                "cache miss for key user:%d", "GET /static/app.js 304 %dms"};
+        StringBuilder log = new StringBuilder(size + 128);
+        for (int line = 0; log.length() < size; line++) {
+            String message = String.format(messages[random.nextInt(messages.length)], random.nextInt(500), random.nextInt(90));
+            log.append(String.format("2026-10-17T12:%02d:%02d.%03dZ INFO [main] %s%n", line / 60000 % 60, line / 1000 % 60, line % 1000, message));
+        }
+        return Arrays.copyOf(log.toString().getBytes(StandardCharsets.UTF_8), size);
+    }
+
+    private static byte[] binary(int size) {
+        Random random = new Random(3);
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        return data;
+    }
+}
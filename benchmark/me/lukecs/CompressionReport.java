@@ -0,0 +1,99 @@
+package me.lukecs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class CompressionReport {
+    private static final int[] SAMPLE_STRIDES = {1, 4, 16, 64};
+    private static final int[] PIPELINE_BLOCK_SIZES = {1 << 16, HuffmanFormat.BLOCK_SIZE};
+    private static final int[] PIPELINE_THREADS = {1, 2};
+    private static final int PIPELINE_RUNS = 5;
+
+    /**
+     * Prints the sizes that go with the JMH benchmarks' times: how well each coder compresses each input, what sampling and the
+     * block transforms cost or save, and how busy each stage of the pipeline is. Nothing here is timed.
+     *
+     * @param args Arguments that should be in the form: [directory of test data].
+     * @throws IOException If the test data can't be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            System.setProperty("huffman.data", args[0]);
+        }
+        List<String> names = BenchmarkData.names();
+        HuffmanDictionary dictionary = BenchmarkData.dictionary();
+
+        // The static sizes include the whole file format, headers and code tables included, to compare like with like.
+        // The message sizes are for the input cut into MESSAGE_SIZE byte messages, each compressed on its own.
+        System.out.printf("%-26s %12s %12s %12s %12s %14s %14s%n", "input", "original", "static", "order-1", "adaptive", "static msgs",
+                "dictionary msgs");
+        for (String name : names) {
+            byte[] bytes = BenchmarkData.load(name);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            FileUtilities.compress(new ByteArrayInputStream(bytes), out);
+            ByteArrayOutputStream contextOut = new ByteArrayOutputStream();
+            FileUtilities.compress(new ByteArrayInputStream(bytes), contextOut, new CodecOptions().setContextModeled(true));
+            ByteArrayOutputStream messages = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(messages);
+            long dictionarySize = 0;
+            for (int offset = 0; offset < bytes.length; offset += BenchmarkData.MESSAGE_SIZE) {
+                int length = Math.min(BenchmarkData.MESSAGE_SIZE, bytes.length - offset);
+                HuffmanFormat.writeBlock(data, Encoder.compress(bytes, offset, length));
+                dictionarySize += dictionary.compress(bytes, offset, length).length;
+            }
+            System.out.printf("%-26s %12d %12d %12d %12d %14d %14d%n", name, bytes.length, out.size(), contextOut.size(),
+                    BenchmarkData.compressAdaptive(bytes).length, messages.size(), dictionarySize);
+        }
+
+        // Blocks coded from a sample of their histogram against the exact one, with the size including the code length table.
+        System.out.printf("%n%-26s %8s %12s %10s%n", "input", "stride", "block size", "penalty");
+        for (String name : names) {
+            byte[] bytes = BenchmarkData.load(name);
+            char[] chars = new String(bytes, StandardCharsets.UTF_8).toCharArray();
+            long exact = 0;
+            for (int stride : SAMPLE_STRIDES) {
+                Huffman encoded = name.equals(BenchmarkData.SYNTHETIC_BINARY) ? Encoder.compressSampled(bytes, 0, bytes.length, stride)
+                        : Encoder.compressSampled(chars, 0, chars.length, stride);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                HuffmanFormat.writeBlock(new DataOutputStream(out), encoded);
+                if (stride == 1) {
+                    exact = out.size();
+                }
+                System.out.printf("%-26s %8d %12d %9.3f%%%n", name, stride, out.size(), 100.0 * (out.size() - exact) / exact);
+            }
+        }
+
+        // Every combination of transforms, over the whole file format.
+        System.out.printf("%n%-26s %-12s %-14s %12s %8s%n", "input", "transforms", "names", "compressed", "ratio");
+        for (String name : names) {
+            byte[] bytes = BenchmarkData.load(name);
+            for (int transforms = 0; transforms <= BlockTransform.ALL; transforms++) {
+                byte[] compressed = BenchmarkData.compressFile(bytes, new CodecOptions().setTransforms(transforms));
+                System.out.printf("%-26s %-12d %-14s %12d %8.3f%n", name, transforms, BlockTransform.describe(transforms), compressed.length,
+                        (double) compressed.length / bytes.length);
+            }
+        }
+
+        // The occupancies are for compressing every input joined together through the pipeline, averaged over a few runs.
+        byte[] all = BenchmarkData.joined();
+        System.out.printf("%n%12s %8s %8s %8s %8s%n", "block size", "threads", "read", "work", "write");
+        for (int blockSize : PIPELINE_BLOCK_SIZES) {
+            for (int threads : PIPELINE_THREADS) {
+                CodecOptions options = new CodecOptions().setPipelined(true).setBlockSize(blockSize).setThreads(threads);
+                BenchmarkData.compressFile(all, options);
+                CodecMetrics metrics = CodecMetrics.getInstance();
+                metrics.setEnabled(true);
+                metrics.reset();
+                for (int run = 0; run < PIPELINE_RUNS; run++) {
+                    BenchmarkData.compressFile(all, options);
+                }
+                System.out.printf("%12d %8d %8.3f %8.3f %8.3f%n", blockSize, threads, metrics.getReadOccupancy(),
+                        metrics.getWorkOccupancy(), metrics.getWriteOccupancy());
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package me.lukecs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times compressing and decompressing every input one after another, so there are enough blocks for reading, coding and writing to
+ * overlap, with and without the pipeline. CompressionReport gives how busy each pipelined stage was.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({"65536", "1048576"})
+    public int blockSize;
+
+    @Param({"1", "2"})
+    public int threads;
+
+    @Param({"false", "true"})
+    public boolean pipelined;
+
+    private byte[] all;
+    private byte[] compressed;
+    private CodecOptions options;
+
+    @Setup
+    public void setUp() throws IOException {
+        all = BenchmarkData.joined();
+        options = new CodecOptions().setPipelined(pipelined).setBlockSize(blockSize).setThreads(threads);
+        compressed = BenchmarkData.compressFile(all, options);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return BenchmarkData.compressFile(all, options);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return BenchmarkData.decompressFile(compressed, options);
+    }
+}
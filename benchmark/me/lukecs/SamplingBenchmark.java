@@ -0,0 +1,53 @@
+package me.lukecs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times encoding a block from a sample of its histogram, taking one run of characters in every stride. A stride of 1 counts the
+ * whole block, as encode does. CompressionReport gives the size each stride costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SamplingBenchmark {
+    @Param({"cintra_pt.txt", "germaine_fr.txt", "great_gatsby_en.txt", "lupe_pt.txt", "romeo_and_juliet_en.txt", "tolla_fr.txt",
+            "synthetic-skewed", "synthetic-uniform", "synthetic-binary", "synthetic-log"})
+    public String input;
+
+    @Param({"1", "4", "16", "64"})
+    public int stride;
+
+    private byte[] bytes;
+    // Null for the binary input, which is coded a byte at a time.
+    private char[] chars;
+
+    @Setup
+    public void setUp() throws IOException {
+        bytes = BenchmarkData.load(input);
+        if (!input.equals(BenchmarkData.SYNTHETIC_BINARY)) {
+            chars = new String(bytes, StandardCharsets.UTF_8).toCharArray();
+        }
+    }
+
+    @Benchmark
+    public Huffman sampledEncode() {
+        return chars != null ? Encoder.compressSampled(chars, 0, chars.length, stride) : Encoder.compressSampled(bytes, 0, bytes.length, stride);
+    }
+}
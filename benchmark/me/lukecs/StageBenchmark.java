@@ -0,0 +1,278 @@
+package me.lukecs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times each stage of the codec on its own, over the test data sets plus some synthetic inputs. Every input but the synthetic binary
+ * one is coded a character at a time from UTF-8, as text files are, and the binary one a byte at a time. Each stage's inputs are
+ * made up front, so only the stage itself is timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageBenchmark {
+    @Param({"cintra_pt.txt", "germaine_fr.txt", "great_gatsby_en.txt", "lupe_pt.txt", "romeo_and_juliet_en.txt", "tolla_fr.txt",
+            "synthetic-skewed", "synthetic-uniform", "synthetic-binary", "synthetic-log"})
+    public String input;
+
+    private byte[] bytes;
+    // Null for the binary input, which is coded a byte at a time.
+    private char[] chars;
+    private int[] frequencies;
+    private byte[] lengths;
+    private int[] codes;
+    private Huffman encoded;
+    private Huffman contextEncoded;
+    private Huffman interleaved;
+    private byte[] adaptiveEncoded;
+    private HuffmanDictionary dictionary;
+    private List<byte[]> messages;
+    private CodecRun codecWhole;
+    private CodecRun codecMessages;
+
+    @Setup
+    public void setUp() throws IOException {
+        bytes = BenchmarkData.load(input);
+        if (input.equals(BenchmarkData.SYNTHETIC_BINARY)) {
+            frequencies = Encoder.countFrequencies(bytes, 0, bytes.length);
+            encoded = Encoder.compress(bytes, 0, bytes.length);
+            contextEncoded = Encoder.compressWithContexts(bytes, 0, bytes.length);
+            interleaved = Encoder.compressInterleaved(bytes, 0, bytes.length);
+        } else {
+            chars = new String(bytes, StandardCharsets.UTF_8).toCharArray();
+            frequencies = Encoder.countFrequencies(chars, 0, chars.length);
+            encoded = Encoder.compress(chars, 0, chars.length);
+            contextEncoded = Encoder.compressWithContexts(chars, 0, chars.length);
+            interleaved = Encoder.compressInterleaved(chars, 0, chars.length);
+        }
+        lengths = Encoder.buildCodeLengths(frequencies);
+        codes = CanonicalCode.assignCodes(lengths);
+        adaptiveEncoded = BenchmarkData.compressAdaptive(bytes);
+
+        dictionary = BenchmarkData.dictionary();
+        messages = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += BenchmarkData.MESSAGE_SIZE) {
+            messages.add(dictionary.compress(bytes, offset, Math.min(BenchmarkData.MESSAGE_SIZE, bytes.length - offset)));
+        }
+        codecWhole = new CodecRun(bytes, Math.max(1, bytes.length));
+        codecMessages = new CodecRun(bytes, BenchmarkData.MESSAGE_SIZE);
+    }
+
+    @Benchmark
+    public int[] histogram() {
+        return chars != null ? Encoder.countFrequencies(chars, 0, chars.length) : Encoder.countFrequencies(bytes, 0, bytes.length);
+    }
+
+    /**
+     * The histogram as it was counted before it was split over several tables, to compare against.
+     */
+    @Benchmark
+    public int[] singleTableHistogram() {
+        if (chars != null) {
+            int[] counts = new int[Main.SIZE];
+            for (char character : chars) {
+                counts[character]++;
+            }
+            return counts;
+        }
+        int[] counts = new int[Encoder.BYTE_ALPHABET_SIZE];
+        for (byte b : bytes) {
+            counts[b & 0xFF]++;
+        }
+        return counts;
+    }
+
+    @Benchmark
+    public byte[] codeLengths() {
+        return Encoder.buildCodeLengths(frequencies);
+    }
+
+    @Benchmark
+    public DecodingTable decodingTable() {
+        return new DecodingTable(CanonicalCode.assignCodes(lengths), lengths);
+    }
+
+    @Benchmark
+    public byte[] bitPacking() {
+        if (chars != null) {
+            BitWriter writer = new BitWriter(chars.length / 2);
+            for (char character : chars) {
+                writer.write(codes[character], lengths[character]);
+            }
+            return writer.toByteArray();
+        }
+        BitWriter writer = new BitWriter(bytes.length / 2);
+        for (byte b : bytes) {
+            writer.write(codes[b & 0xFF], lengths[b & 0xFF]);
+        }
+        return writer.toByteArray();
+    }
+
+    @Benchmark
+    public Huffman encode() {
+        return chars != null ? Encoder.compress(chars, 0, chars.length) : Encoder.compress(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return decompress(encoded);
+    }
+
+    @Benchmark
+    public Huffman interleavedEncode() {
+        return chars != null ? Encoder.compressInterleaved(chars, 0, chars.length) : Encoder.compressInterleaved(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public Object interleavedDecode() {
+        return decompress(interleaved);
+    }
+
+    @Benchmark
+    public Huffman contextEncode() {
+        return chars != null ? Encoder.compressWithContexts(chars, 0, chars.length) : Encoder.compressWithContexts(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public Object contextDecode() {
+        return decompress(contextEncoded);
+    }
+
+    /**
+     * The one pass adaptive coder, which always works a byte at a time, through its streams.
+     */
+    @Benchmark
+    public byte[] adaptiveEncode() {
+        return BenchmarkData.compressAdaptive(bytes);
+    }
+
+    @Benchmark
+    public byte[] adaptiveDecode() {
+        return BenchmarkData.decompressAdaptive(adaptiveEncoded, bytes.length);
+    }
+
+    /**
+     * The input cut into small messages, each compressed on its own with its own code table.
+     */
+    @Benchmark
+    public long messageEncode() {
+        long bits = 0;
+        for (int offset = 0; offset < bytes.length; offset += BenchmarkData.MESSAGE_SIZE) {
+            bits += Encoder.compress(bytes, offset, Math.min(BenchmarkData.MESSAGE_SIZE, bytes.length - offset)).getBitLength();
+        }
+        return bits;
+    }
+
+    /**
+     * The same messages, compressed against a dictionary trained on the English samples.
+     */
+    @Benchmark
+    public void dictionaryEncode(Blackhole blackhole) {
+        for (int offset = 0; offset < bytes.length; offset += BenchmarkData.MESSAGE_SIZE) {
+            blackhole.consume(dictionary.compress(bytes, offset, Math.min(BenchmarkData.MESSAGE_SIZE, bytes.length - offset)));
+        }
+    }
+
+    @Benchmark
+    public void dictionaryDecode(Blackhole blackhole) {
+        for (byte[] message : messages) {
+            blackhole.consume(dictionary.decompress(message));
+        }
+    }
+
+    /**
+     * A HuffmanCodec coding the whole input as one block between direct buffers. The codec and buffers are reused by every call,
+     * so with -prof gc, gc.alloc.rate.norm should read close to 0 once warmed up.
+     */
+    @Benchmark
+    public void codecEncode(Blackhole blackhole) {
+        codecWhole.encode(blackhole);
+    }
+
+    @Benchmark
+    public void codecDecode(Blackhole blackhole) {
+        codecWhole.decode(blackhole);
+    }
+
+    /**
+     * The same, but with the input cut into MESSAGE_SIZE byte messages.
+     */
+    @Benchmark
+    public void codecMessageEncode(Blackhole blackhole) {
+        codecMessages.encode(blackhole);
+    }
+
+    @Benchmark
+    public void codecMessageDecode(Blackhole blackhole) {
+        codecMessages.decode(blackhole);
+    }
+
+    private Object decompress(Huffman huffman) {
+        return chars != null ? Decoder.decompressToCharArray(huffman) : Decoder.decompressToByteArray(huffman);
+    }
+
+    /**
+     * A HuffmanCodec and the direct buffers it codes between, made up front, the way a server would keep one per thread.
+     */
+    private static final class CodecRun {
+        private final HuffmanCodec codec = new HuffmanCodec();
+        private final int size;
+        private final int length;
+        private final ByteBuffer src;
+        private final ByteBuffer compressed;
+        private final ByteBuffer dst;
+        private final ByteBuffer out;
+
+        private CodecRun(byte[] bytes, int size) {
+            this.size = size;
+            this.length = bytes.length;
+            this.src = ByteBuffer.allocateDirect(bytes.length);
+            src.put(bytes).flip();
+            this.compressed = ByteBuffer.allocateDirect((bytes.length / size + 1) * HuffmanCodec.maxCompressedLength(size));
+            for (int offset = 0; offset < length || offset == 0; offset += size) {
+                src.limit(Math.min(offset + size, length)).position(offset);
+                codec.compress(src, compressed);
+            }
+            compressed.flip();
+            this.dst = ByteBuffer.allocateDirect(HuffmanCodec.maxCompressedLength(size));
+            this.out = ByteBuffer.allocateDirect(size);
+        }
+
+        private void encode(Blackhole blackhole) {
+            for (int offset = 0; offset < length || offset == 0; offset += size) {
+                src.limit(Math.min(offset + size, length)).position(offset);
+                dst.clear();
+                blackhole.consume(codec.compress(src, dst));
+            }
+        }
+
+        private void decode(Blackhole blackhole) {
+            compressed.rewind();
+            while (compressed.hasRemaining()) {
+                out.clear();
+                blackhole.consume(codec.decompress(compressed, out));
+            }
+        }
+    }
+}
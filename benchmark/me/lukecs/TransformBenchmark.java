@@ -0,0 +1,56 @@
+package me.lukecs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times compressing and decompressing the whole file format with each combination of block transforms, so the times include
+ * everything. The transforms are given as the bits that BlockTransform.describe names, from 0 for none to BlockTransform.ALL.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+    @Param({"cintra_pt.txt", "germaine_fr.txt", "great_gatsby_en.txt", "lupe_pt.txt", "romeo_and_juliet_en.txt", "tolla_fr.txt",
+            "synthetic-skewed", "synthetic-uniform", "synthetic-binary", "synthetic-log"})
+    public String input;
+
+    @Param({"0", "1", "2", "3", "4", "5", "6", "7"})
+    public int transforms;
+
+    private byte[] bytes;
+    private byte[] compressed;
+    private CodecOptions options;
+
+    @Setup
+    public void setUp() throws IOException {
+        bytes = BenchmarkData.load(input);
+        options = new CodecOptions().setTransforms(transforms);
+        compressed = BenchmarkData.compressFile(bytes, options);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return BenchmarkData.compressFile(bytes, options);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return BenchmarkData.decompressFile(compressed, options);
+    }
+}
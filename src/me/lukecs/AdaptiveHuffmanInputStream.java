@@ -0,0 +1,146 @@
+package me.lukecs;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class AdaptiveHuffmanInputStream extends FilterInputStream {
+    private final AdaptiveHuffmanTree tree = new AdaptiveHuffmanTree();
+    private final byte[] buffer = new byte[8192];
+    private int count;
+    private int position;
+    private int current;
+    private int bitsLeft;
+    private boolean finished;
+
+    /**
+     * An AdaptiveHuffmanInputStream decompresses a stream written by AdaptiveHuffmanOutputStream as it is read from, a byte at a time,
+     * keeping its tree in step with the writer's.
+     *
+     * @param in The input to read the compressed stream from.
+     * @throws IOException If the header can't be read, or is not valid.
+     */
+    public AdaptiveHuffmanInputStream(InputStream in) throws IOException {
+        super(in);
+        if (new DataInputStream(in).readInt() != HuffmanFormat.ADAPTIVE_MAGIC) {
+            throw new IOException("Not an adaptively compressed stream!");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (!finished) {
+            int symbol = decode();
+            if (symbol < Encoder.BYTE_ALPHABET_SIZE) {
+                return symbol;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads decoded bytes, returning early at a flush, so a reader sees everything the writer has flushed without waiting for more.
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (read < len && !finished) {
+            int symbol = decode();
+            if (symbol < Encoder.BYTE_ALPHABET_SIZE) {
+                b[off + read++] = (byte) symbol;
+            } else if (symbol == AdaptiveHuffmanTree.FLUSH && read > 0) {
+                break;
+            }
+        }
+        return read == 0 && finished ? -1 : read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && read() != -1) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    /**
+     * Returns 0, since how many bytes can be decoded without blocking isn't known until they are decoded.
+     */
+    @Override
+    public int available() {
+        return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("Mark and reset are not supported!");
+    }
+
+    /**
+     * Decodes the next symbol, handling flushes and the end of the stream.
+     *
+     * @return The symbol, which is FLUSH or END for those markers and a byte value otherwise.
+     * @throws IOException If the input can't be read from, or is not valid.
+     */
+    private int decode() throws IOException {
+        int node = tree.getRoot();
+        while (!tree.isLeaf(node)) {
+            node = tree.getChild(node, readBit());
+        }
+        int symbol;
+        if (node == tree.getNotYetTransmitted()) {
+            symbol = 0;
+            for (int i = 0; i < AdaptiveHuffmanTree.SYMBOL_BITS; i++) {
+                symbol = (symbol << 1) | readBit();
+            }
+            if (symbol >= AdaptiveHuffmanTree.ALPHABET_SIZE || tree.getLeaf(symbol) >= 0) {
+                throw new IOException("Stream contains a new symbol that is not valid, it is corrupt!");
+            }
+        } else {
+            symbol = tree.getSymbol(node);
+        }
+        tree.update(symbol);
+
+        // The writer pads to a whole byte after a flush or the end, so the rest of the current byte is thrown away.
+        if (symbol == AdaptiveHuffmanTree.FLUSH || symbol == AdaptiveHuffmanTree.END) {
+            bitsLeft = 0;
+            finished = symbol == AdaptiveHuffmanTree.END;
+        }
+        return symbol;
+    }
+
+    private int readBit() throws IOException {
+        if (bitsLeft == 0) {
+            if (position == count) {
+                // Only ask for what the underlying stream has, so a flushed stream can be decoded without waiting for the next one.
+                count = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (count <= 0) {
+                    count = 0;
+                    throw new EOFException("Stream ends before its end marker!");
+                }
+            }
+            current = buffer[position++] & 0xFF;
+            bitsLeft = Byte.SIZE;
+        }
+        return (current >>> --bitsLeft) & 1;
+    }
+}
@@ -0,0 +1,145 @@
+package me.lukecs;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class AdaptiveHuffmanOutputStream extends FilterOutputStream {
+    private final AdaptiveHuffmanTree tree = new AdaptiveHuffmanTree();
+    private final int[] path = new int[AdaptiveHuffmanTree.ALPHABET_SIZE * 2];
+    private final byte[] buffer = new byte[8192];
+    private int count;
+    private long accumulator;
+    private int pending;
+    private boolean finished;
+
+    /**
+     * An AdaptiveHuffmanOutputStream compresses everything written to it in a single pass, updating the codes after every byte instead
+     * of counting a whole block first. Each byte's bits are ready as soon as it is written, so calling flush() sends everything written
+     * so far within a byte of padding, at the cost of compressing a little worse than a block with its own frequency table.
+     *
+     * @param out The output to write the compressed stream to.
+     * @throws IOException If the header can't be written.
+     */
+    public AdaptiveHuffmanOutputStream(OutputStream out) throws IOException {
+        super(out);
+        new DataOutputStream(out).writeInt(HuffmanFormat.ADAPTIVE_MAGIC);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        encode(b & 0xFF);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        for (int i = off; i < off + len; i++) {
+            encode(b[i] & 0xFF);
+        }
+    }
+
+    /**
+     * Writes a flush symbol and pads to a whole byte, so the reader can decode everything written so far, then flushes the underlying
+     * stream.
+     *
+     * @throws IOException If the output can't be written to.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (!finished) {
+            encode(AdaptiveHuffmanTree.FLUSH);
+            padToByte();
+        }
+        writeBuffer();
+        out.flush();
+    }
+
+    /**
+     * Writes the end symbol, without closing the underlying stream. Nothing more can be written afterwards.
+     *
+     * @throws IOException If the output can't be written to.
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            encode(AdaptiveHuffmanTree.END);
+            padToByte();
+            writeBuffer();
+            finished = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void encode(int symbol) throws IOException {
+        int node = tree.getLeaf(symbol);
+        if (node < 0) {
+            // A symbol that hasn't occurred yet is sent as the code for "not yet transmitted", followed by the symbol itself.
+            writePath(tree.getNotYetTransmitted());
+            writeBits(symbol, AdaptiveHuffmanTree.SYMBOL_BITS);
+        } else {
+            writePath(node);
+        }
+        tree.update(symbol);
+    }
+
+    /**
+     * Writes the code for a node, which is the path to it from the root.
+     *
+     * @param node The node.
+     * @throws IOException If the output can't be written to.
+     */
+    private void writePath(int node) throws IOException {
+        // Walking up from the node gives the bits backwards, so collect them first.
+        int length = 0;
+        int root = tree.getRoot();
+        while (node != root) {
+            path[length++] = tree.getBit(node);
+            node = tree.getParent(node);
+        }
+        while (length > 0) {
+            writeBits(path[--length], 1);
+        }
+    }
+
+    private void writeBits(int bits, int length) throws IOException {
+        accumulator = (accumulator << length) | bits;
+        pending += length;
+        while (pending >= Byte.SIZE) {
+            pending -= Byte.SIZE;
+            if (count == buffer.length) {
+                writeBuffer();
+            }
+            buffer[count++] = (byte) (accumulator >>> pending);
+        }
+    }
+
+    private void padToByte() throws IOException {
+        if (pending > 0) {
+            writeBits(0, Byte.SIZE - pending);
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        out.write(buffer, 0, count);
+        count = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Stream has already been finished!");
+        }
+    }
+}
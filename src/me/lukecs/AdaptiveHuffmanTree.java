@@ -0,0 +1,212 @@
+package me.lukecs;
+
+import java.util.Arrays;
+
+public class AdaptiveHuffmanTree {
+    /**
+     * The symbol that marks a flush, after which the encoded bits are padded out to a whole byte.
+     */
+    public static final int FLUSH = 256;
+
+    /**
+     * The symbol that marks the end of the stream.
+     */
+    public static final int END = 257;
+
+    /**
+     * The number of symbols: every byte value, plus FLUSH and END.
+     */
+    public static final int ALPHABET_SIZE = 258;
+
+    /**
+     * The number of bits a symbol is sent as the first time it occurs, before it has a code.
+     */
+    public static final int SYMBOL_BITS = 9;
+
+    /*
+     Nodes are kept in arrays indexed by their number in the FGK ordering, which lists the nodes from the lowest weight to the highest,
+     with siblings next to each other. The root is always the highest number, and every new symbol takes the next two numbers down.
+     Swapping two nodes swaps what is stored at their numbers, so the parent of a number never changes, only the parent of a subtree.
+     */
+    private static final int NODES = 2 * ALPHABET_SIZE + 1;
+    private static final int ROOT = NODES - 1;
+
+    private final int[] weight = new int[NODES];
+    private final int[] parent = new int[NODES];
+    private final int[] left = new int[NODES];
+    private final int[] right = new int[NODES];
+    private final int[] symbol = new int[NODES];
+    private final int[] leaf = new int[ALPHABET_SIZE];
+    private int notYetTransmitted = ROOT;
+
+    /**
+     * An AdaptiveHuffmanTree is a Huffman tree that is updated after every symbol (the FGK algorithm), so an encoder and a decoder
+     * that start from the same empty tree and see the same symbols always agree on the codes, without a frequency table being sent.
+     * Symbols that have not occurred yet share a single "not yet transmitted" leaf, and are sent as that leaf's code followed by the
+     * symbol itself.
+     */
+    public AdaptiveHuffmanTree() {
+        Arrays.fill(leaf, -1);
+        parent[ROOT] = -1;
+        left[ROOT] = -1;
+        right[ROOT] = -1;
+        symbol[ROOT] = -1;
+    }
+
+    /**
+     * Returns the root node.
+     *
+     * @return The root node.
+     */
+    public int getRoot() {
+        return ROOT;
+    }
+
+    /**
+     * Returns the leaf that stands for every symbol that has not occurred yet.
+     *
+     * @return The not yet transmitted leaf.
+     */
+    public int getNotYetTransmitted() {
+        return notYetTransmitted;
+    }
+
+    /**
+     * Returns the leaf for a symbol.
+     *
+     * @param symbol The symbol.
+     * @return The symbol's leaf, or -1 if the symbol has not occurred yet.
+     */
+    public int getLeaf(int symbol) {
+        return leaf[symbol];
+    }
+
+    /**
+     * Returns whether a node is a leaf, including the not yet transmitted leaf.
+     *
+     * @param node The node.
+     * @return Whether the node has no children.
+     */
+    public boolean isLeaf(int node) {
+        return left[node] < 0;
+    }
+
+    /**
+     * Returns the symbol of a leaf.
+     *
+     * @param node The leaf.
+     * @return The symbol, or -1 for the not yet transmitted leaf.
+     */
+    public int getSymbol(int node) {
+        return symbol[node];
+    }
+
+    /**
+     * Returns the child of a node that a bit leads to.
+     *
+     * @param node The node, which must not be a leaf.
+     * @param bit 0 for the left child, 1 for the right.
+     * @return The child.
+     */
+    public int getChild(int node, int bit) {
+        return bit == 0 ? left[node] : right[node];
+    }
+
+    /**
+     * Returns the parent of a node.
+     *
+     * @param node The node.
+     * @return The parent, or -1 for the root.
+     */
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    /**
+     * Returns the bit that leads to a node from its parent.
+     *
+     * @param node The node, which must not be the root.
+     * @return 1 if the node is its parent's right child, 0 if it is the left.
+     */
+    public int getBit(int node) {
+        return right[parent[node]] == node ? 1 : 0;
+    }
+
+    /**
+     * Counts one more occurrence of a symbol, adding it to the tree if it is new, and moves nodes around so the tree is still a
+     * Huffman tree for the counts so far.
+     *
+     * @param s The symbol that has just been encoded or decoded.
+     */
+    public void update(int s) {
+        int q = leaf[s];
+        if (q < 0) {
+            // Split the not yet transmitted leaf into a new one of those on the left, and a leaf for the new symbol on the right.
+            int node = notYetTransmitted;
+            int newLeaf = node - 1;
+            int newNotYetTransmitted = node - 2;
+            left[node] = newNotYetTransmitted;
+            right[node] = newLeaf;
+            for (int child = newNotYetTransmitted; child <= newLeaf; child++) {
+                parent[child] = node;
+                left[child] = -1;
+                right[child] = -1;
+                weight[child] = 0;
+            }
+            symbol[newNotYetTransmitted] = -1;
+            symbol[newLeaf] = s;
+            leaf[s] = newLeaf;
+            notYetTransmitted = newNotYetTransmitted;
+            q = newLeaf;
+        }
+
+        /*
+         Walk up to the root, adding one to each node on the way. Before a node's weight goes up, it is swapped with the highest numbered
+         node of the same weight, so it stays in order. Nodes of the same weight are always next to each other in the numbering.
+         */
+        while (q != ROOT) {
+            int leader = q;
+            // The root is an ancestor of everything, so it is never swapped.
+            while (leader + 1 < ROOT && weight[leader + 1] == weight[q]) {
+                leader++;
+            }
+            if (leader != q && leader != parent[q]) {
+                swap(q, leader);
+                q = leader;
+            }
+            weight[q]++;
+            q = parent[q];
+        }
+        weight[ROOT]++;
+    }
+
+    private void swap(int a, int b) {
+        int temporary = symbol[a];
+        symbol[a] = symbol[b];
+        symbol[b] = temporary;
+        temporary = left[a];
+        left[a] = left[b];
+        left[b] = temporary;
+        temporary = right[a];
+        right[a] = right[b];
+        right[b] = temporary;
+        relink(a);
+        relink(b);
+    }
+
+    /**
+     * Points everything that refers to the subtree now stored at a node's number back at that number.
+     *
+     * @param node The node number.
+     */
+    private void relink(int node) {
+        if (!isLeaf(node)) {
+            parent[left[node]] = node;
+            parent[right[node]] = node;
+        } else if (symbol[node] >= 0) {
+            leaf[symbol[node]] = node;
+        } else {
+            notYetTransmitted = node;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package me.lukecs;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class BatchCompressor {
+    /**
+     * Compresses or decompresses a single file.
+     */
+    private interface FileJob {
+        void run(Path input, Path output) throws IOException;
+    }
+
+    /**
+     * Compresses every file under a directory that matches a glob, several files at once.
+     *
+     * @param root The directory to search, including all of its subdirectories.
+     * @param glob The files to compress, matched against the path from the root if it has a '/', or against just the file name if not.
+     * @param outputRoot The directory to write compressed files to, laid out like the root, or null to write them next to the originals.
+     * @param options The options to compress with. The threads are spread across files, rather than across blocks of one file.
+     * @return A summary of what was compressed.
+     * @throws IOException If the directory can't be searched.
+     */
+    public static BatchSummary compressAll(Path root, String glob, Path outputRoot, CodecOptions options) throws IOException {
+        // Files that are already compressed are left out, so running the same batch twice doesn't compress the outputs again.
+        return run(root, glob, outputRoot, options, false,
+                (input, output) -> FileUtilities.compressFile(input, output, singleThreaded(options)));
+    }
+
+    /**
+     * Decompresses every compressed file under a directory that matches a glob, several files at once. Each file is written out under
+     * its name with HuffmanFormat.EXTENSION taken off.
+     *
+     * @param root The directory to search, including all of its subdirectories.
+     * @param glob The files to decompress, matched as for compressAll. Only files ending in HuffmanFormat.EXTENSION are considered.
+     * @param outputRoot The directory to write decompressed files to, laid out like the root, or null to write them next to the originals.
+     * @param options The options to decompress with. The threads are spread across files, rather than across blocks of one file.
+     * @return A summary of what was decompressed.
+     * @throws IOException If the directory can't be searched.
+     */
+    public static BatchSummary decompressAll(Path root, String glob, Path outputRoot, CodecOptions options) throws IOException {
+        return run(root, glob, outputRoot, options, true,
+                (input, output) -> FileUtilities.decompressFile(input, output, singleThreaded(options)));
+    }
+
+    private static BatchSummary run(Path root, String glob, Path outputRoot, CodecOptions options, boolean compressed, FileJob job)
+            throws IOException {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        boolean byName = !glob.contains("/");
+        BatchSummary summary = new BatchSummary();
+        int threads = options.getThreads();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        /*
+         The directory is walked lazily, and only a couple of files per thread are queued up at once, so a huge tree doesn't turn into a
+         huge queue. Once the queue is full, walking waits until a file is finished.
+         */
+        Semaphore queued = new Semaphore(2 * threads);
+        long start = System.nanoTime();
+        try (Stream<Path> walk = Files.walk(root)) {
+            Iterator<Path> files = walk.filter(Files::isRegularFile).iterator();
+            while (files.hasNext()) {
+                Path input = files.next();
+                Path relative = root.relativize(input);
+                boolean isCompressed = input.getFileName().toString().endsWith(HuffmanFormat.EXTENSION);
+                if (isCompressed != compressed || !matcher.matches(byName ? input.getFileName() : relative)) {
+                    continue;
+                }
+                Path output = outputName(outputRoot == null ? input : outputRoot.resolve(relative.toString()), compressed);
+
+                queued.acquireUninterruptibly();
+                pool.execute(() -> {
+                    try {
+                        if (output.getParent() != null) {
+                            Files.createDirectories(output.getParent());
+                        }
+                        job.run(input, output);
+                        long inputSize = Files.size(input);
+                        long outputSize = Files.size(output);
+                        summary.addFile(compressed ? outputSize : inputSize, compressed ? inputSize : outputSize);
+                    } catch (IOException | RuntimeException e) {
+                        summary.addFailure(input + ": " + e);
+                        // Don't leave a half written file behind, where it could be mistaken for a good one.
+                        try {
+                            Files.deleteIfExists(output);
+                        } catch (IOException ignored) {
+                        }
+                    } finally {
+                        queued.release();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pool.shutdownNow();
+            }
+        }
+        summary.setElapsed(System.nanoTime() - start);
+        return summary;
+    }
+
+    private static Path outputName(Path path, boolean compressed) {
+        String name = path.getFileName().toString();
+        if (compressed) {
+            return path.resolveSibling(name.substring(0, name.length() - HuffmanFormat.EXTENSION.length()));
+        }
+        return path.resolveSibling(name + HuffmanFormat.EXTENSION);
+    }
+
+    private static CodecOptions singleThreaded(CodecOptions options) {
+        return new CodecOptions(options).setThreads(1);
+    }
+}
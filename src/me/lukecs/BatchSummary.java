@@ -0,0 +1,117 @@
+package me.lukecs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class BatchSummary {
+    private int files;
+    private long uncompressedBytes;
+    private long compressedBytes;
+    private long nanos;
+    private final List<String> failures = new ArrayList<>();
+
+    /**
+     * Records a file that was processed successfully. Safe to call from several threads at once.
+     *
+     * @param uncompressed The size of the original file.
+     * @param compressed The size of the compressed file.
+     */
+    public synchronized void addFile(long uncompressed, long compressed) {
+        files++;
+        uncompressedBytes += uncompressed;
+        compressedBytes += compressed;
+    }
+
+    /**
+     * Records a file that could not be processed. Safe to call from several threads at once.
+     *
+     * @param failure A description of the file and what went wrong.
+     */
+    public synchronized void addFailure(String failure) {
+        failures.add(failure);
+    }
+
+    /**
+     * Records how long the whole batch took.
+     *
+     * @param nanos The elapsed time in nanoseconds.
+     */
+    public synchronized void setElapsed(long nanos) {
+        this.nanos = nanos;
+    }
+
+    /**
+     * Returns the number of files that were processed successfully.
+     *
+     * @return The number of files.
+     */
+    public synchronized int getFiles() {
+        return files;
+    }
+
+    /**
+     * Returns a description of each file that could not be processed.
+     *
+     * @return The failures.
+     */
+    public synchronized List<String> getFailures() {
+        return Collections.unmodifiableList(new ArrayList<>(failures));
+    }
+
+    /**
+     * Returns the total size of the original files.
+     *
+     * @return The number of uncompressed bytes.
+     */
+    public synchronized long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    /**
+     * Returns the total size of the compressed files.
+     *
+     * @return The number of compressed bytes.
+     */
+    public synchronized long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /**
+     * Returns the number of files processed per second.
+     *
+     * @return The files per second.
+     */
+    public synchronized double getFilesPerSecond() {
+        return nanos == 0 ? 0 : files / (nanos / 1e9);
+    }
+
+    /**
+     * Returns the number of megabytes of original data compressed or decompressed per second.
+     *
+     * @return The MB/s of uncompressed data.
+     */
+    public synchronized double getMegabytesPerSecond() {
+        return nanos == 0 ? 0 : uncompressedBytes / 1e6 / (nanos / 1e9);
+    }
+
+    /**
+     * Returns the size of the compressed files as a fraction of the size of the originals.
+     *
+     * @return The compression ratio, 0 if there was no original data.
+     */
+    public synchronized double getRatio() {
+        return uncompressedBytes == 0 ? 0 : (double) compressedBytes / uncompressedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%d files, %d bytes uncompressed, %d bytes compressed, in %.2f s%n", files, uncompressedBytes, compressedBytes, nanos / 1e9));
+        builder.append(String.format("%.1f files/s, %.1f MB/s, ratio %.3f", getFilesPerSecond(), getMegabytesPerSecond(), getRatio()));
+        for (String failure : failures) {
+            builder.append(String.format("%nFailed: %s", failure));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,141 @@
+package me.lukecs;
+
+import java.nio.ByteBuffer;
+
+public class BitReader {
+    private byte[] data;
+    private ByteBuffer words;
+    private long bitLength;
+    private int offset;
+    private int next;
+    private long buffer;
+    private int available;
+    private long position;
+
+    /**
+     * A BitReader reads packed bits, most significant bit first, keeping up to 64 of them buffered so that several bits can be looked at
+     * in one go.
+     *
+     * @param data The packed data.
+     * @param bitLength The number of meaningful bits in the data, excluding padding.
+     */
+    public BitReader(byte[] data, long bitLength) {
+        this(data, 0, bitLength);
+    }
+
+    /**
+     * A BitReader can also start part way through an array, for when several bitstreams are stored one after the other. Bytes after
+     * the end of this stream may be loaded into the buffer, but are never counted as meaningful bits.
+     *
+     * @param data The packed data.
+     * @param offset The index of the first byte of this stream.
+     * @param bitLength The number of meaningful bits in this stream, excluding padding.
+     */
+    public BitReader(byte[] data, int offset, long bitLength) {
+        this.data = data;
+        this.words = ByteBuffer.wrap(data);
+        this.bitLength = bitLength;
+        this.offset = offset;
+        this.next = offset;
+    }
+
+    /**
+     * Starts reading a different stream, so one BitReader can be reused for many without allocating. Reading from the same array as
+     * last time doesn't allocate at all.
+     *
+     * @param data The packed data.
+     * @param offset The index of the first byte of this stream.
+     * @param bitLength The number of meaningful bits in this stream, excluding padding.
+     */
+    public void reset(byte[] data, int offset, long bitLength) {
+        if (data != this.data) {
+            this.data = data;
+            this.words = ByteBuffer.wrap(data);
+        }
+        this.bitLength = bitLength;
+        this.offset = offset;
+        this.next = offset;
+        this.buffer = 0;
+        this.available = 0;
+        this.position = 0;
+    }
+
+    /**
+     * Tops the buffer up so that at least 57 bits can be peeked at. Past the end of the data, the buffer is filled with 0s.
+     */
+    public void refill() {
+        if (available > 56) {
+            return;
+        }
+        if (next + Long.BYTES <= data.length) {
+            /*
+             Load 8 bytes in one go and keep as many whole bytes of them as fit. Any partial byte that gets shifted in below the
+             available bits is loaded again, identically, by the next refill, so it does no harm.
+             */
+            buffer |= words.getLong(next) >>> available;
+            int loaded = (63 - available) >>> 3;
+            next += loaded;
+            available += loaded << 3;
+            return;
+        }
+        while (available <= 56) {
+            long b = next < data.length ? data[next] & 0xFF : 0;
+            next++;
+            buffer |= b << (56 - available);
+            available += 8;
+        }
+    }
+
+    /**
+     * Moves to any bit of the stream, throwing away whatever was buffered.
+     *
+     * @param position The number of bits from the start of the stream to move to.
+     */
+    public void seek(long position) {
+        next = offset + (int) (position >>> 3);
+        buffer = 0;
+        available = 0;
+        this.position = position & ~7L;
+        refill();
+        skip((int) (position & 7));
+    }
+
+    /**
+     * Looks at the next few bits without consuming them. The caller must have refilled the buffer beforehand.
+     *
+     * @param count The number of bits to look at, from 1-57.
+     * @return The bits, right aligned.
+     */
+    public int peek(int count) {
+        return (int) (buffer >>> (64 - count));
+    }
+
+    /**
+     * Consumes some bits that have already been looked at.
+     *
+     * @param count The number of bits to consume.
+     */
+    public void skip(int count) {
+        buffer <<= count;
+        available -= count;
+        position += count;
+    }
+
+    /**
+     * Returns the number of bits consumed so far.
+     *
+     * @return The position in bits.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the number of meaningful bits not yet consumed.
+     *
+     * @return The number of bits remaining, which is negative if a code ran past the end of the data.
+     */
+    public long remaining() {
+        return bitLength - position;
+    }
+}
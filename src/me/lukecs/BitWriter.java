@@ -0,0 +1,107 @@
+package me.lukecs;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class BitWriter {
+    private byte[] buffer;
+    private int position;
+    private long accumulator;
+    private int pending;
+    private long bitLength;
+
+    /**
+     * A BitWriter packs variable length codes straight into bytes, most significant bit first, using a 64-bit accumulator.
+     *
+     * @param expectedBytes An estimate of the number of bytes that will be written, used to size the initial buffer.
+     */
+    public BitWriter(int expectedBytes) {
+        this.buffer = new byte[Math.max(16, expectedBytes)];
+    }
+
+    /**
+     * Appends the lowest 'length' bits of a code to the output.
+     *
+     * @param code The code to append, right aligned.
+     * @param length The number of bits in the code, from 0-32.
+     */
+    public void write(int code, int length) {
+        accumulator = (accumulator << length) | (code & ((1L << length) - 1));
+        pending += length;
+        bitLength += length;
+        /*
+         The accumulator never holds more than 31 pending bits between calls, so adding a code of up to 32 bits can't overflow it.
+         Once we have at least 32 bits pending, we spill the top 32 of them as 4 whole bytes.
+         */
+        if (pending >= 32) {
+            ensureCapacity(4);
+            pending -= 32;
+            int bits = (int) (accumulator >>> pending);
+            buffer[position] = (byte) (bits >>> 24);
+            buffer[position + 1] = (byte) (bits >>> 16);
+            buffer[position + 2] = (byte) (bits >>> 8);
+            buffer[position + 3] = (byte) bits;
+            position += 4;
+        }
+    }
+
+    /**
+     * Returns the number of bits written so far, not including any padding.
+     *
+     * @return The number of bits written.
+     */
+    public long getBitLength() {
+        return bitLength;
+    }
+
+    /**
+     * Flushes any pending bits, padding the final byte with 0s, and returns the packed data.
+     *
+     * @return The packed bytes, exactly ceil(bitLength / 8) long.
+     */
+    public byte[] toByteArray() {
+        int length = flush();
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Flushes any pending bits, padding the final byte with 0s, and puts the packed data into a buffer.
+     *
+     * @param out The buffer to put exactly ceil(bitLength / 8) bytes into, at its position.
+     */
+    public void writeTo(ByteBuffer out) {
+        int length = flush();
+        out.put(buffer, 0, length);
+    }
+
+    /**
+     * Throws away everything written so far, keeping the buffer so the next lot of codes can be packed without allocating.
+     */
+    public void reset() {
+        position = 0;
+        accumulator = 0;
+        pending = 0;
+        bitLength = 0;
+    }
+
+    /**
+     * Writes the pending bits out after the whole bytes, without moving past them, and returns the number of packed bytes.
+     */
+    private int flush() {
+        ensureCapacity(4);
+        int bytes = (pending + 7) / 8;
+        // Left align the pending bits so that padding ends up in the least significant bits of the final byte.
+        long aligned = accumulator << (bytes * 8 - pending);
+        for (int i = bytes - 1; i >= 0; i--) {
+            buffer[position + i] = (byte) aligned;
+            aligned >>>= 8;
+        }
+        return position + bytes;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package me.lukecs;
+
+import java.util.Arrays;
+
+public class BlockIndex {
+    private long[] compressedOffsets;
+    private long[] uncompressedOffsets;
+    private int size;
+    private long uncompressedLength;
+
+    /**
+     * A BlockIndex records where each block starts, both in the compressed file and in the original data, so that the block holding
+     * any byte of the original can be found without decoding the blocks before it.
+     */
+    public BlockIndex() {
+        this.compressedOffsets = new long[16];
+        this.uncompressedOffsets = new long[16];
+    }
+
+    /**
+     * A BlockIndex that has already been filled in, such as one read back from a file.
+     *
+     * @param compressedOffsets The offset of each block in the compressed file.
+     * @param uncompressedOffsets The offset of each block's first byte in the original data, in increasing order.
+     * @param uncompressedLength The length of the original data.
+     */
+    public BlockIndex(long[] compressedOffsets, long[] uncompressedOffsets, long uncompressedLength) {
+        if (compressedOffsets.length != uncompressedOffsets.length) {
+            throw new IllegalArgumentException("There must be one compressed offset for each uncompressed offset!");
+        }
+        this.compressedOffsets = compressedOffsets.clone();
+        this.uncompressedOffsets = uncompressedOffsets.clone();
+        this.size = compressedOffsets.length;
+        this.uncompressedLength = uncompressedLength;
+    }
+
+    /**
+     * Adds the next block to the end of the index.
+     *
+     * @param compressedOffset The offset of the block in the compressed file.
+     * @param length The number of bytes of original data in the block.
+     */
+    public void add(long compressedOffset, long length) {
+        if (size == compressedOffsets.length) {
+            compressedOffsets = Arrays.copyOf(compressedOffsets, size * 2);
+            uncompressedOffsets = Arrays.copyOf(uncompressedOffsets, size * 2);
+        }
+        compressedOffsets[size] = compressedOffset;
+        uncompressedOffsets[size] = uncompressedLength;
+        size++;
+        uncompressedLength += length;
+    }
+
+    /**
+     * Returns the number of blocks.
+     *
+     * @return The number of blocks.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns where a block starts in the compressed file.
+     *
+     * @param block The block number.
+     * @return The offset of the block's marker.
+     */
+    public long getCompressedOffset(int block) {
+        return compressedOffsets[block];
+    }
+
+    /**
+     * Returns where a block starts in the original data.
+     *
+     * @param block The block number.
+     * @return The offset of the block's first byte.
+     */
+    public long getUncompressedOffset(int block) {
+        return uncompressedOffsets[block];
+    }
+
+    /**
+     * Returns the number of bytes of original data in a block.
+     *
+     * @param block The block number.
+     * @return The length of the block once decoded.
+     */
+    public long getUncompressedLength(int block) {
+        return (block + 1 < size ? uncompressedOffsets[block + 1] : uncompressedLength) - uncompressedOffsets[block];
+    }
+
+    /**
+     * Returns the length of all of the original data.
+     *
+     * @return The total uncompressed length.
+     */
+    public long getUncompressedLength() {
+        return uncompressedLength;
+    }
+
+    /**
+     * Finds the block that holds a byte of the original data.
+     *
+     * @param uncompressedOffset The offset of the byte in the original data.
+     * @return The block number.
+     */
+    public int findBlock(long uncompressedOffset) {
+        if (uncompressedOffset < 0 || uncompressedOffset >= uncompressedLength) {
+            throw new IndexOutOfBoundsException("Offset " + uncompressedOffset + " is outside of the data!");
+        }
+        // The last block starting at or before the offset, found by binary search.
+        int index = Arrays.binarySearch(uncompressedOffsets, 0, size, uncompressedOffset);
+        return index >= 0 ? index : -index - 2;
+    }
+}
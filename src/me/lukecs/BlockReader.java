@@ -0,0 +1,201 @@
+package me.lukecs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public class BlockReader implements Closeable {
+    /**
+     * The number of bytes left free at the start of every buffer, so the few bytes of a character split across the end of the
+     * previous block can be put in front of the next one without copying it.
+     */
+    public static final int HEADROOM = 16;
+
+    /**
+     * A Chunk is one buffer full of input, with its bytes starting at HEADROOM.
+     */
+    public static final class Chunk {
+        private final byte[] buffer;
+        private final int length;
+        private final boolean last;
+
+        private Chunk(byte[] buffer, int length, boolean last) {
+            this.buffer = buffer;
+            this.length = length;
+            this.last = last;
+        }
+
+        /**
+         * Returns the buffer the chunk was read into, which should be handed back with recycle() once it is no longer needed.
+         *
+         * @return The buffer.
+         */
+        public byte[] getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Returns the number of bytes read into the buffer, after HEADROOM.
+         *
+         * @return The number of bytes.
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Returns whether the input ran out while reading this chunk, so there are no more bytes after it.
+         *
+         * @return Whether this is the last chunk.
+         */
+        public boolean isLast() {
+            return last;
+        }
+    }
+
+    private static final Chunk END = new Chunk(null, 0, true);
+
+    private final InputStream in;
+    private final int blockSize;
+    private final int depth;
+    private final BlockingQueue<byte[]> free;
+    private final BlockingQueue<Chunk> filled;
+    private final Thread thread;
+    private final long startTime;
+    private int allocated;
+    private volatile IOException failure;
+    private boolean ended;
+
+    /**
+     * A BlockReader reads the input ahead on a thread of its own, a block at a time, into a fixed number of buffers that are reused
+     * once they have been handed back. Reading only waits when every buffer is full or still in use, so the input is read while the
+     * blocks before it are still being coded and written.
+     *
+     * @param in The input to read from, which is only ever read from the reading thread.
+     * @param blockSize The number of bytes to read into each buffer.
+     * @param depth The number of buffers, which is the most blocks that can be read ahead or still in use at once.
+     */
+    public BlockReader(InputStream in, int blockSize, int depth) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive!");
+        }
+        if (depth < 1) {
+            throw new IllegalArgumentException("Queue depth must be at least 1!");
+        }
+        this.in = in;
+        this.blockSize = blockSize;
+        this.depth = depth;
+        this.free = new ArrayBlockingQueue<>(depth);
+        // One more than the number of buffers, so the end can always be added.
+        this.filled = new ArrayBlockingQueue<>(depth + 1);
+        this.startTime = System.nanoTime();
+        this.thread = new Thread(this::readInBackground, "huffman-reader");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Waits for the next chunk of input.
+     *
+     * @return The next chunk, or null if the input has run out.
+     * @throws IOException If the input couldn't be read from.
+     */
+    public Chunk take() throws IOException {
+        if (ended) {
+            return null;
+        }
+        CodecMetrics.getInstance().sampleQueue(CodecMetrics.PipelineStage.READ, filled.size());
+        Chunk chunk;
+        try {
+            chunk = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for input!", e);
+        }
+        if (chunk == END) {
+            ended = true;
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        }
+        return chunk;
+    }
+
+    /**
+     * Hands a buffer back, so the next chunk can be read into it. This can be called from any thread.
+     *
+     * @param buffer A buffer from a chunk, which must no longer be used.
+     */
+    public void recycle(byte[] buffer) {
+        free.offer(buffer);
+    }
+
+    /**
+     * Stops the reading thread, without closing the input.
+     */
+    @Override
+    public void close() {
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void readInBackground() {
+        long busy = 0;
+        try {
+            boolean last = false;
+            while (!last) {
+                byte[] buffer = nextBuffer();
+                CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+                long start = System.nanoTime();
+                int length = fill(buffer);
+                busy += System.nanoTime() - start;
+                probe.lap(CodecMetrics.Stage.READ);
+                last = length < blockSize;
+                if (length > 0) {
+                    filled.put(new Chunk(buffer, length, last));
+                }
+            }
+            CodecMetrics.getInstance().addPipelineTime(CodecMetrics.PipelineStage.READ, busy, System.nanoTime() - startTime);
+        } catch (InterruptedException e) {
+            // Closed before the input ran out, so nobody is waiting for the rest.
+            return;
+        } catch (IOException e) {
+            failure = e;
+        }
+        filled.offer(END);
+    }
+
+    /**
+     * Takes a free buffer, making a new one if fewer than depth have been made so far.
+     */
+    private byte[] nextBuffer() throws InterruptedException {
+        byte[] buffer = free.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        if (allocated < depth) {
+            allocated++;
+            return new byte[HEADROOM + blockSize];
+        }
+        return free.take();
+    }
+
+    /**
+     * Reads bytes until the buffer is full or the input runs out.
+     */
+    private int fill(byte[] buffer) throws IOException {
+        int length = 0;
+        int read;
+        while (length < blockSize && (read = in.read(buffer, HEADROOM + length, blockSize - length)) != -1) {
+            length += read;
+        }
+        return length;
+    }
+}
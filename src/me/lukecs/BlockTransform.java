@@ -0,0 +1,528 @@
+package me.lukecs;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+public class BlockTransform {
+    /**
+     * The Burrows-Wheeler transform, which sorts every byte by what comes after it, so that bytes in similar contexts end up together.
+     */
+    public static final int BWT = 1;
+
+    /**
+     * The move-to-front transform, which replaces each byte with how recently it was last seen, so repeated bytes become 0s.
+     */
+    public static final int MTF = 2;
+
+    /**
+     * Zero-run length encoding, which replaces each run of 0 bytes with its length written in two run symbols, as bzip2 does.
+     */
+    public static final int RLE = 4;
+
+    /**
+     * Every transform, which is the order they are applied in when compressing.
+     */
+    public static final int ALL = BWT | MTF | RLE;
+
+    /*
+     After RLE, symbols 0 and 1 are the two digits of a run of 0s, and every other byte value b is written as the symbol b + 1.
+     */
+    private static final char RUN_A = 0;
+    private static final char RUN_B = 1;
+    private static final int RLE_ALPHABET_SIZE = Encoder.BYTE_ALPHABET_SIZE + 1;
+    private static final String[] NAMES = {"bwt", "mtf", "rle"};
+    // Below this length, suffixes are just compared one by one.
+    private static final int NAIVE_THRESHOLD = 10;
+
+    /**
+     * Works out a set of transforms from their names.
+     *
+     * @param names The names of the transforms, separated by commas, such as "bwt,mtf,rle". "none" means no transforms.
+     * @return The transforms.
+     */
+    public static int parse(String names) {
+        int transforms = 0;
+        for (String name : names.toLowerCase(Locale.ROOT).split(",")) {
+            int index = Arrays.asList(NAMES).indexOf(name.trim());
+            if (index >= 0) {
+                transforms |= 1 << index;
+            } else if (!name.trim().equals("none")) {
+                throw new IllegalArgumentException("Unknown transform " + name + "!");
+            }
+        }
+        return transforms;
+    }
+
+    /**
+     * Names a set of transforms, in the same form that parse reads.
+     *
+     * @param transforms The transforms.
+     * @return The names of the transforms, or "none".
+     */
+    public static String describe(int transforms) {
+        StringBuilder names = new StringBuilder();
+        for (int index = 0; index < NAMES.length; index++) {
+            if ((transforms & (1 << index)) != 0) {
+                names.append(names.length() > 0 ? "," : "").append(NAMES[index]);
+            }
+        }
+        return names.length() > 0 ? names.toString() : "none";
+    }
+
+    /**
+     * Checks that a set of transforms only has transforms that exist.
+     *
+     * @param transforms The transforms.
+     * @return Whether every transform in the set exists.
+     */
+    public static boolean isValid(int transforms) {
+        return (transforms & ~ALL) == 0;
+    }
+
+    /**
+     * Transforms a block of binary data, from the buffer's position up to its limit, and then Huffman codes the result. The buffer's
+     * position is left where it was.
+     *
+     * @param data The buffer holding the bytes to compress.
+     * @param transforms The transforms to apply first, any of BWT, MTF and RLE.
+     * @param contexts Whether to code the transformed block with an order-1 model, see Encoder.compressWithContexts.
+     * @return A Huffman object holding the transformed block, which records the transforms needed to undo it.
+     */
+    public static Huffman compress(ByteBuffer data, int transforms, boolean contexts) {
+        if (!isValid(transforms)) {
+            throw new IllegalArgumentException("Unknown transforms " + transforms + "!");
+        }
+        CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+
+        int index = 0;
+        if ((transforms & BWT) != 0) {
+            byte[] sorted = new byte[bytes.length];
+            index = burrowsWheeler(bytes, sorted);
+            bytes = sorted;
+        }
+        if ((transforms & MTF) != 0) {
+            moveToFront(bytes);
+        }
+        Huffman encoded;
+        if ((transforms & RLE) != 0) {
+            // Run symbols take the alphabet past a byte, so the block is coded as characters.
+            char[] symbols = encodeZeroRuns(bytes);
+            probe.lap(CodecMetrics.Stage.TRANSFORM);
+            encoded = contexts ? Encoder.compressWithContexts(symbols, 0, symbols.length) : Encoder.compress(symbols, 0, symbols.length);
+        } else {
+            probe.lap(CodecMetrics.Stage.TRANSFORM);
+            encoded = contexts ? Encoder.compressWithContexts(bytes, 0, bytes.length) : Encoder.compress(bytes, 0, bytes.length);
+        }
+        return encoded.withTransforms(transforms, index);
+    }
+
+    /**
+     * Undoes the transforms of a block, after its Huffman codes have been decoded.
+     *
+     * @param symbols The decoded symbols, which are bytes unless the block was RLE encoded.
+     * @param transforms The transforms that were applied.
+     * @param index The row of the original data in the Burrows-Wheeler sort, if BWT was applied.
+     * @return The original bytes.
+     */
+    public static byte[] inverse(char[] symbols, int transforms, int index) {
+        byte[] bytes;
+        if ((transforms & RLE) != 0) {
+            bytes = decodeZeroRuns(symbols);
+        } else {
+            bytes = new byte[symbols.length];
+            for (int i = 0; i < symbols.length; i++) {
+                if (symbols[i] >= Encoder.BYTE_ALPHABET_SIZE) {
+                    throw new IllegalArgumentException("Transformed block has a symbol that is not a byte!");
+                }
+                bytes[i] = (byte) symbols[i];
+            }
+        }
+        if ((transforms & MTF) != 0) {
+            inverseMoveToFront(bytes);
+        }
+        if ((transforms & BWT) != 0) {
+            byte[] original = new byte[bytes.length];
+            inverseBurrowsWheeler(bytes, index, original);
+            bytes = original;
+        }
+        return bytes;
+    }
+
+    /**
+     * Applies the Burrows-Wheeler transform, using a suffix array. Conceptually, an end marker that sorts before every byte is added to the
+     * data, every suffix is sorted, and the byte before each suffix is written out. The end marker itself is left out, and its row is
+     * returned instead.
+     *
+     * @param data The bytes to transform.
+     * @param out Where to write the transformed bytes, the same length as data.
+     * @return The row that the end marker would have been written at, from 0 to data.length.
+     */
+    public static int burrowsWheeler(byte[] data, byte[] out) {
+        int n = data.length;
+        if (n == 0) {
+            return 0;
+        }
+        int[] text = new int[n];
+        for (int i = 0; i < n; i++) {
+            text[i] = data[i] & 0xFF;
+        }
+        int[] suffixes = suffixArray(text, Encoder.BYTE_ALPHABET_SIZE - 1);
+
+        // Row 0 is the suffix that is just the end marker, which comes after the last byte.
+        out[0] = data[n - 1];
+        int index = 0;
+        int position = 1;
+        for (int row = 0; row < n; row++) {
+            if (suffixes[row] == 0) {
+                index = row + 1;
+            } else {
+                out[position++] = data[suffixes[row] - 1];
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Undoes the Burrows-Wheeler transform, by following each row to the row of the suffix that starts one byte earlier.
+     *
+     * @param data The transformed bytes.
+     * @param index The row that the end marker would have been written at.
+     * @param out Where to write the original bytes, the same length as data.
+     */
+    public static void inverseBurrowsWheeler(byte[] data, int index, byte[] out) {
+        int n = data.length;
+        if (n == 0) {
+            return;
+        }
+        if (index < 1 || index > n) {
+            throw new IllegalArgumentException("Burrows-Wheeler index is out of range!");
+        }
+        // The rows are the transformed bytes with the end marker put back in at index, which sorts before everything else.
+        int[] starts = new int[Encoder.BYTE_ALPHABET_SIZE];
+        for (byte b : data) {
+            starts[b & 0xFF]++;
+        }
+        int sum = 1;
+        for (int value = 0; value < starts.length; value++) {
+            int count = starts[value];
+            starts[value] = sum;
+            sum += count;
+        }
+        int[] previous = new int[n + 1];
+        for (int row = 0; row <= n; row++) {
+            if (row != index) {
+                int value = data[row < index ? row : row - 1] & 0xFF;
+                previous[row] = starts[value]++;
+            }
+        }
+
+        // Row 0 ends with the last byte, and each step goes back one byte, until the row that ends with the end marker.
+        int row = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            out[i] = data[row < index ? row : row - 1];
+            row = previous[row];
+            if (row == index && i > 0) {
+                throw new IllegalArgumentException("Burrows-Wheeler data does not lead back to the start!");
+            }
+        }
+        if (row != index) {
+            throw new IllegalArgumentException("Burrows-Wheeler data does not lead back to the start!");
+        }
+    }
+
+    /**
+     * Applies the move-to-front transform in place.
+     *
+     * @param data The bytes to transform.
+     */
+    public static void moveToFront(byte[] data) {
+        byte[] order = new byte[Encoder.BYTE_ALPHABET_SIZE];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = (byte) i;
+        }
+        for (int i = 0; i < data.length; i++) {
+            byte value = data[i];
+            int position = 0;
+            byte moving = order[0];
+            // Shift everything in front of the value back one place, on the way to finding it.
+            while (moving != value) {
+                position++;
+                byte next = order[position];
+                order[position] = moving;
+                moving = next;
+            }
+            order[0] = value;
+            data[i] = (byte) position;
+        }
+    }
+
+    /**
+     * Undoes the move-to-front transform in place.
+     *
+     * @param data The transformed bytes.
+     */
+    public static void inverseMoveToFront(byte[] data) {
+        byte[] order = new byte[Encoder.BYTE_ALPHABET_SIZE];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = (byte) i;
+        }
+        for (int i = 0; i < data.length; i++) {
+            int position = data[i] & 0xFF;
+            byte value = order[position];
+            System.arraycopy(order, 0, order, 1, position);
+            order[0] = value;
+            data[i] = value;
+        }
+    }
+
+    /**
+     * Replaces each run of 0 bytes with its length, written in bijective base 2 with RUN_A as the digit 1 and RUN_B as the digit 2, least
+     * significant digit first. Every other byte value b becomes the symbol b + 1.
+     *
+     * @param data The bytes to encode.
+     * @return The encoded symbols, from 0 to 256.
+     */
+    public static char[] encodeZeroRuns(byte[] data) {
+        // A run never takes more symbols than it has bytes, so the output is never longer than the input.
+        char[] out = new char[data.length];
+        int count = 0;
+        int i = 0;
+        while (i < data.length) {
+            if (data[i] != 0) {
+                out[count++] = (char) ((data[i++] & 0xFF) + 1);
+                continue;
+            }
+            int run = 0;
+            while (i < data.length && data[i] == 0) {
+                run++;
+                i++;
+            }
+            while (run > 0) {
+                if ((run & 1) != 0) {
+                    out[count++] = RUN_A;
+                    run = (run - 1) >>> 1;
+                } else {
+                    out[count++] = RUN_B;
+                    run = (run - 2) >>> 1;
+                }
+            }
+        }
+        return Arrays.copyOf(out, count);
+    }
+
+    /**
+     * Undoes zero-run length encoding.
+     *
+     * @param symbols The encoded symbols.
+     * @return The original bytes.
+     */
+    public static byte[] decodeZeroRuns(char[] symbols) {
+        // Work out how long the output is first, so that it can be written straight into an array of the right size.
+        long length = 0;
+        long run = 0;
+        long weight = 1;
+        for (char symbol : symbols) {
+            if (symbol <= RUN_B) {
+                run += weight << symbol;
+                weight <<= 1;
+                if (run > Integer.MAX_VALUE - length || weight > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Zero run is too long!");
+                }
+            } else if (symbol < RLE_ALPHABET_SIZE) {
+                length += run + 1;
+                run = 0;
+                weight = 1;
+            } else {
+                throw new IllegalArgumentException("Run length encoded block has a symbol that is not a byte or a run!");
+            }
+        }
+        length += run;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Run length encoded block is too long!");
+        }
+
+        // Runs of 0s are left as they are, since the array starts out full of 0s.
+        byte[] out = new byte[(int) length];
+        int position = 0;
+        int pending = 0;
+        int digit = 1;
+        for (char symbol : symbols) {
+            if (symbol <= RUN_B) {
+                pending += digit << symbol;
+                digit <<= 1;
+            } else {
+                position += pending;
+                pending = 0;
+                digit = 1;
+                out[position++] = (byte) (symbol - 1);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Builds the suffix array of a string with SA-IS, which sorts all of the suffixes in linear time by sorting a sample of them first,
+     * and then inducing the order of the rest from the sample. A suffix that is a prefix of another sorts first.
+     *
+     * @param text The string, with every value from 0 to upper.
+     * @param upper The largest value in the string.
+     * @return The starting position of each suffix, in sorted order.
+     */
+    static int[] suffixArray(int[] text, int upper) {
+        int n = text.length;
+        if (n == 0) {
+            return new int[0];
+        }
+        if (n == 1) {
+            return new int[]{0};
+        }
+        if (n == 2) {
+            return text[0] < text[1] ? new int[]{0, 1} : new int[]{1, 0};
+        }
+        if (n < NAIVE_THRESHOLD) {
+            return naiveSuffixArray(text);
+        }
+
+        /*
+         Each suffix is S-type if it sorts before the suffix after it, and L-type otherwise. An LMS suffix is an S-type suffix with an
+         L-type suffix before it. Sorting just the LMS suffixes is enough to induce the order of every other suffix.
+         */
+        int[] suffixes = new int[n];
+        boolean[] sType = new boolean[n];
+        for (int i = n - 2; i >= 0; i--) {
+            sType[i] = text[i] == text[i + 1] ? sType[i + 1] : text[i] < text[i + 1];
+        }
+        // Each value's bucket has its L-type suffixes at the front and its S-type suffixes at the back.
+        int[] lStarts = new int[upper + 1];
+        int[] sStarts = new int[upper + 1];
+        for (int i = 0; i < n; i++) {
+            if (!sType[i]) {
+                sStarts[text[i]]++;
+            } else {
+                // The last suffix is always L-type, so a run of the largest value always ends L-type, and an S-type value is never the largest.
+                lStarts[text[i] + 1]++;
+            }
+        }
+        for (int value = 0; value <= upper; value++) {
+            sStarts[value] += lStarts[value];
+            if (value < upper) {
+                lStarts[value + 1] += sStarts[value];
+            }
+        }
+
+        int[] lmsNumbers = new int[n + 1];
+        Arrays.fill(lmsNumbers, -1);
+        int m = 0;
+        for (int i = 1; i < n; i++) {
+            if (!sType[i - 1] && sType[i]) {
+                lmsNumbers[i] = m++;
+            }
+        }
+        int[] lms = new int[m];
+        m = 0;
+        for (int i = 1; i < n; i++) {
+            if (!sType[i - 1] && sType[i]) {
+                lms[m++] = i;
+            }
+        }
+
+        induce(text, upper, sType, lStarts, sStarts, lms, suffixes);
+
+        if (m > 0) {
+            // Name each LMS substring by its rank, giving equal substrings the same name, and sort the string of names recursively.
+            int[] sortedLms = new int[m];
+            int count = 0;
+            for (int suffix : suffixes) {
+                if (lmsNumbers[suffix] != -1) {
+                    sortedLms[count++] = suffix;
+                }
+            }
+            int[] names = new int[m];
+            int upperName = 0;
+            names[lmsNumbers[sortedLms[0]]] = 0;
+            for (int i = 1; i < m; i++) {
+                int left = sortedLms[i - 1];
+                int right = sortedLms[i];
+                int leftEnd = lmsNumbers[left] + 1 < m ? lms[lmsNumbers[left] + 1] : n;
+                int rightEnd = lmsNumbers[right] + 1 < m ? lms[lmsNumbers[right] + 1] : n;
+                boolean same = true;
+                if (leftEnd - left != rightEnd - right) {
+                    same = false;
+                } else {
+                    while (left < leftEnd && text[left] == text[right]) {
+                        left++;
+                        right++;
+                    }
+                    if (left == n || text[left] != text[right]) {
+                        same = false;
+                    }
+                }
+                if (!same) {
+                    upperName++;
+                }
+                names[lmsNumbers[sortedLms[i]]] = upperName;
+            }
+
+            int[] sortedNames = suffixArray(names, upperName);
+            for (int i = 0; i < m; i++) {
+                sortedLms[i] = lms[sortedNames[i]];
+            }
+            induce(text, upper, sType, lStarts, sStarts, sortedLms, suffixes);
+        }
+        return suffixes;
+    }
+
+    private static void induce(int[] text, int upper, boolean[] sType, int[] lStarts, int[] sStarts, int[] lms, int[] suffixes) {
+        int n = text.length;
+        Arrays.fill(suffixes, -1);
+        int[] buckets = Arrays.copyOf(sStarts, upper + 1);
+        for (int suffix : lms) {
+            if (suffix != n) {
+                suffixes[buckets[text[suffix]]++] = suffix;
+            }
+        }
+        // L-type suffixes are placed from the front of their buckets, scanning forwards.
+        System.arraycopy(lStarts, 0, buckets, 0, upper + 1);
+        suffixes[buckets[text[n - 1]]++] = n - 1;
+        for (int i = 0; i < n; i++) {
+            int suffix = suffixes[i];
+            if (suffix >= 1 && !sType[suffix - 1]) {
+                suffixes[buckets[text[suffix - 1]]++] = suffix - 1;
+            }
+        }
+        // S-type suffixes are placed from the back of their buckets, scanning backwards.
+        System.arraycopy(lStarts, 0, buckets, 0, upper + 1);
+        for (int i = n - 1; i >= 0; i--) {
+            int suffix = suffixes[i];
+            if (suffix >= 1 && sType[suffix - 1]) {
+                suffixes[--buckets[text[suffix - 1] + 1]] = suffix - 1;
+            }
+        }
+    }
+
+    private static int[] naiveSuffixArray(int[] text) {
+        Integer[] suffixes = new Integer[text.length];
+        for (int i = 0; i < text.length; i++) {
+            suffixes[i] = i;
+        }
+        Arrays.sort(suffixes, (a, b) -> {
+            while (a < text.length && b < text.length) {
+                if (text[a] != text[b]) {
+                    return Integer.compare(text[a], text[b]);
+                }
+                a++;
+                b++;
+            }
+            // The shorter suffix ran out first, and sorts first.
+            return Integer.compare(text.length - a, text.length - b);
+        });
+        int[] sorted = new int[text.length];
+        for (int i = 0; i < text.length; i++) {
+            sorted[i] = suffixes[i];
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,12 @@
+package me.lukecs;
+
+public enum BlockType {
+    /**
+     * A block of text, where each symbol is a character.
+     */
+    TEXT,
+    /**
+     * A block of binary data, where each symbol is a byte.
+     */
+    BINARY
+}
@@ -0,0 +1,164 @@
+package me.lukecs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class CanonicalCode {
+    /**
+     * The longest code length that can be assigned, since codes are packed into an int.
+     */
+    public static final int MAX_LENGTH = Integer.SIZE;
+
+    /**
+     * Assigns canonical Huffman codes from code lengths. Shorter codes come first, and codes of the same length are handed out in
+     * character order, so the lengths alone are enough for the encoder and decoder to agree on every code.
+     *
+     * @param lengths The code length of each character, 0 if the character does not occur.
+     * @return The code of each character, right aligned.
+     */
+    public static int[] assignCodes(byte[] lengths) {
+        int[] codes = new int[lengths.length];
+        assignCodes(lengths, codes, new int[MAX_LENGTH + 1], new long[MAX_LENGTH + 1]);
+        return codes;
+    }
+
+    /**
+     * Assigns canonical Huffman codes like assignCodes, into arrays that the caller keeps, so nothing is allocated.
+     *
+     * @param lengths The code length of each character, 0 if the character does not occur.
+     * @param codes Where to put the code of each character, as long as lengths. Characters that don't occur are left alone.
+     * @param lengthCounts Room for MAX_LENGTH + 1 counts.
+     * @param nextCode Room for MAX_LENGTH + 1 codes.
+     */
+    static void assignCodes(byte[] lengths, int[] codes, int[] lengthCounts, long[] nextCode) {
+        // Count how many codes there are of each length.
+        Arrays.fill(lengthCounts, 0);
+        for (byte length : lengths) {
+            if (length < 0 || length > MAX_LENGTH) {
+                throw new IllegalArgumentException("Code length must be from 0-" + MAX_LENGTH + "!");
+            }
+            lengthCounts[length]++;
+        }
+        lengthCounts[0] = 0;
+
+        /*
+         The first code of each length follows on from the last code of the length before, with a 0 appended. Along the way, check that
+         the lengths don't ask for more codes than there are bit patterns, which would mean two characters share a code.
+         */
+        long code = 0;
+        for (int length = 1; length <= MAX_LENGTH; length++) {
+            code = (code + lengthCounts[length - 1]) << 1;
+            nextCode[length] = code;
+            if (code + lengthCounts[length] > 1L << length) {
+                throw new IllegalArgumentException("Code lengths do not describe a valid prefix code!");
+            }
+        }
+
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            if (lengths[symbol] != 0) {
+                codes[symbol] = (int) nextCode[lengths[symbol]]++;
+            }
+        }
+    }
+
+    /**
+     * Writes code lengths in a compact form. Runs of characters that don't occur are written as a single count, and the lengths of
+     * characters that do occur are written as the difference from the previous length, which is nearly always small.
+     * Each run starts with a varint of (count << 1 | kind), where kind 0 is a run of 0 lengths and kind 1 is a run of non-zero lengths
+     * followed by one zig-zag encoded delta byte per length. A count of 0 ends the table.
+     *
+     * @param out The output to write to.
+     * @param lengths The code length of each character.
+     * @throws IOException If the output can't be written to.
+     */
+    public static void writeLengths(DataOutput out, byte[] lengths) throws IOException {
+        int previous = 0;
+        int i = 0;
+        while (i < lengths.length) {
+            int start = i;
+            boolean present = lengths[i] != 0;
+            while (i < lengths.length && (lengths[i] != 0) == present) {
+                i++;
+            }
+            // A trailing run of 0s doesn't need writing, since the reader fills in 0 for everything after the end of the table.
+            if (!present && i == lengths.length) {
+                break;
+            }
+            writeVarInt(out, ((i - start) << 1) | (present ? 1 : 0));
+            if (present) {
+                for (int symbol = start; symbol < i; symbol++) {
+                    int delta = lengths[symbol] - previous;
+                    out.writeByte((delta << 1) ^ (delta >> 31));
+                    previous = lengths[symbol];
+                }
+            }
+        }
+        writeVarInt(out, 0);
+    }
+
+    /**
+     * Reads code lengths that were written by writeLengths.
+     *
+     * @param in The input to read from.
+     * @param alphabetSize The number of characters in the alphabet.
+     * @return The code length of each character.
+     * @throws IOException If the input can't be read from, or the table is not valid.
+     */
+    public static byte[] readLengths(DataInput in, int alphabetSize) throws IOException {
+        byte[] lengths = new byte[alphabetSize];
+        readLengths(in, lengths);
+        return lengths;
+    }
+
+    /**
+     * Reads code lengths that were written by writeLengths into an array that the caller keeps, so nothing is allocated.
+     *
+     * @param in The input to read from.
+     * @param lengths Where to put the code length of each character, as long as the alphabet. It is cleared first.
+     * @throws IOException If the input can't be read from, or the table is not valid.
+     */
+    static void readLengths(DataInput in, byte[] lengths) throws IOException {
+        int alphabetSize = lengths.length;
+        Arrays.fill(lengths, (byte) 0);
+        int previous = 0;
+        int i = 0;
+        int token;
+        while ((token = readVarInt(in)) != 0) {
+            int count = token >>> 1;
+            if (count > alphabetSize - i) {
+                throw new IOException("Code length table is longer than the alphabet!");
+            }
+            if ((token & 1) == 1) {
+                for (int end = i + count; i < end; i++) {
+                    int zigZag = in.readUnsignedByte();
+                    previous += (zigZag >>> 1) ^ -(zigZag & 1);
+                    lengths[i] = (byte) previous;
+                }
+            } else {
+                i += count;
+            }
+        }
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint is too long!");
+    }
+}
@@ -0,0 +1,544 @@
+package me.lukecs;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class CodecMetrics implements CodecMetricsMBean {
+    /**
+     * The name the metrics are registered under with JMX.
+     */
+    public static final String OBJECT_NAME = "me.lukecs:type=CodecMetrics";
+
+    /**
+     * The stages that time and memory are counted against. CODE_ASSIGNMENT is turning code lengths into canonical codes, BIT_PACKING
+     * is encoding the symbols with them, and STORE is copying a block that is stored as it is.
+     */
+    public enum Stage {
+        READ, CHARSET, TRANSFORM, HISTOGRAM, TREE_BUILD, CODE_ASSIGNMENT, BIT_PACKING, STORE, WRITE, TABLE_BUILD, DECODE
+    }
+
+    /**
+     * The stages of a pipeline, which each run on threads of their own. The worker stage is encoding or decoding, depending on the direction.
+     */
+    public enum PipelineStage {
+        READ, WORK, WRITE
+    }
+
+    private static final CodecMetrics INSTANCE = new CodecMetrics();
+
+    private final LongAdder[] nanos = new LongAdder[Stage.values().length];
+    private final LongAdder[] allocated = new LongAdder[Stage.values().length];
+    private final LongAdder blocks = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder symbols = new LongAdder();
+    private final LongAdder codeBits = new LongAdder();
+    private final DoubleAdder entropyBits = new DoubleAdder();
+    private final LongAdder sampledBlocks = new LongAdder();
+    private final LongAdder sampleFallbacks = new LongAdder();
+    private final LongAdder sampledBits = new LongAdder();
+    private final LongAdder exactBits = new LongAdder();
+    private final LongAdder storedBlocks = new LongAdder();
+    private final LongAdder runBlocks = new LongAdder();
+    private final LongAdder[] busyNanos = new LongAdder[PipelineStage.values().length];
+    private final LongAdder[] capacityNanos = new LongAdder[PipelineStage.values().length];
+    private final LongAdder[] queueSamples = new LongAdder[PipelineStage.values().length];
+    private final LongAdder[] queueDepths = new LongAdder[PipelineStage.values().length];
+    private final com.sun.management.ThreadMXBean threads;
+    private final Probe idle = new Probe(false);
+    private volatile boolean enabled;
+
+    /**
+     * A Probe times one run through the stages on the current thread, counting each stage against the metrics as it ends.
+     */
+    public final class Probe {
+        private final boolean active;
+        private long time;
+        private long bytes;
+
+        private Probe(boolean active) {
+            this.active = active;
+            if (active) {
+                this.time = System.nanoTime();
+                this.bytes = allocatedBytes();
+            }
+        }
+
+        /**
+         * Ends a stage, counting the time and memory since the last stage ended (or the probe was started) against it.
+         *
+         * @param stage The stage that just ended.
+         */
+        public void lap(Stage stage) {
+            if (!active) {
+                return;
+            }
+            long now = System.nanoTime();
+            long nowBytes = allocatedBytes();
+            nanos[stage.ordinal()].add(now - time);
+            allocated[stage.ordinal()].add(nowBytes - bytes);
+            time = now;
+            bytes = nowBytes;
+        }
+
+        /**
+         * Starts the next stage from now, without counting the time since the last one against anything.
+         */
+        public void skip() {
+            if (!active) {
+                return;
+            }
+            time = System.nanoTime();
+            bytes = allocatedBytes();
+        }
+    }
+
+    /**
+     * CodecMetrics counts where the codec spends its time and memory, and how well it compresses. There is one set of metrics for
+     * the whole JVM, which every thread adds to, so stage times are summed across threads rather than being wall clock times.
+     * Nothing is counted until the metrics are enabled, since timing a stage costs two calls into the JVM to count allocation.
+     */
+    private CodecMetrics() {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = new LongAdder();
+            allocated[i] = new LongAdder();
+        }
+        for (int i = 0; i < busyNanos.length; i++) {
+            busyNanos[i] = new LongAdder();
+            capacityNanos[i] = new LongAdder();
+            queueSamples[i] = new LongAdder();
+            queueDepths[i] = new LongAdder();
+        }
+        // Counting allocation per thread is a HotSpot extension, so without it memory is just not counted.
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean threads = null;
+        if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threads = (com.sun.management.ThreadMXBean) bean;
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the metrics for the whole JVM.
+     *
+     * @return The metrics.
+     */
+    public static CodecMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under OBJECT_NAME, so they can be watched with JMX tools such as jconsole,
+     * and enables them. Registering more than once does nothing.
+     */
+    public static void registerMBean() {
+        INSTANCE.setEnabled(true);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the codec metrics!", e);
+        }
+    }
+
+    /**
+     * Turns counting on or off. The metrics start off, so code that never asks for them doesn't pay for them.
+     *
+     * @param enabled Whether to count.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns whether the metrics are counting, for callers that would have to do extra work just to report to them.
+     *
+     * @return Whether the metrics are enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts timing a run through the stages on the current thread.
+     *
+     * @return A probe to end each stage with, which does nothing if the metrics are not enabled.
+     */
+    public Probe start() {
+        return enabled ? new Probe(true) : idle;
+    }
+
+    /**
+     * Counts a block that has been encoded, along with how well it was encoded compared to the entropy of its symbols.
+     *
+     * @param frequencies The number of times each symbol occurs in the block.
+     * @param symbolCount The number of symbols in the block.
+     * @param bitLength The number of bits the symbols were encoded into.
+     */
+    public void addEncodedBlock(int[] frequencies, int symbolCount, long bitLength) {
+        if (!enabled) {
+            return;
+        }
+        // The entropy is the fewest bits any code that gives each symbol a whole or fractional number of bits could manage.
+        double entropy = 0;
+        for (int frequency : frequencies) {
+            if (frequency > 0) {
+                entropy += frequency * Math.log((double) symbolCount / frequency);
+            }
+        }
+        entropyBits.add(entropy / Math.log(2));
+        symbols.add(symbolCount);
+        codeBits.add(bitLength);
+        blocks.increment();
+    }
+
+    /**
+     * Counts a block whose code was built from a sampled histogram, along with what the code from its exact histogram would have cost.
+     *
+     * @param bits The number of bits the block took, including its code length table.
+     * @param exactBits The number of bits the block would have taken with the code built from its exact histogram.
+     */
+    public void addSampledBlock(long bits, long exactBits) {
+        if (!enabled) {
+            return;
+        }
+        sampledBlocks.increment();
+        sampledBits.add(bits);
+        this.exactBits.add(exactBits);
+    }
+
+    /**
+     * Counts a block that had a symbol the sample missed, so had to be counted again exactly.
+     */
+    public void addSampleFallback() {
+        if (!enabled) {
+            return;
+        }
+        sampleFallbacks.increment();
+    }
+
+    /**
+     * Counts a block that was stored as it was, because Huffman coding would not have saved enough to be worth it.
+     */
+    public void addStoredBlock() {
+        if (!enabled) {
+            return;
+        }
+        storedBlocks.increment();
+    }
+
+    /**
+     * Counts a block that was a single symbol repeated, so was written as a run.
+     */
+    public void addRunBlock() {
+        if (!enabled) {
+            return;
+        }
+        runBlocks.increment();
+    }
+
+    /**
+     * Counts how busy a stage of a pipeline was.
+     *
+     * @param stage The stage.
+     * @param busy The time the stage's threads spent working, summed across them, in nanoseconds.
+     * @param capacity The wall clock time the pipeline ran for, times the number of threads in the stage, in nanoseconds.
+     */
+    public void addPipelineTime(PipelineStage stage, long busy, long capacity) {
+        if (!enabled) {
+            return;
+        }
+        busyNanos[stage.ordinal()].add(busy);
+        capacityNanos[stage.ordinal()].add(capacity);
+    }
+
+    /**
+     * Counts how many blocks were waiting in the queue out of the read stage, or into the write stage, at some moment.
+     *
+     * @param stage The stage whose queue was looked at, either READ or WRITE.
+     * @param depth The number of blocks in the queue.
+     */
+    public void sampleQueue(PipelineStage stage, int depth) {
+        if (!enabled) {
+            return;
+        }
+        queueSamples[stage.ordinal()].increment();
+        queueDepths[stage.ordinal()].add(depth);
+    }
+
+    /**
+     * Counts data going through the codec, in either direction.
+     *
+     * @param uncompressed The number of bytes of original data.
+     * @param compressed The number of bytes of compressed data.
+     */
+    public void addBytes(long uncompressed, long compressed) {
+        if (!enabled) {
+            return;
+        }
+        uncompressedBytes.add(uncompressed);
+        compressedBytes.add(compressed);
+    }
+
+    @Override
+    public long getBlocks() {
+        return blocks.sum();
+    }
+
+    @Override
+    public long getUncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    @Override
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long uncompressed = getUncompressedBytes();
+        return uncompressed == 0 ? 0 : (double) getCompressedBytes() / uncompressed;
+    }
+
+    @Override
+    public double getEntropyBitsPerSymbol() {
+        long count = symbols.sum();
+        return count == 0 ? 0 : entropyBits.sum() / count;
+    }
+
+    @Override
+    public double getAchievedBitsPerSymbol() {
+        long count = symbols.sum();
+        return count == 0 ? 0 : (double) codeBits.sum() / count;
+    }
+
+    @Override
+    public long getSampledBlocks() {
+        return sampledBlocks.sum();
+    }
+
+    @Override
+    public long getSampleFallbacks() {
+        return sampleFallbacks.sum();
+    }
+
+    @Override
+    public double getSamplingPenalty() {
+        long exact = exactBits.sum();
+        return exact == 0 ? 0 : (double) sampledBits.sum() / exact - 1;
+    }
+
+    @Override
+    public long getStoredBlocks() {
+        return storedBlocks.sum();
+    }
+
+    @Override
+    public long getRunBlocks() {
+        return runBlocks.sum();
+    }
+
+    @Override
+    public double getReadOccupancy() {
+        return getOccupancy(PipelineStage.READ);
+    }
+
+    @Override
+    public double getWorkOccupancy() {
+        return getOccupancy(PipelineStage.WORK);
+    }
+
+    @Override
+    public double getWriteOccupancy() {
+        return getOccupancy(PipelineStage.WRITE);
+    }
+
+    @Override
+    public double getReadQueueDepth() {
+        return getQueueDepth(PipelineStage.READ);
+    }
+
+    @Override
+    public double getWriteQueueDepth() {
+        return getQueueDepth(PipelineStage.WRITE);
+    }
+
+    /**
+     * Returns the fraction of the time a stage of a pipeline spent working.
+     *
+     * @param stage The stage.
+     * @return The occupancy, from 0 to 1, or 0 if nothing has been pipelined.
+     */
+    public double getOccupancy(PipelineStage stage) {
+        long capacity = capacityNanos[stage.ordinal()].sum();
+        return capacity == 0 ? 0 : (double) busyNanos[stage.ordinal()].sum() / capacity;
+    }
+
+    /**
+     * Returns the average number of blocks waiting in the queue out of the read stage, or into the write stage.
+     *
+     * @param stage The stage, either READ or WRITE.
+     * @return The average queue depth, or 0 if the queue has never been looked at.
+     */
+    public double getQueueDepth(PipelineStage stage) {
+        long samples = queueSamples[stage.ordinal()].sum();
+        return samples == 0 ? 0 : (double) queueDepths[stage.ordinal()].sum() / samples;
+    }
+
+    @Override
+    public long getReadNanos() {
+        return getNanos(Stage.READ);
+    }
+
+    @Override
+    public long getCharsetNanos() {
+        return getNanos(Stage.CHARSET);
+    }
+
+    @Override
+    public long getTransformNanos() {
+        return getNanos(Stage.TRANSFORM);
+    }
+
+    @Override
+    public long getHistogramNanos() {
+        return getNanos(Stage.HISTOGRAM);
+    }
+
+    @Override
+    public long getTreeBuildNanos() {
+        return getNanos(Stage.TREE_BUILD);
+    }
+
+    @Override
+    public long getCodeAssignmentNanos() {
+        return getNanos(Stage.CODE_ASSIGNMENT);
+    }
+
+    @Override
+    public long getBitPackingNanos() {
+        return getNanos(Stage.BIT_PACKING);
+    }
+
+    @Override
+    public long getStoreNanos() {
+        return getNanos(Stage.STORE);
+    }
+
+    @Override
+    public long getWriteNanos() {
+        return getNanos(Stage.WRITE);
+    }
+
+    @Override
+    public long getTableBuildNanos() {
+        return getNanos(Stage.TABLE_BUILD);
+    }
+
+    @Override
+    public long getDecodeNanos() {
+        return getNanos(Stage.DECODE);
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        long total = 0;
+        for (LongAdder bytes : allocated) {
+            total += bytes.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the time spent in a stage, summed across threads.
+     *
+     * @param stage The stage.
+     * @return The time in nanoseconds.
+     */
+    public long getNanos(Stage stage) {
+        return nanos[stage.ordinal()].sum();
+    }
+
+    /**
+     * Returns the memory allocated in a stage, summed across threads.
+     *
+     * @param stage The stage.
+     * @return The number of bytes allocated, or 0 if the JVM can't count allocation.
+     */
+    public long getAllocatedBytes(Stage stage) {
+        return allocated[stage.ordinal()].sum();
+    }
+
+    @Override
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append(String.format(Locale.ROOT, "  \"blocks\": %d,%n", getBlocks()));
+        json.append(String.format(Locale.ROOT, "  \"uncompressedBytes\": %d,%n", getUncompressedBytes()));
+        json.append(String.format(Locale.ROOT, "  \"compressedBytes\": %d,%n", getCompressedBytes()));
+        json.append(String.format(Locale.ROOT, "  \"compressionRatio\": %.4f,%n", getCompressionRatio()));
+        json.append(String.format(Locale.ROOT, "  \"entropyBitsPerSymbol\": %.4f,%n", getEntropyBitsPerSymbol()));
+        json.append(String.format(Locale.ROOT, "  \"achievedBitsPerSymbol\": %.4f,%n", getAchievedBitsPerSymbol()));
+        json.append(String.format(Locale.ROOT, "  \"sampledBlocks\": %d,%n", getSampledBlocks()));
+        json.append(String.format(Locale.ROOT, "  \"sampleFallbacks\": %d,%n", getSampleFallbacks()));
+        json.append(String.format(Locale.ROOT, "  \"samplingPenalty\": %.6f,%n", getSamplingPenalty()));
+        json.append(String.format(Locale.ROOT, "  \"storedBlocks\": %d,%n", getStoredBlocks()));
+        json.append(String.format(Locale.ROOT, "  \"runBlocks\": %d,%n", getRunBlocks()));
+        json.append(String.format(Locale.ROOT, "  \"allocatedBytes\": %d,%n", getAllocatedBytes()));
+        json.append("  \"pipeline\": {\n");
+        PipelineStage[] pipelineStages = PipelineStage.values();
+        for (int i = 0; i < pipelineStages.length; i++) {
+            json.append(String.format(Locale.ROOT, "    \"%s\": {\"occupancy\": %.4f, \"queueDepth\": %.2f}%s%n", pipelineStages[i].name().toLowerCase(Locale.ROOT),
+                    getOccupancy(pipelineStages[i]), getQueueDepth(pipelineStages[i]), i + 1 < pipelineStages.length ? "," : ""));
+        }
+        json.append("  },\n");
+        json.append("  \"stages\": {\n");
+        Stage[] stages = Stage.values();
+        for (int i = 0; i < stages.length; i++) {
+            json.append(String.format(Locale.ROOT, "    \"%s\": {\"nanos\": %d, \"allocatedBytes\": %d}%s%n", stages[i].name().toLowerCase(Locale.ROOT),
+                    getNanos(stages[i]), getAllocatedBytes(stages[i]), i + 1 < stages.length ? "," : ""));
+        }
+        json.append("  }\n}");
+        return json.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i].reset();
+            allocated[i].reset();
+        }
+        blocks.reset();
+        uncompressedBytes.reset();
+        compressedBytes.reset();
+        symbols.reset();
+        codeBits.reset();
+        entropyBits.reset();
+        sampledBlocks.reset();
+        sampleFallbacks.reset();
+        sampledBits.reset();
+        exactBits.reset();
+        storedBlocks.reset();
+        runBlocks.reset();
+        for (int i = 0; i < busyNanos.length; i++) {
+            busyNanos[i].reset();
+            capacityNanos[i].reset();
+            queueSamples[i].reset();
+            queueDepths[i].reset();
+        }
+    }
+
+    private long allocatedBytes() {
+        return threads == null ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
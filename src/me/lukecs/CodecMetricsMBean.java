@@ -0,0 +1,159 @@
+package me.lukecs;
+
+/**
+ * The attributes and operations of CodecMetrics that can be seen over JMX.
+ */
+public interface CodecMetricsMBean {
+    /**
+     * Returns the number of blocks that have been encoded.
+     *
+     * @return The number of blocks.
+     */
+    long getBlocks();
+
+    /**
+     * Returns the number of bytes of original data that have gone through the codec, in either direction.
+     *
+     * @return The number of bytes.
+     */
+    long getUncompressedBytes();
+
+    /**
+     * Returns the number of bytes of compressed data that have gone through the codec, in either direction.
+     *
+     * @return The number of bytes.
+     */
+    long getCompressedBytes();
+
+    /**
+     * Returns the compressed bytes divided by the uncompressed bytes.
+     *
+     * @return The ratio, or 0 if nothing has gone through the codec yet.
+     */
+    double getCompressionRatio();
+
+    /**
+     * Returns the entropy of the encoded blocks, which is the fewest bits per symbol that any code could have managed.
+     *
+     * @return The number of bits per symbol.
+     */
+    double getEntropyBitsPerSymbol();
+
+    /**
+     * Returns the number of bits per symbol that the Huffman codes of the encoded blocks actually took.
+     *
+     * @return The number of bits per symbol.
+     */
+    double getAchievedBitsPerSymbol();
+
+    /**
+     * Returns the number of blocks whose codes were built from a sampled histogram.
+     *
+     * @return The number of blocks.
+     */
+    long getSampledBlocks();
+
+    /**
+     * Returns the number of blocks that had a symbol their sample missed, and so were counted again exactly.
+     *
+     * @return The number of blocks.
+     */
+    long getSampleFallbacks();
+
+    /**
+     * Returns how much bigger the sampled blocks came out than they would have with codes built from their exact histograms.
+     *
+     * @return The extra size as a fraction, for example 0.01 for 1% bigger, or 0 if no blocks have been sampled.
+     */
+    double getSamplingPenalty();
+
+    /**
+     * Returns the number of blocks that were stored as they were, because Huffman coding would barely have made them smaller.
+     *
+     * @return The number of blocks.
+     */
+    long getStoredBlocks();
+
+    /**
+     * Returns the number of blocks that were a single symbol repeated, and so were written as a run.
+     *
+     * @return The number of blocks.
+     */
+    long getRunBlocks();
+
+    /**
+     * Returns the fraction of the time the pipeline's reading thread spent reading, rather than waiting for a free buffer.
+     *
+     * @return The occupancy, from 0 to 1, or 0 if nothing has been pipelined.
+     */
+    double getReadOccupancy();
+
+    /**
+     * Returns the fraction of the time the pipeline's worker threads spent coding blocks, rather than waiting for them.
+     *
+     * @return The occupancy, from 0 to 1, or 0 if nothing has been pipelined.
+     */
+    double getWorkOccupancy();
+
+    /**
+     * Returns the fraction of the time the pipeline's writing thread spent writing, rather than waiting for the next block.
+     *
+     * @return The occupancy, from 0 to 1, or 0 if nothing has been pipelined.
+     */
+    double getWriteOccupancy();
+
+    /**
+     * Returns the average number of blocks that had been read but not yet taken to be coded.
+     *
+     * @return The average queue depth.
+     */
+    double getReadQueueDepth();
+
+    /**
+     * Returns the average number of blocks that had been submitted but not yet written.
+     *
+     * @return The average queue depth.
+     */
+    double getWriteQueueDepth();
+
+    long getReadNanos();
+
+    long getCharsetNanos();
+
+    long getTransformNanos();
+
+    long getHistogramNanos();
+
+    long getTreeBuildNanos();
+
+    long getCodeAssignmentNanos();
+
+    long getBitPackingNanos();
+
+    long getStoreNanos();
+
+    long getWriteNanos();
+
+    long getTableBuildNanos();
+
+    long getDecodeNanos();
+
+    /**
+     * Returns the memory allocated across every stage.
+     *
+     * @return The number of bytes allocated, or 0 if the JVM can't count allocation.
+     */
+    long getAllocatedBytes();
+
+    /**
+     * Returns every metric, including the time and memory of each stage, as a JSON object.
+     *
+     * @return The JSON.
+     */
+    String toJson();
+
+    /**
+     * Sets every metric back to 0.
+     */
+    void reset();
+}
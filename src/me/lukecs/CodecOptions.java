@@ -0,0 +1,265 @@
+package me.lukecs;
+
+public class CodecOptions {
+    private int threads = 1;
+    private boolean memoryMapped;
+    private boolean adaptive;
+    private boolean contextModeled;
+    private int transforms;
+    private int sampleStride = 1;
+    private boolean interleaved;
+    private boolean pipelined;
+    private int blockSize = HuffmanFormat.BLOCK_SIZE;
+    private int queueDepth;
+
+    /**
+     * CodecOptions holds the settings for compressing and decompressing files. Each setter returns the options, so they can be chained.
+     */
+    public CodecOptions() {
+    }
+
+    /**
+     * Copies another set of options, so they can be changed without affecting the original.
+     *
+     * @param other The options to copy.
+     */
+    public CodecOptions(CodecOptions other) {
+        this.threads = other.threads;
+        this.memoryMapped = other.memoryMapped;
+        this.adaptive = other.adaptive;
+        this.contextModeled = other.contextModeled;
+        this.transforms = other.transforms;
+        this.sampleStride = other.sampleStride;
+        this.interleaved = other.interleaved;
+        this.pipelined = other.pipelined;
+        this.blockSize = other.blockSize;
+        this.queueDepth = other.queueDepth;
+    }
+
+    /**
+     * Returns the number of threads to compress or decompress blocks on.
+     *
+     * @return The number of threads, at least 1.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of threads to compress or decompress blocks on.
+     *
+     * @param threads The number of threads, at least 1.
+     * @return These options.
+     */
+    public CodecOptions setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("There must be at least 1 thread!");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Returns whether files are read and written through memory mapped windows rather than streams.
+     *
+     * @return Whether to use memory mapped I/O.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Sets whether files are read and written through memory mapped windows rather than streams.
+     *
+     * @param memoryMapped Whether to use memory mapped I/O.
+     * @return These options.
+     */
+    public CodecOptions setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        return this;
+    }
+
+    /**
+     * Returns whether to compress in a single pass with the adaptive coder, rather than a block at a time.
+     *
+     * @return Whether to compress adaptively.
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Sets whether to compress in a single pass with the adaptive coder, rather than a block at a time.
+     *
+     * @param adaptive Whether to compress adaptively.
+     * @return These options.
+     */
+    public CodecOptions setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        return this;
+    }
+
+    /**
+     * Returns whether blocks are coded with a table per preceding symbol, rather than a single table.
+     *
+     * @return Whether to use order-1 context modelling.
+     */
+    public boolean isContextModeled() {
+        return contextModeled;
+    }
+
+    /**
+     * Sets whether blocks are coded with a table per preceding symbol, rather than a single table. This compresses text better, at
+     * the cost of slower encoding.
+     *
+     * @param contextModeled Whether to use order-1 context modelling.
+     * @return These options.
+     */
+    public CodecOptions setContextModeled(boolean contextModeled) {
+        this.contextModeled = contextModeled;
+        return this;
+    }
+
+    /**
+     * Returns the transforms applied to each block before it is Huffman coded.
+     *
+     * @return The transforms, see BlockTransform, 0 if there are none.
+     */
+    public int getTransforms() {
+        return transforms;
+    }
+
+    /**
+     * Sets the transforms applied to each block before it is Huffman coded. Transformed blocks are always coded a byte at a time,
+     * rather than as text.
+     *
+     * @param transforms Any of BlockTransform.BWT, MTF and RLE, or 0 for none.
+     * @return These options.
+     */
+    public CodecOptions setTransforms(int transforms) {
+        if (!BlockTransform.isValid(transforms)) {
+            throw new IllegalArgumentException("Unknown transforms " + transforms + "!");
+        }
+        this.transforms = transforms;
+        return this;
+    }
+
+    /**
+     * Returns how much of each block is counted to build its code.
+     *
+     * @return The fraction of each block that is counted, as 1 in the returned number, 1 if every symbol is counted.
+     */
+    public int getSampleStride() {
+        return sampleStride;
+    }
+
+    /**
+     * Sets how much of each block is counted to build its code. Counting a sample skips most of the pass over each block before it is
+     * encoded, at the cost of a slightly worse ratio. Only blocks coded with a single table are sampled: context modelled and
+     * transformed blocks are always counted exactly.
+     *
+     * @param sampleStride The fraction of each block to count, as 1 in sampleStride, or 1 to count every symbol.
+     * @return These options.
+     */
+    public CodecOptions setSampleStride(int sampleStride) {
+        if (sampleStride < 1) {
+            throw new IllegalArgumentException("Sample stride must be at least 1!");
+        }
+        this.sampleStride = sampleStride;
+        return this;
+    }
+
+    /**
+     * Returns whether each block is split across several bitstreams that can be decoded at the same time.
+     *
+     * @return Whether to write interleaved blocks.
+     */
+    public boolean isInterleaved() {
+        return interleaved;
+    }
+
+    /**
+     * Sets whether each block is split across several bitstreams that can be decoded at the same time, see
+     * Huffman.INTERLEAVED_STREAMS. This makes decoding faster for a few bytes per block. Context modelled and transformed blocks are
+     * never interleaved, and interleaved blocks are always counted exactly, rather than sampled.
+     *
+     * @param interleaved Whether to write interleaved blocks.
+     * @return These options.
+     */
+    public CodecOptions setInterleaved(boolean interleaved) {
+        this.interleaved = interleaved;
+        return this;
+    }
+
+    /**
+     * Returns whether reading, coding and writing each run on threads of their own, rather than reading and writing taking turns on the
+     * calling thread.
+     *
+     * @return Whether to pipeline.
+     */
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * Sets whether reading, coding and writing each run on threads of their own, so the next blocks are read and the last ones written
+     * while blocks are being coded, even with a single coding thread. Input is read into a fixed set of buffers that are reused, so
+     * memory use is still bounded by the queue depth.
+     *
+     * @param pipelined Whether to pipeline.
+     * @return These options.
+     */
+    public CodecOptions setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+        return this;
+    }
+
+    /**
+     * Returns the number of bytes read into each block when compressing.
+     *
+     * @return The block size.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Sets the number of bytes read into each block when compressing. Bigger blocks spread the cost of each code length table over
+     * more symbols, but adapt less to changes in the data, and take more memory per block in flight. Any block size can be
+     * decompressed, whatever it was compressed with.
+     *
+     * @param blockSize The block size, from 1 to HuffmanFormat.MAX_BLOCK_SIZE.
+     * @return These options.
+     */
+    public CodecOptions setBlockSize(int blockSize) {
+        if (blockSize < 1 || blockSize > HuffmanFormat.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be from 1 to " + HuffmanFormat.MAX_BLOCK_SIZE + "!");
+        }
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * Returns the number of blocks that can wait between each stage of a pipeline.
+     *
+     * @return The queue depth, which is twice the number of threads unless it has been set.
+     */
+    public int getQueueDepth() {
+        return queueDepth > 0 ? queueDepth : 2 * threads;
+    }
+
+    /**
+     * Sets the number of blocks that can wait between each stage of a pipeline. Deeper queues smooth over blocks that take longer
+     * than others, at the cost of a block's worth of memory for each place in them.
+     *
+     * @param queueDepth The queue depth, at least 1.
+     * @return These options.
+     */
+    public CodecOptions setQueueDepth(int queueDepth) {
+        if (queueDepth < 1) {
+            throw new IllegalArgumentException("Queue depth must be at least 1!");
+        }
+        this.queueDepth = queueDepth;
+        return this;
+    }
+}
@@ -0,0 +1,159 @@
+package me.lukecs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class ContextModel {
+    /**
+     * The most symbols that can have a code table of their own. Every other symbol shares the fallback table.
+     */
+    public static final int MAX_CONTEXTS = 255;
+
+    /**
+     * The table that the first symbol of a block, and every symbol after a context without a table of its own, is coded with.
+     */
+    public static final int FALLBACK_TABLE = 0;
+
+    private final char[] symbols;
+    private final char[] contexts;
+    private final byte[][] lengths;
+
+    /**
+     * A ContextModel holds the code tables of an order-1 block, where each symbol is coded with a table chosen by the symbol before it.
+     * Only the symbols that occur in the block make up its alphabet, and everything is indexed by position in that alphabet, so the
+     * tables stay small even for text. Table 0 is the fallback table, and table i + 1 follows the symbol at index contexts[i].
+     *
+     * @param symbols The symbols that occur in the block, in ascending order.
+     * @param contexts The index of each symbol that has a table of its own, in table order.
+     * @param lengths The code length of each symbol in each table, indexed by table and then by index in the alphabet.
+     */
+    public ContextModel(char[] symbols, char[] contexts, byte[][] lengths) {
+        if (contexts.length > MAX_CONTEXTS || lengths.length != contexts.length + 1) {
+            throw new IllegalArgumentException("There must be one table for each context, plus the fallback table!");
+        }
+        this.symbols = symbols;
+        this.contexts = contexts;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Returns the symbols that occur in the block.
+     *
+     * @return The symbols, in ascending order.
+     */
+    public char[] getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Returns the index of each symbol that has a table of its own.
+     *
+     * @return The index in the alphabet of each context, in table order.
+     */
+    public char[] getContexts() {
+        return contexts;
+    }
+
+    /**
+     * Returns the number of tables, including the fallback table.
+     *
+     * @return The number of tables.
+     */
+    public int getTableCount() {
+        return lengths.length;
+    }
+
+    /**
+     * Returns the code lengths of one table.
+     *
+     * @param table The table, FALLBACK_TABLE or a context's table.
+     * @return The code length of each symbol, indexed by position in the alphabet, 0 if it never follows this table's contexts.
+     */
+    public byte[] getLengths(int table) {
+        return lengths[table];
+    }
+
+    /**
+     * Works out which table each symbol of the alphabet hands over to, for the symbol after it.
+     *
+     * @return The table that follows each symbol, indexed by position in the alphabet.
+     */
+    public byte[] buildTableMap() {
+        byte[] tables = new byte[symbols.length];
+        for (int table = 0; table < contexts.length; table++) {
+            tables[contexts[table]] = (byte) (table + 1);
+        }
+        return tables;
+    }
+
+    /*
+     A context model is written as:
+       ...   the alphabet, as a code length table (see CanonicalCode.writeLengths) with a length of 1 for each symbol that occurs
+       byte  number of contexts with a table of their own
+       for each context:
+         char  index of the context in the alphabet
+       for the fallback table and then each context's table:
+         ...   code length table over the alphabet
+     */
+
+    /**
+     * Writes the model in a compact form, most of which is one byte per symbol per table that it occurs in.
+     *
+     * @param out The output to write to.
+     * @param alphabetSize The number of symbols in the full alphabet, that the symbols of the block are taken from.
+     * @throws IOException If the output can't be written to.
+     */
+    public void write(DataOutput out, int alphabetSize) throws IOException {
+        byte[] present = new byte[alphabetSize];
+        for (char symbol : symbols) {
+            present[symbol] = 1;
+        }
+        CanonicalCode.writeLengths(out, present);
+        out.writeByte(contexts.length);
+        for (char context : contexts) {
+            out.writeChar(context);
+        }
+        for (byte[] table : lengths) {
+            CanonicalCode.writeLengths(out, table);
+        }
+    }
+
+    /**
+     * Reads a model that was written by write.
+     *
+     * @param in The input to read from.
+     * @param alphabetSize The number of symbols in the full alphabet.
+     * @return The model.
+     * @throws IOException If the input can't be read from, or the model is not valid.
+     */
+    public static ContextModel read(DataInput in, int alphabetSize) throws IOException {
+        byte[] present = CanonicalCode.readLengths(in, alphabetSize);
+        int count = 0;
+        for (byte flag : present) {
+            if (flag != 0) {
+                count++;
+            }
+        }
+        char[] symbols = new char[count];
+        count = 0;
+        for (int symbol = 0; symbol < present.length; symbol++) {
+            if (present[symbol] != 0) {
+                symbols[count++] = (char) symbol;
+            }
+        }
+
+        char[] contexts = new char[in.readUnsignedByte()];
+        for (int table = 0; table < contexts.length; table++) {
+            contexts[table] = in.readChar();
+            if (contexts[table] >= symbols.length) {
+                throw new IOException("Context model has a context that is not in its alphabet!");
+            }
+        }
+        byte[][] lengths = new byte[contexts.length + 1][];
+        for (int table = 0; table < lengths.length; table++) {
+            lengths[table] = CanonicalCode.readLengths(in, symbols.length);
+        }
+        return new ContextModel(symbols, contexts, lengths);
+    }
+}
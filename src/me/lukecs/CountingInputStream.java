@@ -0,0 +1,58 @@
+package me.lukecs;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class CountingInputStream extends FilterInputStream {
+    private long count;
+
+    /**
+     * A CountingInputStream passes everything through from another stream, keeping count of how many bytes have gone through it.
+     *
+     * @param in The input to read from.
+     */
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Returns the number of bytes read (or skipped) so far.
+     *
+     * @return The number of bytes read.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if (read > 0) {
+            count += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        count += skipped;
+        return skipped;
+    }
+
+    // Marking would let bytes be counted twice, so it is not passed through.
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -1,48 +1,626 @@
 package me.lukecs;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
 public class Decoder {
+    /*
+     An order-1 block can have hundreds of tables that are all in use at once, so their first levels are kept narrower than a single
+     table's, so that they fit in the cache together. Codes longer than this are rare within a context, and go through a second level.
+     */
+    private static final int CONTEXT_PRIMARY_BITS = 9;
 
     /**
-     * Decompresses a Huffman object using it's tree and encoded data.
+     * Decompresses a Huffman object using it's code lengths and encoded data.
      *
-     * @param result The Huffman object that contains encoded data and a root node that holds the tree.
+     * @param result The Huffman object that contains encoded data and the code length of each character.
      * @return The decoded text.
      */
     public static String decompress(Huffman result) {
-        // Use StringBuilder for improved performance.
-        StringBuilder sb = new StringBuilder();
-
-        // Initialise our current node with the root node.
-        Node current = result.getRoot();
-
-        // Start reading in from the first (or '0th') character.
-        int i = 0;
-        while (i < result.getEncodedData().length()) { // Keep decoding until we have read all of the bits in the encoded string of data.
-            /*
-             Every iteration of this internal loop is essentially a new byte to decode, so this internal loop will iterate until we reach a leaf,
-             at which point we will append the character that the leaf node we arrive at represents.
-             */
-            while (!current.isLeaf()) {
-                char bit = result.getEncodedData().charAt(i);
-                // '1' means right.
-                if (bit == '1') {
-                    current = current.getRight();
-                } else if (bit == '0') { // '0' means left.
-                    current = current.getLeft();
-                } else { // Anything that is neither '0' or '1' is not valid, and we should throw an error!
-                    throw new IllegalArgumentException("Bit must be either 1 or 0!");
+        return new String(decompressToCharArray(result));
+    }
+
+    /**
+     * Decompresses a Huffman object into an array holding exactly the characters that were encoded.
+     *
+     * @param result The Huffman object that contains encoded data and the code length of each character.
+     * @return The decoded characters.
+     */
+    public static char[] decompressToCharArray(Huffman result) {
+        if (result.getContextModel() != null) {
+            return decompressWithContexts(result);
+        }
+        if (result.isStored() || result.isRun()) {
+            CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+            char[] decoded = new char[result.getSymbolCount()];
+            if (result.isRun()) {
+                Arrays.fill(decoded, result.getRunSymbol());
+            } else {
+                byte[] data = result.getData();
+                for (int i = 0; i < decoded.length; i++) {
+                    decoded[i] = (char) (data[i] & 0xFF);
+                }
+            }
+            probe.lap(CodecMetrics.Stage.DECODE);
+            return decoded;
+        }
+        // Rebuild the canonical codes from their lengths, and turn them into lookup tables that decode several bits at once.
+        CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+        byte[] lengths = result.getCodeLengths();
+        DecodingTable table = new DecodingTable(CanonicalCode.assignCodes(lengths), lengths);
+        probe.lap(CodecMetrics.Stage.TABLE_BUILD);
+
+        char[] decoded = result.getStreamBitLengths() != null
+                ? decodeInterleaved(table, result.getData(), result.getStreamBitLengths(), result.getSymbolCount())
+                : decode(table, result.getData(), result.getBitLength(), result.getSymbolCount());
+        probe.lap(CodecMetrics.Stage.DECODE);
+        return decoded;
+    }
+
+    /**
+     * Decompresses a Huffman object holding binary data into an array holding exactly the bytes that were encoded. A stored block's
+     * bytes are not copied, so the array is shared with the Huffman object.
+     *
+     * @param result The Huffman object that contains encoded binary data and the code length of each byte value.
+     * @return The decoded bytes.
+     */
+    public static byte[] decompressToByteArray(Huffman result) {
+        if (result.getType() != BlockType.BINARY) {
+            throw new IllegalArgumentException("Block does not hold binary data!");
+        }
+        if (result.isStored() || result.isRun()) {
+            // Nothing was coded, so the stored bytes are handed back as they are, or filled in with the one byte that repeats.
+            CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+            byte[] decoded;
+            if (result.isStored()) {
+                byte[] data = result.getData();
+                decoded = data.length == result.getSymbolCount() ? data : Arrays.copyOf(data, result.getSymbolCount());
+            } else {
+                decoded = new byte[result.getSymbolCount()];
+                Arrays.fill(decoded, (byte) result.getRunSymbol());
+            }
+            probe.lap(CodecMetrics.Stage.DECODE);
+            return decoded;
+        }
+        if (result.getContextModel() != null) {
+            char[] symbols = result.getContextModel().getSymbols();
+            if (symbols.length > 0 && symbols[symbols.length - 1] >= Encoder.BYTE_ALPHABET_SIZE) {
+                throw new IllegalArgumentException("Binary data has a code table for symbols that are not bytes!");
+            }
+            return narrow(decompressWithContexts(result));
+        }
+        // Every symbol of a binary block is a byte, so a code table for anything bigger is not valid.
+        byte[] lengths = result.getCodeLengths();
+        if (lengths.length > Encoder.BYTE_ALPHABET_SIZE) {
+            throw new IllegalArgumentException("Binary data has a code table for symbols that are not bytes!");
+        }
+        CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+        DecodingTable table = new DecodingTable(CanonicalCode.assignCodes(lengths), lengths);
+        probe.lap(CodecMetrics.Stage.TABLE_BUILD);
+
+        // Interleaved streams are decoded as characters, which the table's symbols all fit in as bytes, and narrowed in one pass.
+        byte[] decoded = result.getStreamBitLengths() != null
+                ? narrow(decodeInterleaved(table, result.getData(), result.getStreamBitLengths(), result.getSymbolCount()))
+                : decodeBytes(table, result.getData(), result.getBitLength(), result.getSymbolCount());
+        probe.lap(CodecMetrics.Stage.DECODE);
+        return decoded;
+    }
+
+    /**
+     * Narrows decoded symbols that are all bytes into a byte array.
+     *
+     * @param symbols The decoded symbols, each below Encoder.BYTE_ALPHABET_SIZE.
+     * @return The symbols as bytes.
+     */
+    private static byte[] narrow(char[] symbols) {
+        byte[] bytes = new byte[symbols.length];
+        for (int i = 0; i < symbols.length; i++) {
+            bytes[i] = (byte) symbols[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Decompresses a Huffman object of either type into the bytes that were originally compressed, undoing any transforms.
+     *
+     * @param result The Huffman object that contains encoded data and the code length of each symbol.
+     * @param charset The charset used to turn the characters of a text block back into bytes.
+     * @return The decoded bytes.
+     */
+    public static byte[] decompressToByteArray(Huffman result, Charset charset) {
+        if (result.getTransforms() != 0) {
+            // Transformed symbols are never text, whatever their type, and have to be transformed back into the original bytes.
+            char[] symbols = decompressToCharArray(result);
+            CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+            byte[] bytes = BlockTransform.inverse(symbols, result.getTransforms(), result.getTransformIndex());
+            probe.lap(CodecMetrics.Stage.TRANSFORM);
+            return bytes;
+        }
+        if (result.getType() == BlockType.BINARY) {
+            return decompressToByteArray(result);
+        }
+        char[] chars = decompressToCharArray(result);
+        CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+        byte[] bytes = new String(chars).getBytes(charset);
+        probe.lap(CodecMetrics.Stage.CHARSET);
+        return bytes;
+    }
+
+    /**
+     * Decompresses a context modelled Huffman object, switching to the table for each symbol's context after decoding it.
+     *
+     * @param result The Huffman object that contains encoded data and the code tables of each context.
+     * @return The decoded symbols.
+     */
+    private static char[] decompressWithContexts(Huffman result) {
+        CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+        ContextModel model = result.getContextModel();
+        byte[] following = model.buildTableMap();
+        DecodingTable[] tables = new DecodingTable[model.getTableCount()];
+        for (int table = 0; table < tables.length; table++) {
+            byte[] lengths = model.getLengths(table);
+            tables[table] = new DecodingTable(CanonicalCode.assignCodes(lengths), lengths, false, CONTEXT_PRIMARY_BITS);
+        }
+        // Pairs are only added once every table exists, since the second character of a pair is looked up in its own context's table.
+        DecodingTable.pairAcrossContexts(tables, following);
+        long[][] flattened = DecodingTable.flattenContexts(tables, following);
+        probe.lap(CodecMetrics.Stage.TABLE_BUILD);
+
+        char[] decoded = decodeWithContexts(model.getSymbols(), following, flattened[0], flattened[1], result.getData(), result.getBitLength(),
+                result.getSymbolCount());
+        probe.lap(CodecMetrics.Stage.DECODE);
+        return decoded;
+    }
+
+    /**
+     * Decodes packed bits into characters, exactly like decode, but with a table for each context. The tables are indexed by a symbol's
+     * position in the block's alphabet, which is turned back into the symbol as it is stored.
+     *
+     * @param symbols The symbols of the block's alphabet.
+     * @param following The table that each symbol hands over to, indexed by position in the alphabet.
+     * @param primary The first level tables of every context, laid end to end, see DecodingTable.flattenContexts.
+     * @param secondary The second level tables of every context.
+     * @param data The packed encoded data.
+     * @param bitLength The number of bits of encoded data, excluding padding.
+     * @param symbolCount The number of characters the data should decode to.
+     * @return The decoded characters.
+     */
+    private static char[] decodeWithContexts(char[] symbols, byte[] following, long[] primary, long[] secondary, byte[] data,
+                                             long bitLength, int symbolCount) {
+        BitReader reader = new BitReader(data, bitLength);
+        char[] out = new char[symbolCount];
+        int count = 0;
+        int table = ContextModel.FALLBACK_TABLE;
+
+        // Each entry says which table the next lookup uses, so going from one context to the next costs nothing more than a shift.
+        long safeLimit = bitLength - 2 * Integer.SIZE;
+        while (reader.getPosition() < safeLimit && count + 2 <= symbolCount) {
+            reader.refill();
+            long entry = primary[(table << CONTEXT_PRIMARY_BITS) + reader.peek(CONTEXT_PRIMARY_BITS)];
+            int kind = DecodingTable.kind(entry);
+            if (kind == DecodingTable.LINK) {
+                entry = lookupLongCode(reader, entry, secondary, CONTEXT_PRIMARY_BITS);
+            } else if (kind == DecodingTable.INVALID) {
+                throw new IllegalArgumentException("Encoded data contains a code that is not in the code table!");
+            }
+            out[count] = symbols[DecodingTable.firstSymbol(entry)];
+            out[count + 1] = symbols[DecodingTable.secondSymbol(entry)];
+            count += kind == DecodingTable.TWO ? 2 : 1;
+            reader.skip(DecodingTable.totalLength(entry));
+            table = DecodingTable.nextTable(entry);
+        }
+
+        while (reader.remaining() > 0) {
+            if (count >= symbolCount) {
+                throw new IllegalArgumentException("Encoded data holds more characters than expected!");
+            }
+            reader.refill();
+            long entry = primary[(table << CONTEXT_PRIMARY_BITS) + reader.peek(CONTEXT_PRIMARY_BITS)];
+            int kind = DecodingTable.kind(entry);
+            if (kind == DecodingTable.LINK) {
+                entry = lookupLongCode(reader, entry, secondary, CONTEXT_PRIMARY_BITS);
+            } else if (kind == DecodingTable.INVALID) {
+                throw new IllegalArgumentException("Encoded data contains a code that is not in the code table!");
+            }
+            if (kind != DecodingTable.TWO || DecodingTable.totalLength(entry) <= reader.remaining()) {
+                if (DecodingTable.totalLength(entry) > reader.remaining()) {
+                    throw new IllegalArgumentException("Encoded data ends part way through a code!");
+                }
+                out[count++] = symbols[DecodingTable.firstSymbol(entry)];
+                if (kind == DecodingTable.TWO) {
+                    if (count >= symbolCount) {
+                        throw new IllegalArgumentException("Encoded data holds more characters than expected!");
+                    }
+                    out[count++] = symbols[DecodingTable.secondSymbol(entry)];
                 }
-                /*
-                 We are iterating our counter variable on the internal loop because this is a string of 1s and 0s, and the majority of times 1 character is represented
-                 with more than 1 bit.
-                 */
-                i++;
-            }
-            // Append the character this leaf represents to our StringBuilder object.
-            sb.append(current.getCharacter());
-            // Set our node back to the root node so we can begin the tree traversal again from the Nth bit.
-            current = result.getRoot();
-        }
-        return sb.toString();
+                reader.skip(DecodingTable.totalLength(entry));
+                table = DecodingTable.nextTable(entry);
+                continue;
+            }
+            // Only the first symbol of a pair is real data, so the next table has to be looked up from that symbol instead.
+            char first = DecodingTable.firstSymbol(entry);
+            if (DecodingTable.firstLength(entry) > reader.remaining()) {
+                throw new IllegalArgumentException("Encoded data ends part way through a code!");
+            }
+            out[count++] = symbols[first];
+            table = following[first] & 0xFF;
+            reader.skip(DecodingTable.firstLength(entry));
+        }
+        if (count != symbolCount) {
+            throw new IllegalArgumentException("Encoded data holds fewer characters than expected!");
+        }
+        return out;
+    }
+
+    /**
+     * Decodes packed bits into characters, resolving up to two characters per table lookup.
+     *
+     * @param table The table to decode with.
+     * @param data The packed encoded data.
+     * @param bitLength The number of bits of encoded data, excluding padding.
+     * @param symbolCount The number of characters the data should decode to.
+     * @return The decoded characters.
+     */
+    private static char[] decode(DecodingTable table, byte[] data, long bitLength, int symbolCount) {
+        long[] primary = table.getPrimary();
+        long[] secondary = table.getSecondary();
+        BitReader reader = new BitReader(data, bitLength);
+        char[] out = new char[symbolCount];
+        int count = 0;
+
+        /*
+         While there are plenty of bits left, no code (or pair of codes) can run past the end of the data, so the checks for that
+         can be skipped, and each lookup is just a load, a store and a skip. A lookup always stores two characters, so the loop stops
+         while there is still room for both, and the last one or two characters are left to the careful loop.
+         */
+        long safeLimit = bitLength - 2 * Integer.SIZE;
+        while (reader.getPosition() < safeLimit && count + 2 <= symbolCount) {
+            reader.refill();
+            long entry = primary[reader.peek(DecodingTable.PRIMARY_BITS)];
+            int kind = DecodingTable.kind(entry);
+            if (kind == DecodingTable.LINK) {
+                entry = lookupLongCode(reader, entry, secondary);
+            } else if (kind == DecodingTable.INVALID) {
+                throw new IllegalArgumentException("Encoded data contains a code that is not in the code table!");
+            }
+            // For a single character, the second character slot is just not counted, and gets overwritten by the next lookup.
+            out[count] = DecodingTable.firstSymbol(entry);
+            out[count + 1] = DecodingTable.secondSymbol(entry);
+            count += kind == DecodingTable.TWO ? 2 : 1;
+            reader.skip(DecodingTable.totalLength(entry));
+        }
+
+        // The last few codes are decoded carefully, since the bits we look up may run into the padding.
+        if (decodeRest(reader, primary, secondary, out, count, symbolCount) != symbolCount) {
+            throw new IllegalArgumentException("Encoded data holds fewer characters than expected!");
+        }
+        return out;
+    }
+
+    /**
+     * Decodes packed bits into bytes, exactly like decode, but without widening each byte to a character.
+     *
+     * @param table The table to decode with, whose symbols are all bytes.
+     * @param data The packed encoded data.
+     * @param bitLength The number of bits of encoded data, excluding padding.
+     * @param symbolCount The number of bytes the data should decode to.
+     * @return The decoded bytes.
+     */
+    private static byte[] decodeBytes(DecodingTable table, byte[] data, long bitLength, int symbolCount) {
+        byte[] out = new byte[symbolCount];
+        decodeBytes(table, new BitReader(data, bitLength), bitLength, out, symbolCount);
+        return out;
+    }
+
+    /**
+     * Decodes packed bits into an array that the caller keeps, so nothing is allocated.
+     *
+     * @param table The table to decode with, whose symbols are all bytes.
+     * @param reader A reader positioned at the start of the encoded data.
+     * @param bitLength The number of bits of encoded data, excluding padding.
+     * @param out Where to put the decoded bytes, with room for at least symbolCount of them.
+     * @param symbolCount The number of bytes the data should decode to.
+     */
+    static void decodeBytes(DecodingTable table, BitReader reader, long bitLength, byte[] out, int symbolCount) {
+        long[] primary = table.getPrimary();
+        long[] secondary = table.getSecondary();
+        int count = 0;
+
+        long safeLimit = bitLength - 2 * Integer.SIZE;
+        while (reader.getPosition() < safeLimit && count + 2 <= symbolCount) {
+            reader.refill();
+            long entry = primary[reader.peek(DecodingTable.PRIMARY_BITS)];
+            int kind = DecodingTable.kind(entry);
+            if (kind == DecodingTable.LINK) {
+                entry = lookupLongCode(reader, entry, secondary);
+            } else if (kind == DecodingTable.INVALID) {
+                throw new IllegalArgumentException("Encoded data contains a code that is not in the code table!");
+            }
+            out[count] = (byte) DecodingTable.firstSymbol(entry);
+            out[count + 1] = (byte) DecodingTable.secondSymbol(entry);
+            count += kind == DecodingTable.TWO ? 2 : 1;
+            reader.skip(DecodingTable.totalLength(entry));
+        }
+
+        while (reader.remaining() > 0) {
+            if (count >= symbolCount) {
+                throw new IllegalArgumentException("Encoded data holds more bytes than expected!");
+            }
+            reader.refill();
+            long entry = primary[reader.peek(DecodingTable.PRIMARY_BITS)];
+            int length;
+            switch (DecodingTable.kind(entry)) {
+                case DecodingTable.TWO:
+                    length = DecodingTable.totalLength(entry);
+                    if (length <= reader.remaining()) {
+                        if (count + 2 > symbolCount) {
+                            throw new IllegalArgumentException("Encoded data holds more bytes than expected!");
+                        }
+                        out[count++] = (byte) DecodingTable.firstSymbol(entry);
+                        out[count++] = (byte) DecodingTable.secondSymbol(entry);
+                        reader.skip(length);
+                        continue;
+                    }
+                    length = DecodingTable.firstLength(entry);
+                    break;
+                case DecodingTable.ONE:
+                    length = DecodingTable.totalLength(entry);
+                    break;
+                case DecodingTable.LINK:
+                    entry = lookupLongCode(reader, entry, secondary);
+                    length = DecodingTable.totalLength(entry);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Encoded data contains a code that is not in the code table!");
+            }
+            if (length > reader.remaining()) {
+                throw new IllegalArgumentException("Encoded data ends part way through a code!");
+            }
+            out[count++] = (byte) DecodingTable.firstSymbol(entry);
+            reader.skip(length);
+        }
+        if (count != symbolCount) {
+            throw new IllegalArgumentException("Encoded data holds fewer bytes than expected!");
+        }
+    }
+
+    /**
+     * Decodes the streams of an interleaved block into characters, which for a binary block are its bytes, widened. Each turn of the
+     * main loop looks up the next codes in all four streams, and since none of the lookups depends on another, the processor can work
+     * on them at the same time. Each stream writes into its own run of the output, and once any of them gets near the end of its bits
+     * or its run, they are finished one at a time.
+     *
+     * @param table The table to decode with.
+     * @param data The packed streams, one after the other, each padded to a whole number of bytes.
+     * @param bitLengths The number of bits in each stream, excluding padding.
+     * @param symbolCount The number of characters the streams should decode to, altogether.
+     * @return The decoded characters.
+     */
+    private static char[] decodeInterleaved(DecodingTable table, byte[] data, long[] bitLengths, int symbolCount) {
+        long[] primary = table.getPrimary();
+        long[] secondary = table.getSecondary();
+        int[] offsets = streamOffsets(data, bitLengths);
+        ByteBuffer words = ByteBuffer.wrap(data);
+        char[] out = new char[symbolCount];
+
+        /*
+         Each stream's reader is kept in local variables rather than a BitReader, so that all four fit in registers: the buffered bits,
+         the number of them that are valid, and the next byte to load. Every turn tops all four buffers up to at least 56 bits without
+         branching, which is enough for two lookups of up to 24 bits each. A stream stops the loop once its next load would come within
+         8 bytes of its end, or its run of the output has less than room for two lookups of two symbols, so even the last stream never
+         stores past the end of the output.
+         */
+        long bits0 = 0;
+        long bits1 = 0;
+        long bits2 = 0;
+        long bits3 = 0;
+        int valid0 = 0;
+        int valid1 = 0;
+        int valid2 = 0;
+        int valid3 = 0;
+        int next0 = offsets[0];
+        int next1 = offsets[1];
+        int next2 = offsets[2];
+        int next3 = offsets[3];
+        int count0 = Huffman.streamStart(0, symbolCount);
+        int count1 = Huffman.streamStart(1, symbolCount);
+        int count2 = Huffman.streamStart(2, symbolCount);
+        int count3 = Huffman.streamStart(3, symbolCount);
+        int last0 = count1 - 4;
+        int last1 = count2 - 4;
+        int last2 = count3 - 4;
+        int last3 = symbolCount - 4;
+        while (next0 < offsets[1] - Long.BYTES && next1 < offsets[2] - Long.BYTES && next2 < offsets[3] - Long.BYTES
+                && next3 < offsets[4] - Long.BYTES && count0 <= last0 && count1 <= last1 && count2 <= last2 && count3 <= last3) {
+            // Loading at byte next puts the bits after the valid ones in place, and next moves on by as many whole bytes as were kept.
+            bits0 |= words.getLong(next0) >>> valid0;
+            next0 += (63 - valid0) >>> 3;
+            valid0 |= 56;
+            bits1 |= words.getLong(next1) >>> valid1;
+            next1 += (63 - valid1) >>> 3;
+            valid1 |= 56;
+            bits2 |= words.getLong(next2) >>> valid2;
+            next2 += (63 - valid2) >>> 3;
+            valid2 |= 56;
+            bits3 |= words.getLong(next3) >>> valid3;
+            next3 += (63 - valid3) >>> 3;
+            valid3 |= 56;
+            for (int turn = 0; turn < 2; turn++) {
+                long entry0 = resolve(primary[(int) (bits0 >>> (64 - DecodingTable.PRIMARY_BITS))], bits0, secondary);
+                long entry1 = resolve(primary[(int) (bits1 >>> (64 - DecodingTable.PRIMARY_BITS))], bits1, secondary);
+                long entry2 = resolve(primary[(int) (bits2 >>> (64 - DecodingTable.PRIMARY_BITS))], bits2, secondary);
+                long entry3 = resolve(primary[(int) (bits3 >>> (64 - DecodingTable.PRIMARY_BITS))], bits3, secondary);
+                out[count0] = DecodingTable.firstSymbol(entry0);
+                out[count0 + 1] = DecodingTable.secondSymbol(entry0);
+                out[count1] = DecodingTable.firstSymbol(entry1);
+                out[count1 + 1] = DecodingTable.secondSymbol(entry1);
+                out[count2] = DecodingTable.firstSymbol(entry2);
+                out[count2 + 1] = DecodingTable.secondSymbol(entry2);
+                out[count3] = DecodingTable.firstSymbol(entry3);
+                out[count3 + 1] = DecodingTable.secondSymbol(entry3);
+                count0 += DecodingTable.kind(entry0) == DecodingTable.TWO ? 2 : 1;
+                count1 += DecodingTable.kind(entry1) == DecodingTable.TWO ? 2 : 1;
+                count2 += DecodingTable.kind(entry2) == DecodingTable.TWO ? 2 : 1;
+                count3 += DecodingTable.kind(entry3) == DecodingTable.TWO ? 2 : 1;
+                int length0 = DecodingTable.totalLength(entry0);
+                int length1 = DecodingTable.totalLength(entry1);
+                int length2 = DecodingTable.totalLength(entry2);
+                int length3 = DecodingTable.totalLength(entry3);
+                bits0 <<= length0;
+                bits1 <<= length1;
+                bits2 <<= length2;
+                bits3 <<= length3;
+                valid0 -= length0;
+                valid1 -= length1;
+                valid2 -= length2;
+                valid3 -= length3;
+            }
+        }
+
+        // The rest of each stream is decoded carefully, from the bit that the loop above got up to.
+        long[] positions = {8L * (next0 - offsets[0]) - valid0, 8L * (next1 - offsets[1]) - valid1, 8L * (next2 - offsets[2]) - valid2,
+                8L * (next3 - offsets[3]) - valid3};
+        int[] counts = {count0, count1, count2, count3};
+        for (int stream = 0; stream < Huffman.INTERLEAVED_STREAMS; stream++) {
+            BitReader reader = new BitReader(data, offsets[stream], bitLengths[stream]);
+            reader.seek(positions[stream]);
+            int end = Huffman.streamStart(stream + 1, symbolCount);
+            if (decodeRest(reader, primary, secondary, out, counts[stream], end) != end) {
+                throw new IllegalArgumentException("Encoded data holds fewer characters than expected!");
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Works out where each stream of an interleaved block starts, checking that the streams fill the data exactly.
+     *
+     * @param data The packed streams, one after the other, each padded to a whole number of bytes.
+     * @param bitLengths The number of bits in each stream, excluding padding.
+     * @return The offset of each stream in the data, followed by the length of the data.
+     */
+    private static int[] streamOffsets(byte[] data, long[] bitLengths) {
+        int[] offsets = new int[bitLengths.length + 1];
+        long offset = 0;
+        for (int stream = 0; stream < bitLengths.length; stream++) {
+            offsets[stream] = (int) offset;
+            offset += (bitLengths[stream] + 7) / 8;
+        }
+        if (offset != data.length) {
+            throw new IllegalArgumentException("Encoded streams don't add up to the length of the data!");
+        }
+        offsets[bitLengths.length] = data.length;
+        return offsets;
+    }
+
+    /**
+     * Turns a first level entry into the entry for the code, following a link to the second level if the code is a long one.
+     *
+     * @param entry The first level entry.
+     * @param bits The buffered bits, starting with the code.
+     * @param secondary The second level tables.
+     * @return The entry for the code, or pair of codes.
+     */
+    private static long resolve(long entry, long bits, long[] secondary) {
+        int kind = DecodingTable.kind(entry);
+        if (kind == DecodingTable.ONE || kind == DecodingTable.TWO) {
+            return entry;
+        }
+        if (kind == DecodingTable.INVALID) {
+            throw new IllegalArgumentException("Encoded data contains a code that is not in the code table!");
+        }
+        int width = DecodingTable.linkWidth(entry);
+        int index = (int) (bits >>> (64 - DecodingTable.PRIMARY_BITS - width)) & ((1 << width) - 1);
+        long resolved = secondary[DecodingTable.linkOffset(entry) + index];
+        if (DecodingTable.kind(resolved) == DecodingTable.INVALID) {
+            throw new IllegalArgumentException("Encoded data contains a code that is not in the code table!");
+        }
+        return resolved;
+    }
+
+    /**
+     * Decodes what is left of a block, or of one stream of an interleaved block, carefully, in case the bits it looks up run into the
+     * padding, or the data is corrupt and holds more characters than its run of the output has room for.
+     *
+     * @param reader The reader, positioned at the next code.
+     * @param primary The first level table.
+     * @param secondary The second level tables.
+     * @param out The output to decode into.
+     * @param count The index in the output of the next character.
+     * @param end The index in the output where the run being decoded ends.
+     * @return The index after the last character decoded, which is end if the data held the right number of characters.
+     */
+    private static int decodeRest(BitReader reader, long[] primary, long[] secondary, char[] out, int count, int end) {
+        while (reader.remaining() > 0) {
+            if (count >= end) {
+                throw new IllegalArgumentException("Encoded data holds more characters than expected!");
+            }
+            reader.refill();
+            long entry = primary[reader.peek(DecodingTable.PRIMARY_BITS)];
+            int length;
+            switch (DecodingTable.kind(entry)) {
+                case DecodingTable.TWO:
+                    length = DecodingTable.totalLength(entry);
+                    if (length <= reader.remaining()) {
+                        if (count + 2 > end) {
+                            throw new IllegalArgumentException("Encoded data holds more characters than expected!");
+                        }
+                        out[count++] = DecodingTable.firstSymbol(entry);
+                        out[count++] = DecodingTable.secondSymbol(entry);
+                        reader.skip(length);
+                        continue;
+                    }
+                    length = DecodingTable.firstLength(entry);
+                    break;
+                case DecodingTable.ONE:
+                    length = DecodingTable.totalLength(entry);
+                    break;
+                case DecodingTable.LINK:
+                    entry = lookupLongCode(reader, entry, secondary);
+                    length = DecodingTable.totalLength(entry);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Encoded data contains a code that is not in the code table!");
+            }
+            if (length > reader.remaining()) {
+                throw new IllegalArgumentException("Encoded data ends part way through a code!");
+            }
+            out[count++] = DecodingTable.firstSymbol(entry);
+            reader.skip(length);
+        }
+        return count;
+    }
+
+    /**
+     * Resolves a code that is longer than the first level table, using the bits after the first PRIMARY_BITS to index into the
+     * second level table that the link points at.
+     *
+     * @param reader The reader, positioned at the start of the code and refilled.
+     * @param link The first level entry, which links to a second level table.
+     * @param secondary All of the second level tables.
+     * @return An entry for the character, whose total length counts the whole code.
+     */
+    private static long lookupLongCode(BitReader reader, long link, long[] secondary) {
+        return lookupLongCode(reader, link, secondary, DecodingTable.PRIMARY_BITS);
+    }
+
+    /**
+     * Resolves a code that is longer than a first level table of any width.
+     *
+     * @param reader The reader, positioned at the start of the code and refilled.
+     * @param link The first level entry, which links to a second level table.
+     * @param secondary All of the second level tables.
+     * @param primaryBits The number of bits that the first level table is indexed by.
+     * @return An entry for the character, whose total length counts the whole code.
+     */
+    private static long lookupLongCode(BitReader reader, long link, long[] secondary, int primaryBits) {
+        int width = DecodingTable.linkWidth(link);
+        int index = reader.peek(primaryBits + width) & ((1 << width) - 1);
+        long entry = secondary[DecodingTable.linkOffset(link) + index];
+        if (DecodingTable.kind(entry) == DecodingTable.INVALID) {
+            throw new IllegalArgumentException("Encoded data contains a code that is not in the code table!");
+        }
+        return entry;
     }
 }
@@ -0,0 +1,302 @@
+package me.lukecs;
+
+import java.util.Arrays;
+
+public class DecodingTable {
+    /**
+     * The number of bits looked up in one go by the first level table.
+     */
+    public static final int PRIMARY_BITS = 11;
+
+    /*
+     Each table entry is a long, laid out as:
+       bits 0-15   first symbol (or the offset of a second level table, for links)
+       bits 16-31  second symbol
+       bits 32-37  total number of bits consumed (or the width of a second level table, for links)
+       bits 38-43  number of bits consumed by the first symbol alone
+       bits 44-45  kind: LINK, ONE or TWO symbols, or INVALID
+       bits 46-53  the table to decode the next symbol with, for the tables of an order-1 block, see flattenContexts
+     */
+    static final int LINK = 0;
+    static final int ONE = 1;
+    static final int TWO = 2;
+    static final int INVALID = 3;
+    private static final long INVALID_ENTRY = (long) INVALID << 44;
+
+    private final int primaryBits;
+    private final long[] primary;
+    private long[] secondary;
+
+    // Only kept by a table that is rebuilt, see rebuild.
+    private final int[] widths;
+    private final long[] singles;
+
+    /**
+     * A DecodingTable turns the next few bits of encoded data into one or more characters with a single lookup. Codes of up to PRIMARY_BITS
+     * bits are resolved by the first level table, which also packs a second character into an entry when both codes fit. Longer codes
+     * follow a link from the first level to a second level table that is indexed by the bits after the first PRIMARY_BITS.
+     *
+     * @param codes The Huffman code of each character, right aligned.
+     * @param lengths The length of each character's code, 0 if the character does not occur.
+     */
+    public DecodingTable(int[] codes, byte[] lengths) {
+        this(codes, lengths, true, PRIMARY_BITS);
+    }
+
+    /**
+     * Builds a table, optionally leaving out the entries that decode two characters at once, for when the second character should be
+     * looked up in a different table, see pairAcrossContexts. The first level can also be made narrower than PRIMARY_BITS, for when
+     * lots of tables are used at once and would not otherwise fit in the cache together.
+     *
+     * @param codes The Huffman code of each character, right aligned.
+     * @param lengths The length of each character's code, 0 if the character does not occur.
+     * @param pairs Whether to decode two characters from one entry where both codes fit.
+     * @param primaryBits The number of bits looked up in one go by the first level table, from 1 to PRIMARY_BITS.
+     */
+    DecodingTable(int[] codes, byte[] lengths, boolean pairs, int primaryBits) {
+        if (primaryBits < 1 || primaryBits > PRIMARY_BITS) {
+            throw new IllegalArgumentException("First level table must look up from 1-" + PRIMARY_BITS + " bits!");
+        }
+        this.primaryBits = primaryBits;
+        this.primary = new long[1 << primaryBits];
+        this.widths = null;
+        this.singles = null;
+        build(codes, lengths, pairs, new int[1 << primaryBits], pairs ? new long[1 << primaryBits] : null);
+    }
+
+    /**
+     * Builds an empty table that is filled in by rebuild, for decoding one block after another without allocating a table for each.
+     */
+    DecodingTable() {
+        this.primaryBits = PRIMARY_BITS;
+        this.primary = new long[1 << PRIMARY_BITS];
+        this.secondary = new long[0];
+        this.widths = new int[1 << PRIMARY_BITS];
+        this.singles = new long[1 << PRIMARY_BITS];
+    }
+
+    /**
+     * Fills the table in again from a different code, reusing its arrays. The second level only grows when a code needs more room
+     * there than any code before it, so once it has seen the longest codes it is going to, rebuilding allocates nothing.
+     *
+     * @param codes The Huffman code of each character, right aligned.
+     * @param lengths The length of each character's code, 0 if the character does not occur.
+     * @param pairs Whether to decode two characters from one entry where both codes fit.
+     */
+    void rebuild(int[] codes, byte[] lengths, boolean pairs) {
+        if (widths == null) {
+            throw new IllegalStateException("Only a table built to be reused can be rebuilt!");
+        }
+        Arrays.fill(widths, 0);
+        build(codes, lengths, pairs, widths, singles);
+    }
+
+    private void build(int[] codes, byte[] lengths, boolean pairs, int[] widths, long[] singles) {
+        Arrays.fill(primary, INVALID_ENTRY);
+
+        // First work out how wide each second level table needs to be, by finding the longest code that shares each first level prefix.
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            int length = lengths[symbol];
+            if (length > primaryBits) {
+                int prefix = codes[symbol] >>> (length - primaryBits);
+                widths[prefix] = Math.max(widths[prefix], length - primaryBits);
+            }
+        }
+        int secondarySize = 0;
+        for (int prefix = 0; prefix < widths.length; prefix++) {
+            if (widths[prefix] > 0) {
+                primary[prefix] = link(secondarySize, widths[prefix]);
+                secondarySize += 1 << widths[prefix];
+            }
+        }
+        if (secondary == null || secondary.length < secondarySize) {
+            secondary = new long[secondarySize];
+        }
+        Arrays.fill(secondary, 0, secondarySize, INVALID_ENTRY);
+
+        /*
+         A code shorter than the table index is placed in every entry that starts with it, so whatever bits follow the code,
+         the lookup still lands on the right character.
+         */
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            int length = lengths[symbol];
+            if (length == 0) {
+                continue;
+            }
+            if (length <= primaryBits) {
+                int first = codes[symbol] << (primaryBits - length);
+                Arrays.fill(primary, first, first + (1 << (primaryBits - length)), single(symbol, length));
+            } else {
+                int extra = length - primaryBits;
+                long link = primary[codes[symbol] >>> extra];
+                int width = (int) (link >>> 32) & 0x3F;
+                int first = linkOffset(link) + ((codes[symbol] & ((1 << extra) - 1)) << (width - extra));
+                Arrays.fill(secondary, first, first + (1 << (width - extra)), single(symbol, length));
+            }
+        }
+
+        // Where the bits left over after a short code hold another complete code, decode both characters from the one entry.
+        if (pairs) {
+            System.arraycopy(primary, 0, singles, 0, primary.length);
+            addPairs(primary, singles, null, null);
+        }
+    }
+
+    /**
+     * Adds entries that decode two characters at once to the tables of an order-1 block, where the second character is looked up in
+     * the table that the first one hands over to, rather than the table the first one came from. The tables must have been built
+     * without pairs of their own.
+     *
+     * @param tables The table of each context.
+     * @param following The table that each character hands over to, indexed by character.
+     */
+    static void pairAcrossContexts(DecodingTable[] tables, byte[] following) {
+        long[][] singles = new long[tables.length][];
+        for (int table = 0; table < tables.length; table++) {
+            if (tables[table].primaryBits != tables[0].primaryBits) {
+                throw new IllegalArgumentException("Tables must all look up the same number of bits to be paired across!");
+            }
+            singles[table] = tables[table].primary.clone();
+        }
+        for (int table = 0; table < tables.length; table++) {
+            addPairs(tables[table].primary, singles[table], singles, following);
+        }
+    }
+
+    /**
+     * Lays the tables of an order-1 block end to end, with every entry recording which table the symbol after it is decoded with. Links
+     * are moved to point into the combined second level. Decoding can then go from one entry straight to the next table, without
+     * looking up the symbol's context on the way.
+     *
+     * @param tables The table of each context, which must all look up the same number of bits.
+     * @param following The table that each character hands over to, indexed by character.
+     * @return The combined first level, with the table for context t starting at t << getPrimaryBits(), and the combined second level.
+     */
+    static long[][] flattenContexts(DecodingTable[] tables, byte[] following) {
+        int size = tables[0].primary.length;
+        int secondarySize = 0;
+        for (DecodingTable table : tables) {
+            secondarySize += table.secondary.length;
+        }
+        long[] primary = new long[tables.length * size];
+        long[] secondary = new long[secondarySize];
+        int secondaryOffset = 0;
+        for (int table = 0; table < tables.length; table++) {
+            for (int index = 0; index < size; index++) {
+                primary[table * size + index] = withNextTable(tables[table].primary[index], secondaryOffset, following);
+            }
+            for (int index = 0; index < tables[table].secondary.length; index++) {
+                secondary[secondaryOffset + index] = withNextTable(tables[table].secondary[index], 0, following);
+            }
+            secondaryOffset += tables[table].secondary.length;
+        }
+        return new long[][]{primary, secondary};
+    }
+
+    private static long withNextTable(long entry, int secondaryOffset, byte[] following) {
+        switch (kind(entry)) {
+            case LINK:
+                return link(linkOffset(entry) + secondaryOffset, linkWidth(entry));
+            case ONE:
+                return entry | (long) (following[firstSymbol(entry)] & 0xFF) << 46;
+            case TWO:
+                return entry | (long) (following[secondSymbol(entry)] & 0xFF) << 46;
+            default:
+                return entry;
+        }
+    }
+
+    /**
+     * Turns each single character entry into a pair wherever the bits left over after its code hold another complete code.
+     *
+     * @param primary The first level table to add pairs to.
+     * @param singles The same table, before any pairs were added.
+     * @param contexts The single character tables of every context, or null to look up the second character in the same table.
+     * @param following The table that each character hands over to, or null to look up the second character in the same table.
+     */
+    private static void addPairs(long[] primary, long[] singles, long[][] contexts, byte[] following) {
+        for (int index = 0; index < primary.length; index++) {
+            long entry = singles[index];
+            if (kind(entry) != ONE) {
+                continue;
+            }
+            int firstLength = totalLength(entry);
+            long[] nextTable = contexts == null ? singles : contexts[following[firstSymbol(entry)] & 0xFF];
+            long next = nextTable[(index << firstLength) & (primary.length - 1)];
+            if (kind(next) == ONE && firstLength + totalLength(next) <= Integer.numberOfTrailingZeros(primary.length)) {
+                primary[index] = pair(firstSymbol(entry), firstSymbol(next), firstLength, firstLength + totalLength(next));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bits that the first level table is indexed by.
+     *
+     * @return The number of bits, PRIMARY_BITS unless the table was built narrower.
+     */
+    int getPrimaryBits() {
+        return primaryBits;
+    }
+
+    /**
+     * Returns the first level table, indexed by the next getPrimaryBits() bits.
+     *
+     * @return The first level table.
+     */
+    long[] getPrimary() {
+        return primary;
+    }
+
+    /**
+     * Returns all of the second level tables, laid end to end.
+     *
+     * @return The second level tables.
+     */
+    long[] getSecondary() {
+        return secondary;
+    }
+
+    static int kind(long entry) {
+        return (int) (entry >>> 44) & 0x3;
+    }
+
+    static int nextTable(long entry) {
+        return (int) (entry >>> 46) & 0xFF;
+    }
+
+    static char firstSymbol(long entry) {
+        return (char) entry;
+    }
+
+    static char secondSymbol(long entry) {
+        return (char) (entry >>> 16);
+    }
+
+    static int totalLength(long entry) {
+        return (int) (entry >>> 32) & 0x3F;
+    }
+
+    static int firstLength(long entry) {
+        return (int) (entry >>> 38) & 0x3F;
+    }
+
+    static int linkOffset(long entry) {
+        return (int) entry;
+    }
+
+    static int linkWidth(long entry) {
+        return (int) (entry >>> 32) & 0x3F;
+    }
+
+    private static long single(int symbol, int length) {
+        return ((long) ONE << 44) | ((long) length << 38) | ((long) length << 32) | symbol;
+    }
+
+    private static long pair(int first, int second, int firstLength, int totalLength) {
+        return ((long) TWO << 44) | ((long) firstLength << 38) | ((long) totalLength << 32) | ((long) second << 16) | first;
+    }
+
+    private static long link(int offset, int width) {
+        return ((long) LINK << 44) | ((long) width << 32) | offset;
+    }
+}
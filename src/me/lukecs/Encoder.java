@@ -1,123 +1,1269 @@
 package me.lukecs;
 
-import java.util.*;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class Encoder {
+    /**
+     * The number of symbols in a binary block, one for each byte value.
+     */
+    public static final int BYTE_ALPHABET_SIZE = 256;
+
+    /**
+     * The longest code the encoder will give a symbol. This is shorter than CanonicalCode.MAX_LENGTH, so that a code always fits in
+     * the decoder's lookahead along with room to spare, whatever the frequencies look like.
+     */
+    public static final int MAX_CODE_LENGTH = 24;
+
+    /*
+     Order-1 coding is tuned by a few numbers. A symbol has to come before at least MIN_CONTEXT_COUNT others to be considered for a table
+     of its own, and the histograms of all the candidates together can have at most MAX_CONTEXT_HISTOGRAM_CELLS entries. A table is
+     guessed to cost TABLE_BITS to write out, plus TABLE_ENTRY_BITS for each symbol in it.
+     */
+    private static final int MIN_CONTEXT_COUNT = 64;
+    private static final int MAX_CONTEXT_HISTOGRAM_CELLS = 1 << 22;
+    private static final int TABLE_BITS = 24;
+    private static final int TABLE_ENTRY_BITS = 12;
+    private static final double LN_2 = Math.log(2);
+
+    /*
+     A sampled histogram counts runs of SAMPLE_RUN symbols, spread evenly through the block, rather than every symbol. Runs rather than
+     single symbols keep the reads sequential and stop data with a regular layout from lining up with the stride. A block with fewer
+     than MIN_SAMPLE_RUNS runs to sample is counted exactly, and every symbol below FLOOR_SYMBOLS is given a count of at least 1, so
+     that it still has a code if the sample missed it.
+     */
+    private static final int SAMPLE_RUN = 64;
+    private static final int MIN_SAMPLE_RUNS = 64;
+    private static final int FLOOR_SYMBOLS = BYTE_ALPHABET_SIZE;
+
+    /*
+     Counting into a single table stalls whenever the same symbol comes up twice in a row, since each increment has to wait for the
+     store of the one before it. Byte histograms are counted into COUNT_TABLES tables of BYTE_ALPHABET_SIZE counts instead, one for each
+     of eight neighbouring positions, and added up at the end, so runs of one symbol are spread over independent counters.
+     */
+    static final int COUNT_TABLES = 8;
+
+    /*
+     Huffman coding a binary block is only worth it if the coded block, code length table included, comes out at least 1/2^MIN_GAIN_SHIFT
+     smaller than the bytes themselves, which is the same rule zstd uses. Anything that saves less, such as data that is already
+     compressed or encrypted, is stored as it is instead, which skips the encoding pass and turns decoding into a copy.
+     */
+    static final int MIN_GAIN_SHIFT = 6;
+
+    // Somewhere to write tables to when only their size is wanted.
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
 
     /**
      * Take some string of raw input data (i.e., "hello"), and generate the Huffman coding for it.
      *
      * @param data The raw input data to compress, as as String.
-     * @return A Huffman object that contains the encoded data as well as the root node that contains the tree.
+     * @return A Huffman object that contains the encoded data as well as the code length of each character.
      */
     public static Huffman compress(String data) {
-        Map<Character, Integer> occurrences = new HashMap<>();
+        return compress(data.toCharArray(), 0, data.length());
+    }
+
+    /**
+     * Take a block of characters, and generate the Huffman coding for just that block.
+     *
+     * @param data The array holding the characters to compress.
+     * @param offset The index of the first character in the block.
+     * @param length The number of characters in the block.
+     * @return A Huffman object that contains the encoded data as well as the code length of each character.
+     */
+    public static Huffman compress(char[] data, int offset, int length) {
+        return encode(new CharSource(data, offset, length), 1, false);
+    }
+
+    /**
+     * Take a block of binary data, and generate the Huffman coding for just that block, with each byte as a symbol.
+     *
+     * @param data The array holding the bytes to compress.
+     * @param offset The index of the first byte in the block.
+     * @param length The number of bytes in the block.
+     * @return A Huffman object that contains the encoded data as well as the code length of each byte value.
+     */
+    public static Huffman compress(byte[] data, int offset, int length) {
+        return encode(new ByteSource(data, offset, length), 1, false);
+    }
+
+    /**
+     * Take a block of binary data, from the buffer's position up to its limit, and generate the Huffman coding for just that block.
+     * The buffer's position is left where it was, and direct or memory mapped buffers are read without copying them.
+     *
+     * @param data The buffer holding the bytes to compress.
+     * @return A Huffman object that contains the encoded data as well as the code length of each byte value.
+     */
+    public static Huffman compress(ByteBuffer data) {
+        return encode(source(data), 1, false);
+    }
+
+    /**
+     * Take a block of characters, and generate the Huffman coding for it from a sample of the block rather than from every character.
+     * One run of characters in every stride is counted, so the histogram pass reads only a fraction of the block, at the cost of codes
+     * that are a little longer than they could be. How much longer is only worked out when the metrics are enabled, since that takes an
+     * exact count. If the block has a character that was missed by the sample and has no code, the block is counted again exactly.
+     *
+     * @param data The array holding the characters to compress.
+     * @param offset The index of the first character in the block.
+     * @param length The number of characters in the block.
+     * @param stride The fraction of the block to count, as 1 in stride. 1 counts every character.
+     * @return A Huffman object that contains the encoded data as well as the code length of each character.
+     */
+    public static Huffman compressSampled(char[] data, int offset, int length, int stride) {
+        return encode(new CharSource(data, offset, length), stride, false);
+    }
+
+    /**
+     * Take a block of binary data, and generate the Huffman coding for it from a sample of the block rather than from every byte. Every
+     * byte value is given a code, so unlike text, a binary block never has to be counted again.
+     *
+     * @param data The array holding the bytes to compress.
+     * @param offset The index of the first byte in the block.
+     * @param length The number of bytes in the block.
+     * @param stride The fraction of the block to count, as 1 in stride. 1 counts every byte.
+     * @return A Huffman object that contains the encoded data as well as the code length of each byte value.
+     */
+    public static Huffman compressSampled(byte[] data, int offset, int length, int stride) {
+        return encode(new ByteSource(data, offset, length), stride, false);
+    }
+
+    /**
+     * Take a block of binary data, from the buffer's position up to its limit, and generate the Huffman coding for it from a sample of
+     * the block. The buffer's position is left where it was. For a memory mapped buffer, only the pages holding the sample are read
+     * before the code is built.
+     *
+     * @param data The buffer holding the bytes to compress.
+     * @param stride The fraction of the block to count, as 1 in stride. 1 counts every byte.
+     * @return A Huffman object that contains the encoded data as well as the code length of each byte value.
+     */
+    public static Huffman compressSampled(ByteBuffer data, int stride) {
+        return encode(source(data), stride, false);
+    }
+
+    /**
+     * Take a block of characters, and generate the Huffman coding for it split across Huffman.INTERLEAVED_STREAMS bitstreams, which
+     * share one code table. Each stream holds a run of the block, so the decoder can follow all of them at once rather than waiting for
+     * each code to be decoded before it knows where the next one starts.
+     *
+     * @param data The array holding the characters to compress.
+     * @param offset The index of the first character in the block.
+     * @param length The number of characters in the block.
+     * @return A Huffman object that contains the encoded streams as well as the code length of each character.
+     */
+    public static Huffman compressInterleaved(char[] data, int offset, int length) {
+        return encode(new CharSource(data, offset, length), 1, true);
+    }
+
+    /**
+     * Take a block of binary data, and generate the Huffman coding for it split across Huffman.INTERLEAVED_STREAMS bitstreams.
+     *
+     * @param data The array holding the bytes to compress.
+     * @param offset The index of the first byte in the block.
+     * @param length The number of bytes in the block.
+     * @return A Huffman object that contains the encoded streams as well as the code length of each byte value.
+     */
+    public static Huffman compressInterleaved(byte[] data, int offset, int length) {
+        return encode(new ByteSource(data, offset, length), 1, true);
+    }
+
+    /**
+     * Take a block of binary data, from the buffer's position up to its limit, and generate the Huffman coding for it split across
+     * Huffman.INTERLEAVED_STREAMS bitstreams. The buffer's position is left where it was.
+     *
+     * @param data The buffer holding the bytes to compress.
+     * @return A Huffman object that contains the encoded streams as well as the code length of each byte value.
+     */
+    public static Huffman compressInterleaved(ByteBuffer data) {
+        return encode(source(data), 1, true);
+    }
+
+    /**
+     * Codes one block, the same way whatever the symbols are read from and however the block is laid out, so that every kind of block
+     * follows the same rules. The symbols are counted, either exactly or from a sample, then a block of one repeated symbol is written
+     * as a run, a binary block that coding would barely shrink is stored, and anything else is encoded with a canonical code.
+     *
+     * @param source The block's symbols.
+     * @param stride The fraction of the block to count, as 1 in stride. 1 counts every symbol.
+     * @param interleaved Whether to split the encoded symbols across Huffman.INTERLEAVED_STREAMS bitstreams.
+     * @return A Huffman object that contains the encoded block.
+     */
+    private static Huffman encode(BlockSource source, int stride, boolean interleaved) {
+        int length = source.length;
+        boolean sampled = worthSampling(length, stride);
+        CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+        int[] frequencies;
+        if (sampled) {
+            frequencies = source.sample(stride);
+            // Flooring gives every byte value a count, which would hide a run, so a sample of a single symbol is checked in full.
+            int symbol = onlySymbol(frequencies);
+            if (symbol >= 0 && source.isRun((char) symbol)) {
+                frequencies[symbol] = length;
+                sampled = false;
+            } else {
+                floorSample(frequencies, stride);
+            }
+        } else {
+            frequencies = source.count();
+        }
+        probe.lap(CodecMetrics.Stage.HISTOGRAM);
+        if (!sampled) {
+            Huffman run = runBlock(source.type, frequencies, length);
+            if (run != null) {
+                return run;
+            }
+        }
+
+        byte[] lengths = buildCodeLengths(frequencies);
+        probe.lap(CodecMetrics.Stage.TREE_BUILD);
+        // Only binary blocks can be stored. For a sampled block the estimated counts are all there is to go on, so they decide.
+        if (source.type == BlockType.BINARY && !worthCoding(frequencies, lengths, length)) {
+            Huffman stored = storedBlock(sampled ? null : frequencies, source.copy());
+            probe.lap(CodecMetrics.Stage.STORE);
+            return stored;
+        }
+        // Only the code lengths come from the tree. The codes themselves are canonical, so the decoder can rebuild them from the lengths.
+        int[] codes = CanonicalCode.assignCodes(lengths);
+        probe.lap(CodecMetrics.Stage.CODE_ASSIGNMENT);
+
+        Huffman encoded;
+        if (interleaved) {
+            BitWriter[] writers = new BitWriter[Huffman.INTERLEAVED_STREAMS];
+            for (int stream = 0; stream < writers.length; stream++) {
+                int start = Huffman.streamStart(stream, length);
+                int end = Huffman.streamStart(stream + 1, length);
+                writers[stream] = new BitWriter((end - start) / 2);
+                if (!encodeSymbols(source, start, end, codes, lengths, writers[stream], sampled)) {
+                    return encodeAgain(source, interleaved, probe);
+                }
+            }
+            encoded = joinStreams(source.type, lengths, writers, length);
+        } else {
+            // Guess that the output will be around half the size of the input, the writer will grow if not.
+            BitWriter writer = new BitWriter(length / 2);
+            if (!encodeSymbols(source, 0, length, codes, lengths, writer, sampled)) {
+                return encodeAgain(source, interleaved, probe);
+            }
+            encoded = new Huffman(source.type, lengths, writer.toByteArray(), writer.getBitLength(), length);
+        }
+        probe.lap(CodecMetrics.Stage.BIT_PACKING);
+        if (sampled) {
+            // What sampling cost is only worked out for the metrics, since it takes an exact count and a second tree.
+            if (CodecMetrics.getInstance().isEnabled()) {
+                addSampledBlock(source.count(), lengths, length, encoded.getBitLength());
+            }
+        } else {
+            CodecMetrics.getInstance().addEncodedBlock(frequencies, length, encoded.getBitLength());
+        }
+        return encoded;
+    }
+
+    private static boolean encodeSymbols(BlockSource source, int start, int end, int[] codes, byte[] lengths, BitWriter writer,
+                                         boolean sampled) {
+        if (sampled) {
+            return source.encodeSampled(start, end, codes, lengths, writer);
+        }
+        source.encode(start, end, codes, lengths, writer);
+        return true;
+    }
+
+    // A sampled text block had a character the sample missed, which has no code, so the block is coded again from its exact counts.
+    private static Huffman encodeAgain(BlockSource source, boolean interleaved, CodecMetrics.Probe probe) {
+        probe.lap(CodecMetrics.Stage.BIT_PACKING);
+        CodecMetrics.getInstance().addSampleFallback();
+        return encode(source, 1, interleaved);
+    }
+
+    // Returns the one symbol that occurs, or -1 if none or more than one do.
+    private static int onlySymbol(int[] counts) {
+        int only = -1;
+        for (int symbol = 0; symbol < counts.length; symbol++) {
+            if (counts[symbol] != 0) {
+                if (only >= 0) {
+                    return -1;
+                }
+                only = symbol;
+            }
+        }
+        return only;
+    }
+
+    private static BlockSource source(ByteBuffer data) {
+        return data.hasArray() ? new ByteSource(data.array(), data.arrayOffset() + data.position(), data.remaining()) : new BufferSource(data);
+    }
+
+    /**
+     * The symbols of one block, wherever they are read from. Each kind of source has its own loops over its symbols, so the per symbol
+     * work never goes through a virtual call, only the per block steps do.
+     */
+    private abstract static class BlockSource {
+        private final BlockType type;
+        private final int length;
+
+        private BlockSource(BlockType type, int length) {
+            this.type = type;
+            this.length = length;
+        }
+
+        // Counts every symbol.
+        abstract int[] count();
+
+        // Counts one run of SAMPLE_RUN symbols in every SAMPLE_RUN * stride.
+        abstract int[] sample(int stride);
+
+        // Whether every symbol is the same one.
+        abstract boolean isRun(char symbol);
+
+        // The block as bytes, for a stored block. Only binary sources are ever stored.
+        abstract byte[] copy();
+
+        // Encodes the symbols from start up to end, counted from the start of the block.
+        abstract void encode(int start, int end, int[] codes, byte[] lengths, BitWriter writer);
+
+        // Encodes like encode, but stops with false at a symbol that has no code. Every byte value has a code once a sample is floored,
+        // so only text has anything to check.
+        boolean encodeSampled(int start, int end, int[] codes, byte[] lengths, BitWriter writer) {
+            encode(start, end, codes, lengths, writer);
+            return true;
+        }
+    }
+
+    private static final class CharSource extends BlockSource {
+        private final char[] data;
+        private final int offset;
+
+        private CharSource(char[] data, int offset, int length) {
+            super(BlockType.TEXT, length);
+            this.data = data;
+            this.offset = offset;
+        }
+
+        @Override
+        int[] count() {
+            return countFrequencies(data, offset, super.length);
+        }
+
+        @Override
+        int[] sample(int stride) {
+            int[] sampled = new int[Main.SIZE];
+            int end = offset + super.length;
+            for (int run = offset; run < end; run += SAMPLE_RUN * stride) {
+                for (int i = run; i < Math.min(run + SAMPLE_RUN, end); i++) {
+                    sampled[data[i]]++;
+                }
+            }
+            return sampled;
+        }
+
+        @Override
+        boolean isRun(char symbol) {
+            for (int i = offset; i < offset + super.length; i++) {
+                if (data[i] != symbol) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        byte[] copy() {
+            throw new UnsupportedOperationException("Text blocks are never stored!");
+        }
+
+        @Override
+        void encode(int start, int end, int[] codes, byte[] lengths, BitWriter writer) {
+            char[] data = this.data;
+            for (int i = offset + start, last = offset + end; i < last; i++) {
+                char character = data[i];
+                writer.write(codes[character], lengths[character]);
+            }
+        }
+
+        @Override
+        boolean encodeSampled(int start, int end, int[] codes, byte[] lengths, BitWriter writer) {
+            char[] data = this.data;
+            for (int i = offset + start, last = offset + end; i < last; i++) {
+                char character = data[i];
+                if (lengths[character] == 0) {
+                    return false;
+                }
+                writer.write(codes[character], lengths[character]);
+            }
+            return true;
+        }
+    }
+
+    private static final class ByteSource extends BlockSource {
+        private final byte[] data;
+        private final int offset;
+
+        private ByteSource(byte[] data, int offset, int length) {
+            super(BlockType.BINARY, length);
+            this.data = data;
+            this.offset = offset;
+        }
+
+        @Override
+        int[] count() {
+            return countFrequencies(data, offset, super.length);
+        }
+
+        @Override
+        int[] sample(int stride) {
+            int[] sampled = new int[BYTE_ALPHABET_SIZE];
+            int end = offset + super.length;
+            for (int run = offset; run < end; run += SAMPLE_RUN * stride) {
+                for (int i = run; i < Math.min(run + SAMPLE_RUN, end); i++) {
+                    sampled[data[i] & 0xFF]++;
+                }
+            }
+            return sampled;
+        }
+
+        @Override
+        boolean isRun(char symbol) {
+            for (int i = offset; i < offset + super.length; i++) {
+                if ((data[i] & 0xFF) != symbol) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        byte[] copy() {
+            return Arrays.copyOfRange(data, offset, offset + super.length);
+        }
+
+        @Override
+        void encode(int start, int end, int[] codes, byte[] lengths, BitWriter writer) {
+            byte[] data = this.data;
+            for (int i = offset + start, last = offset + end; i < last; i++) {
+                int b = data[i] & 0xFF;
+                writer.write(codes[b], lengths[b]);
+            }
+        }
+    }
+
+    /**
+     * The bytes of a buffer that isn't backed by an array, such as a direct or memory mapped one, read in place with absolute gets
+     * so the buffer's position is left alone.
+     */
+    private static final class BufferSource extends BlockSource {
+        private final ByteBuffer data;
+        private final int position;
+
+        private BufferSource(ByteBuffer data) {
+            super(BlockType.BINARY, data.remaining());
+            this.data = data;
+            this.position = data.position();
+        }
+
+        @Override
+        int[] count() {
+            return countFrequencies(data);
+        }
+
+        @Override
+        int[] sample(int stride) {
+            int[] sampled = new int[BYTE_ALPHABET_SIZE];
+            int end = position + super.length;
+            for (int run = position; run < end; run += SAMPLE_RUN * stride) {
+                for (int i = run; i < Math.min(run + SAMPLE_RUN, end); i++) {
+                    sampled[data.get(i) & 0xFF]++;
+                }
+            }
+            return sampled;
+        }
+
+        @Override
+        boolean isRun(char symbol) {
+            for (int i = position; i < position + super.length; i++) {
+                if ((data.get(i) & 0xFF) != symbol) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        byte[] copy() {
+            return Encoder.copy(data);
+        }
+
+        @Override
+        void encode(int start, int end, int[] codes, byte[] lengths, BitWriter writer) {
+            ByteBuffer data = this.data;
+            for (int i = position + start, last = position + end; i < last; i++) {
+                int b = data.get(i) & 0xFF;
+                writer.write(codes[b], lengths[b]);
+            }
+        }
+    }
+
+    // Lays the packed streams out one after the other, each padded to a whole number of bytes.
+    private static Huffman joinStreams(BlockType type, byte[] lengths, BitWriter[] writers, int symbolCount) {
+        byte[][] streams = new byte[writers.length][];
+        long[] bitLengths = new long[writers.length];
+        int size = 0;
+        for (int stream = 0; stream < writers.length; stream++) {
+            streams[stream] = writers[stream].toByteArray();
+            bitLengths[stream] = writers[stream].getBitLength();
+            size += streams[stream].length;
+        }
+        byte[] data = new byte[size];
+        int position = 0;
+        for (byte[] stream : streams) {
+            System.arraycopy(stream, 0, data, position, stream.length);
+            position += stream.length;
+        }
+        return new Huffman(type, lengths, data, bitLengths, symbolCount);
+    }
+
+    /**
+     * Makes a run block if only one symbol occurs in the block, since then it needs no code table or encoded data at all.
+     *
+     * @param type The type of block.
+     * @param frequencies The number of times each symbol occurs in the block.
+     * @param length The number of symbols in the block.
+     * @return The run block, or null if more than one symbol occurs.
+     */
+    private static Huffman runBlock(BlockType type, int[] frequencies, int length) {
+        if (length == 0) {
+            return null;
+        }
+        for (int symbol = 0; symbol < frequencies.length; symbol++) {
+            if (frequencies[symbol] != 0) {
+                if (frequencies[symbol] != length) {
+                    return null;
+                }
+                CodecMetrics metrics = CodecMetrics.getInstance();
+                metrics.addEncodedBlock(frequencies, length, 0);
+                metrics.addRunBlock();
+                return Huffman.run(type, (char) symbol, length);
+            }
+        }
+        return null;
+    }
+
+    // Whether the code saves enough on the bytes as they are to be worth encoding the block with, see MIN_GAIN_SHIFT.
+    private static boolean worthCoding(int[] frequencies, byte[] lengths, int length) {
+        long raw = (long) length * Byte.SIZE;
+        return codedBits(frequencies, lengths) + Byte.SIZE * serializedSize(lengths) <= raw - (raw >> MIN_GAIN_SHIFT);
+    }
+
+    /**
+     * Makes a stored block, and counts it against the metrics.
+     *
+     * @param frequencies The exact number of times each byte occurs in the block, or null if they haven't been counted, such as when
+     *                    the block was sampled. They are only counted then if the metrics will use them.
+     * @param data The bytes of the block.
+     * @return The stored block.
+     */
+    private static Huffman storedBlock(int[] frequencies, byte[] data) {
+        CodecMetrics metrics = CodecMetrics.getInstance();
+        if (metrics.isEnabled()) {
+            metrics.addEncodedBlock(frequencies != null ? frequencies : countFrequencies(data, 0, data.length), data.length,
+                    (long) data.length * Byte.SIZE);
+        }
+        metrics.addStoredBlock();
+        return Huffman.stored(data);
+    }
+
+    // Copies the bytes from the buffer's position up to its limit in one go, leaving the position where it was.
+    private static byte[] copy(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
 
-        constructFrequencyMap(data, occurrences);
-        Node root = buildHuffmanTree(occurrences);
-        Map<Character, String> lookupTable = buildLookupTable(root);
-        return new Huffman(generateEncodedData(data, lookupTable), root);
+    private static boolean worthSampling(int length, int stride) {
+        if (stride < 1) {
+            throw new IllegalArgumentException("Sample stride must be at least 1!");
+        }
+        return stride > 1 && length / (SAMPLE_RUN * stride) >= MIN_SAMPLE_RUNS;
     }
 
     /**
-     * Take a Map as well as some data, and populate the Map with frequencies. Populates initially with all Unicode characters.
-     * This method's return type is void since we aren't returning a Map, we are populating a map by reference.
+     * Scales sampled counts up to an estimate of the counts in the whole block, and gives every symbol below FLOOR_SYMBOLS a count of
+     * at least 1. A symbol the sample missed probably occurs fewer than stride times, so a count of 1 gives it a long code, not a
+     * wasteful one.
      *
-     * @param data The data to construct a mapping for frequencies with.
-     * @param occurrences The Map of occurrences.
+     * @param sampled The number of times each symbol occurs in the sample. This is overwritten.
+     * @param stride The fraction of the block that was sampled, as 1 in stride.
+     * @return The estimated counts.
      */
-    private static void constructFrequencyMap(String data, Map<Character, Integer> occurrences) {
-        for (char i=0; i<Main.SIZE; i++) {
-            occurrences.put(i, 0);
+    private static int[] floorSample(int[] sampled, int stride) {
+        for (int symbol = 0; symbol < sampled.length; symbol++) {
+            sampled[symbol] *= stride;
+            if (sampled[symbol] == 0 && symbol < FLOOR_SYMBOLS) {
+                sampled[symbol] = 1;
+            }
         }
-        for (char character : data.toCharArray()) {
-            // Not the first occurrence
-            occurrences.replace(character, occurrences.get(character) + 1);
+        return sampled;
+    }
+
+    // Counts the block, along with what coding it from its exact counts would have cost, so the price of sampling can be reported.
+    private static void addSampledBlock(int[] frequencies, byte[] lengths, int length, long bitLength) {
+        CodecMetrics metrics = CodecMetrics.getInstance();
+        metrics.addEncodedBlock(frequencies, length, bitLength);
+        byte[] exact = buildCodeLengths(frequencies);
+        metrics.addSampledBlock(bitLength + 8 * serializedSize(lengths), codedBits(frequencies, exact) + 8 * serializedSize(exact));
+    }
+
+    /**
+     * Take a block of characters, and generate an order-1 Huffman coding for it, where each character is coded with a table chosen by
+     * the character before it. Characters that come before others often enough to pay for a table get one of their own, and the rest
+     * share a fallback table. If no character is worth a table, this is the same as compress.
+     *
+     * @param data The array holding the characters to compress.
+     * @param offset The index of the first character in the block.
+     * @param length The number of characters in the block.
+     * @return A Huffman object that contains the encoded data as well as the code tables.
+     */
+    public static Huffman compressWithContexts(char[] data, int offset, int length) {
+        CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+        int[] frequencies = countFrequencies(data, offset, length);
+        char[] symbols = occurringSymbols(frequencies);
+        char[] ranks = rankSymbols(symbols, frequencies.length);
+        char[] ranked = new char[length];
+        for (int i = 0; i < length; i++) {
+            ranked[i] = ranks[data[offset + i]];
         }
+        return compressWithContexts(BlockType.TEXT, frequencies, symbols, ranked, probe);
     }
 
     /**
-     * Take the constructed mapping of Character : Frequency and return the root node of the Huffman tree.
+     * Take a block of binary data, and generate an order-1 Huffman coding for it, with each byte as a symbol.
      *
-     * @param occurrences The Map of occurrences of all characters.
-     * @return The root node of the Huffman tree.
+     * @param data The array holding the bytes to compress.
+     * @param offset The index of the first byte in the block.
+     * @param length The number of bytes in the block.
+     * @return A Huffman object that contains the encoded data as well as the code tables.
      */
-    private static Node buildHuffmanTree(Map<Character, Integer> occurrences) {
-        // Use a PriorityQueue so we can have the lowest frequency element on the top of the priority heap internally.
-        Queue<Node> queue = new PriorityQueue<>();
-        for (char i = 0; i < Main.SIZE; i++) {
-            /*
-             For every character that actually occurs, we will create a new leaf node (i.e., left and right nodes are null) of this character,
-             with the character and its frequency.
-             */
-            if (occurrences.get(i) > 0) {
-                queue.add(new Node(i, occurrences.get(i), null, null));
+    public static Huffman compressWithContexts(byte[] data, int offset, int length) {
+        CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+        int[] frequencies = countFrequencies(data, offset, length);
+        char[] symbols = occurringSymbols(frequencies);
+        char[] ranks = rankSymbols(symbols, frequencies.length);
+        char[] ranked = new char[length];
+        for (int i = 0; i < length; i++) {
+            ranked[i] = ranks[data[offset + i] & 0xFF];
+        }
+        return compressWithContexts(BlockType.BINARY, frequencies, symbols, ranked, probe);
+    }
+
+    /**
+     * Take a block of binary data, from the buffer's position up to its limit, and generate an order-1 Huffman coding for it.
+     * The buffer's position is left where it was.
+     *
+     * @param data The buffer holding the bytes to compress.
+     * @return A Huffman object that contains the encoded data as well as the code tables.
+     */
+    public static Huffman compressWithContexts(ByteBuffer data) {
+        if (data.hasArray()) {
+            return compressWithContexts(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+        int[] frequencies = countFrequencies(data);
+        char[] symbols = occurringSymbols(frequencies);
+        char[] ranks = rankSymbols(symbols, frequencies.length);
+        char[] ranked = new char[data.remaining()];
+        for (int i = 0; i < ranked.length; i++) {
+            ranked[i] = ranks[data.get(data.position() + i) & 0xFF];
+        }
+        return compressWithContexts(BlockType.BINARY, frequencies, symbols, ranked, probe);
+    }
+
+    /**
+     * Chooses which symbols get a table of their own, builds every table, and encodes a block whose symbols have been replaced by their
+     * index in the block's alphabet.
+     *
+     * @param type The type of block.
+     * @param frequencies The number of times each symbol occurs, indexed by symbol.
+     * @param symbols The symbols that occur, in ascending order.
+     * @param ranked The block, with each symbol replaced by its index in symbols.
+     * @param probe The probe timing the block, which has just finished counting frequencies.
+     * @return A Huffman object that contains the encoded data as well as the code tables.
+     */
+    private static Huffman compressWithContexts(BlockType type, int[] frequencies, char[] symbols, char[] ranked, CodecMetrics.Probe probe) {
+        int alphabet = symbols.length;
+        int length = ranked.length;
+
+        /*
+         The symbols that come before the most others are the candidates for tables of their own. The last symbol of the block comes
+         before nothing, so it is taken off its count. There is a histogram per candidate over the block's alphabet, so for text with a
+         very large alphabet there are fewer candidates, to keep those histograms to a sensible size.
+         */
+        int[] contextCounts = new int[alphabet];
+        for (int rank = 0; rank < alphabet; rank++) {
+            contextCounts[rank] = frequencies[symbols[rank]];
+        }
+        if (length > 0) {
+            contextCounts[ranked[length - 1]]--;
+        }
+        int limit = Math.min(ContextModel.MAX_CONTEXTS, MAX_CONTEXT_HISTOGRAM_CELLS / Math.max(1, alphabet));
+        long[] byCount = new long[alphabet];
+        int candidates = 0;
+        for (int rank = 0; rank < alphabet; rank++) {
+            if (contextCounts[rank] >= MIN_CONTEXT_COUNT) {
+                byCount[candidates++] = ((long) contextCounts[rank] << 32) | rank;
             }
         }
+        Arrays.sort(byCount, 0, candidates);
+        int[] slots = new int[alphabet];
+        int[][] histograms = new int[Math.min(candidates, limit) + 1][];
+        histograms[0] = new int[alphabet];
+        for (int slot = 1; slot < histograms.length; slot++) {
+            slots[(int) byCount[candidates - slot]] = slot;
+            histograms[slot] = new int[alphabet];
+        }
 
-        // A queue size of 1 indicates that the only Node left is the root node, so we add this to the queue before later returning the poll().
-        if (queue.size() == 1) {
-            queue.add(new Node('\0', 1, null, null));
+        // The first symbol has nothing before it, so it always goes in the fallback table.
+        if (length > 0) {
+            histograms[0][ranked[0]]++;
+        }
+        for (int i = 1; i < length; i++) {
+            histograms[slots[ranked[i - 1]]][ranked[i]]++;
         }
 
-        // A queue size greater than 1 indicates that there are still 2 or more leaf nodes, so we should create a new parent node, and add it back onto the queue.
-        while (queue.size() > 1) {
-            Node left = queue.poll();
-            Node right = queue.poll();
-            Node parent = new Node('\0', left.getFrequency() + right.getFrequency(), left, right);
-            queue.add(parent);
+        /*
+         A candidate keeps its own table if coding what follows it with that table, plus the cost of writing the table out, comes to
+         fewer bits than coding the same symbols with the block's overall frequencies, which is roughly what the fallback table will have.
+         Otherwise what follows it is added to the fallback table.
+         */
+        double[] fallbackBits = new double[alphabet];
+        for (int rank = 0; rank < alphabet; rank++) {
+            fallbackBits[rank] = Math.log((double) length / frequencies[symbols[rank]]);
         }
+        int[] tableOfSlot = new int[histograms.length];
+        char[] contexts = new char[histograms.length - 1];
+        int tables = 1;
+        for (int slot = 1; slot < histograms.length; slot++) {
+            int[] histogram = histograms[slot];
+            int total = contextCounts[(int) byCount[candidates - slot]];
+            double ownBits = 0;
+            double sharedBits = 0;
+            for (int rank = 0; rank < alphabet; rank++) {
+                if (histogram[rank] > 0) {
+                    ownBits += histogram[rank] * Math.log((double) total / histogram[rank]) + TABLE_ENTRY_BITS * LN_2;
+                    sharedBits += histogram[rank] * fallbackBits[rank];
+                }
+            }
+            if (ownBits + TABLE_BITS * LN_2 < sharedBits) {
+                contexts[tables - 1] = (char) byCount[candidates - slot];
+                histograms[tables++] = histogram;
+            } else {
+                for (int rank = 0; rank < alphabet; rank++) {
+                    histograms[0][rank] += histogram[rank];
+                }
+            }
+        }
+        probe.lap(CodecMetrics.Stage.HISTOGRAM);
 
-        return queue.poll();
+        /*
+         The guesses above can be wrong for small blocks, where the tables make up a lot of the output, so before committing to the
+         context tables, work out exactly how big the block would be with them and with a single table, and use whichever is smaller.
+         */
+        int[] rankFrequencies = new int[alphabet];
+        for (int rank = 0; rank < alphabet; rank++) {
+            rankFrequencies[rank] = frequencies[symbols[rank]];
+        }
+        byte[] rankLengths = buildCodeLengths(rankFrequencies);
+        byte[] lengths = new byte[frequencies.length];
+        for (int rank = 0; rank < alphabet; rank++) {
+            lengths[symbols[rank]] = rankLengths[rank];
+        }
+        ContextModel model = null;
+        byte[][] tableLengths = new byte[tables][];
+        if (tables > 1) {
+            long contextBits = 0;
+            for (int table = 0; table < tables; table++) {
+                tableLengths[table] = buildCodeLengths(histograms[table]);
+                contextBits += codedBits(histograms[table], tableLengths[table]);
+            }
+            model = new ContextModel(symbols, Arrays.copyOf(contexts, tables - 1), tableLengths);
+            long contextBytes = (contextBits + 7) / 8 + serializedSize(model, frequencies.length);
+            long plainBytes = (codedBits(rankFrequencies, rankLengths) + 7) / 8 + serializedSize(lengths);
+            if (contextBytes >= plainBytes) {
+                model = null;
+            }
+        }
+        probe.lap(CodecMetrics.Stage.TREE_BUILD);
+
+        // If no symbol was worth a table of its own, the block is written as a plain one, with the same codes compress would give it.
+        if (model == null) {
+            int[] codes = CanonicalCode.assignCodes(rankLengths);
+            probe.lap(CodecMetrics.Stage.CODE_ASSIGNMENT);
+
+            BitWriter writer = new BitWriter(length / 2);
+            for (char rank : ranked) {
+                writer.write(codes[rank], rankLengths[rank]);
+            }
+            byte[] packed = writer.toByteArray();
+            probe.lap(CodecMetrics.Stage.BIT_PACKING);
+            CodecMetrics.getInstance().addEncodedBlock(frequencies, length, writer.getBitLength());
+            return new Huffman(type, lengths, packed, writer.getBitLength(), length);
+        }
+
+        int[][] codes = new int[tables][];
+        for (int table = 0; table < tables; table++) {
+            codes[table] = CanonicalCode.assignCodes(tableLengths[table]);
+        }
+        byte[] following = model.buildTableMap();
+        probe.lap(CodecMetrics.Stage.CODE_ASSIGNMENT);
+
+        BitWriter writer = new BitWriter(length / 2);
+        int table = ContextModel.FALLBACK_TABLE;
+        for (char rank : ranked) {
+            writer.write(codes[table][rank], tableLengths[table][rank]);
+            table = following[rank] & 0xFF;
+        }
+        byte[] packed = writer.toByteArray();
+        probe.lap(CodecMetrics.Stage.BIT_PACKING);
+        CodecMetrics.getInstance().addEncodedBlock(frequencies, length, writer.getBitLength());
+        return new Huffman(type, model, packed, writer.getBitLength(), length);
+    }
+
+    static long codedBits(int[] frequencies, byte[] lengths) {
+        long bits = 0;
+        for (int symbol = 0; symbol < frequencies.length; symbol++) {
+            bits += (long) frequencies[symbol] * lengths[symbol];
+        }
+        return bits;
+    }
+
+    private static long serializedSize(byte[] lengths) {
+        CountingOutputStream counter = new CountingOutputStream(DISCARD);
+        try {
+            CanonicalCode.writeLengths(new DataOutputStream(counter), lengths);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return counter.getCount();
+    }
+
+    private static long serializedSize(ContextModel model, int alphabetSize) {
+        CountingOutputStream counter = new CountingOutputStream(DISCARD);
+        try {
+            model.write(new DataOutputStream(counter), alphabetSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return counter.getCount();
+    }
+
+    /**
+     * Lists the symbols that occur at least once.
+     *
+     * @param frequencies The number of times each symbol occurs, indexed by symbol.
+     * @return The symbols that occur, in ascending order.
+     */
+    private static char[] occurringSymbols(int[] frequencies) {
+        int count = 0;
+        for (int frequency : frequencies) {
+            if (frequency > 0) {
+                count++;
+            }
+        }
+        char[] symbols = new char[count];
+        count = 0;
+        for (int symbol = 0; symbol < frequencies.length; symbol++) {
+            if (frequencies[symbol] > 0) {
+                symbols[count++] = (char) symbol;
+            }
+        }
+        return symbols;
     }
 
     /**
-     * Takes the root node and constructs and returns a lookup table of each character and its corresponding Huffman code.
+     * Works out the index of each symbol in a list of symbols.
      *
-     * @param root The root node.
-     * @return The lookup table, a Map of Character : String.
+     * @param symbols The symbols, in ascending order.
+     * @param alphabetSize The number of symbols in the full alphabet.
+     * @return The index of each symbol in the list, indexed by symbol. Symbols that are not in the list get 0.
      */
-    private static Map<Character, String> buildLookupTable(Node root) {
-        Map<Character, String> lookupTable = new HashMap<>();
-        // Initial call to our recursive build function, with an initial empty string, and an empty lookup table.
-        recursivelyBuildLookupTable(root, "", lookupTable);
-        return lookupTable;
+    private static char[] rankSymbols(char[] symbols, int alphabetSize) {
+        char[] ranks = new char[alphabetSize];
+        for (int rank = 0; rank < symbols.length; rank++) {
+            ranks[symbols[rank]] = (char) rank;
+        }
+        return ranks;
     }
 
-    private static void recursivelyBuildLookupTable(Node node, String s, Map<Character, String> lookupTable) {
+    /**
+     * Counts how many times each character occurs in a block.
+     *
+     * @param data The array holding the characters to count.
+     * @param offset The index of the first character in the block.
+     * @param length The number of characters in the block.
+     * @return The number of times each character occurs, indexed by character.
+     */
+    public static int[] countFrequencies(char[] data, int offset, int length) {
         /*
-         In the case that our node is not a leaf, it means it is a parent node, and MUST have a left and right node,
-         so we should perform the recursive build function on each of these nodes.
+         Unlike bytes, characters are counted into a single table. Splitting them over interleaved tables needs a check on every character
+         for ones too big for the small tables, and on real text that costs more than the stalls it saves, which are rare outside long
+         runs of one character.
          */
-        if (!node.isLeaf()) {
-            /*
-            For the left node, we will add a '0' to the sequence, and for the right node, we will add a '1' to the sequence.
-             */
-            recursivelyBuildLookupTable(node.getLeft(), s + '0', lookupTable);
-            recursivelyBuildLookupTable(node.getRight(), s + '1', lookupTable);
-        } else {
-            /*
-             At this stage, we know that we have reached the leaf for this particular recursive lookup call (since we call the recursive function twice above,
-             it will continue to branch twice until it can't anymore, at which point we have reached a leaf and should put this in the lookup table.
-             Essentially, we want our lookup table to only ever add the leaf nodes and their corresponding Huffman codes.
-             */
-            lookupTable.put(node.getCharacter(), s);
+        int[] frequencies = new int[Main.SIZE];
+        for (int i = offset; i < offset + length; i++) {
+            frequencies[data[i]]++;
+        }
+        return frequencies;
+    }
+
+    /**
+     * Counts how many times each byte value occurs in a block.
+     *
+     * @param data The array holding the bytes to count.
+     * @param offset The index of the first byte in the block.
+     * @param length The number of bytes in the block.
+     * @return The number of times each byte value occurs, indexed by unsigned byte value.
+     */
+    public static int[] countFrequencies(byte[] data, int offset, int length) {
+        int[] frequencies = new int[BYTE_ALPHABET_SIZE];
+        countFrequencies(data, offset, length, new int[COUNT_TABLES * BYTE_ALPHABET_SIZE], frequencies);
+        return frequencies;
+    }
+
+    /**
+     * Counts how many times each byte value occurs in a block, into arrays that the caller keeps, so nothing is allocated.
+     *
+     * @param data The array holding the bytes to count.
+     * @param offset The index of the first byte in the block.
+     * @param length The number of bytes in the block.
+     * @param counts Room for the interleaved tables, of COUNT_TABLES * BYTE_ALPHABET_SIZE entries, which are cleared first.
+     * @param frequencies Where to put the number of times each byte value occurs, of BYTE_ALPHABET_SIZE entries.
+     */
+    static void countFrequencies(byte[] data, int offset, int length, int[] counts, int[] frequencies) {
+        Arrays.fill(counts, 0);
+        int end = offset + length;
+        int i = offset;
+        for (; i + COUNT_TABLES <= end; i += COUNT_TABLES) {
+            counts[data[i] & 0xFF]++;
+            counts[256 + (data[i + 1] & 0xFF)]++;
+            counts[512 + (data[i + 2] & 0xFF)]++;
+            counts[768 + (data[i + 3] & 0xFF)]++;
+            counts[1024 + (data[i + 4] & 0xFF)]++;
+            counts[1280 + (data[i + 5] & 0xFF)]++;
+            counts[1536 + (data[i + 6] & 0xFF)]++;
+            counts[1792 + (data[i + 7] & 0xFF)]++;
+        }
+        for (; i < end; i++) {
+            counts[data[i] & 0xFF]++;
         }
+        mergeCounts(counts, frequencies);
+    }
+
+    /**
+     * Counts how many times each byte value occurs from the buffer's position up to its limit, leaving the position where it was.
+     *
+     * @param data The buffer holding the bytes to count.
+     * @return The number of times each byte value occurs, indexed by unsigned byte value.
+     */
+    public static int[] countFrequencies(ByteBuffer data) {
+        int[] frequencies = new int[BYTE_ALPHABET_SIZE];
+        countFrequencies(data, new int[COUNT_TABLES * BYTE_ALPHABET_SIZE], frequencies);
+        return frequencies;
     }
 
     /**
-     * Using our lookup table and data, we will generate our encoded data, by going through each character, and looking up its Huffman code, before appending.
+     * Counts how many times each byte value occurs from the buffer's position up to its limit, into arrays that the caller keeps.
      *
-     * @param data The data to encode.
-     * @param lookupTable The lookup table that maps Character : String with Huffman code.
-     * @return The encoded string of bits.
+     * @param data The buffer holding the bytes to count.
+     * @param counts Room for the interleaved tables, of COUNT_TABLES * BYTE_ALPHABET_SIZE entries, which are cleared first.
+     * @param frequencies Where to put the number of times each byte value occurs, of BYTE_ALPHABET_SIZE entries.
      */
-    private static String generateEncodedData(String data, Map<Character, String> lookupTable) {
-        // Use StringBuilder to improve performance.
-        StringBuilder sb = new StringBuilder();
-        for (char character : data.toCharArray()) {
-            sb.append(lookupTable.get(character));
+    static void countFrequencies(ByteBuffer data, int[] counts, int[] frequencies) {
+        if (data.hasArray()) {
+            countFrequencies(data.array(), data.arrayOffset() + data.position(), data.remaining(), counts, frequencies);
+            return;
+        }
+        Arrays.fill(counts, 0);
+        int end = data.limit();
+        int i = data.position();
+        for (; i + COUNT_TABLES <= end; i += COUNT_TABLES) {
+            counts[data.get(i) & 0xFF]++;
+            counts[256 + (data.get(i + 1) & 0xFF)]++;
+            counts[512 + (data.get(i + 2) & 0xFF)]++;
+            counts[768 + (data.get(i + 3) & 0xFF)]++;
+            counts[1024 + (data.get(i + 4) & 0xFF)]++;
+            counts[1280 + (data.get(i + 5) & 0xFF)]++;
+            counts[1536 + (data.get(i + 6) & 0xFF)]++;
+            counts[1792 + (data.get(i + 7) & 0xFF)]++;
+        }
+        for (; i < end; i++) {
+            counts[data.get(i) & 0xFF]++;
+        }
+        mergeCounts(counts, frequencies);
+    }
+
+    // Adds the interleaved tables together.
+    private static void mergeCounts(int[] counts, int[] frequencies) {
+        for (int symbol = 0; symbol < BYTE_ALPHABET_SIZE; symbol++) {
+            int total = 0;
+            for (int table = 0; table < COUNT_TABLES; table++) {
+                total += counts[table * BYTE_ALPHABET_SIZE + symbol];
+            }
+            frequencies[symbol] = total;
+        }
+    }
+
+    /**
+     * Works out the code length of every symbol from how often each one occurs, with no code longer than MAX_CODE_LENGTH bits.
+     *
+     * @param frequencies The number of times each symbol occurs, indexed by symbol.
+     * @return The code length of each symbol, 0 for symbols that don't occur.
+     */
+    public static byte[] buildCodeLengths(int[] frequencies) {
+        return buildCodeLengths(frequencies, MAX_CODE_LENGTH);
+    }
+
+    /**
+     * Works out the code length of every symbol from how often each one occurs, with no code longer than maxLength bits.
+     *
+     * @param frequencies The number of times each symbol occurs, indexed by symbol.
+     * @param maxLength The longest code to allow, which must leave room for a code for every symbol that occurs.
+     * @return The code length of each symbol, 0 for symbols that don't occur.
+     */
+    public static byte[] buildCodeLengths(int[] frequencies, int maxLength) {
+        int n = 0;
+        for (int frequency : frequencies) {
+            if (frequency > 0) {
+                n++;
+            }
+        }
+        byte[] lengths = new byte[frequencies.length];
+        buildCodeLengths(frequencies, maxLength, lengths, new long[n], new long[n], new int[n]);
+        return lengths;
+    }
+
+    /**
+     * Works out code lengths like buildCodeLengths, into arrays that the caller keeps. Nothing is allocated unless the lengths have
+     * to be limited, which only happens for very skewed frequencies.
+     *
+     * @param frequencies The number of times each symbol occurs, indexed by symbol.
+     * @param maxLength The longest code length allowed, from 1 to CanonicalCode.MAX_LENGTH.
+     * @param lengths Where to put the code length of each symbol, as long as frequencies. It is cleared first.
+     * @param sorted Room for one entry per symbol that occurs.
+     * @param weights Room for one entry per symbol that occurs.
+     * @param depths Room for one entry per symbol that occurs.
+     */
+    static void buildCodeLengths(int[] frequencies, int maxLength, byte[] lengths, long[] sorted, long[] weights, int[] depths) {
+        if (maxLength < 1 || maxLength > CanonicalCode.MAX_LENGTH) {
+            throw new IllegalArgumentException("Maximum code length must be from 1-" + CanonicalCode.MAX_LENGTH + "!");
+        }
+        /*
+         Sort the symbols that occur by frequency, breaking ties by symbol so the lengths always come out the same. Each one is packed
+         into a long as (frequency << 32 | symbol), so sorting the longs sorts the symbols without creating an object per symbol.
+         */
+        int n = 0;
+        for (int symbol = 0; symbol < frequencies.length; symbol++) {
+            if (frequencies[symbol] > 0) {
+                sorted[n++] = ((long) frequencies[symbol] << 32) | symbol;
+            }
+        }
+        heapSort(sorted, n);
+
+        Arrays.fill(lengths, (byte) 0);
+        // An empty block has no codes at all, and a block of a single symbol still needs one bit per symbol to count them.
+        if (n == 0) {
+            return;
+        }
+        if (n == 1) {
+            lengths[(int) sorted[0]] = 1;
+            return;
+        }
+        if (n > 1L << maxLength) {
+            throw new IllegalArgumentException("Can't give " + n + " symbols codes of at most " + maxLength + " bits!");
+        }
+
+        for (int i = 0; i < n; i++) {
+            weights[i] = sorted[i] >>> 32;
+        }
+        int[] sortedLengths = depths;
+        minimumRedundancyLengths(weights, n, sortedLengths);
+        // The least frequent symbol always has the longest code, so only that one needs checking against the limit.
+        if (sortedLengths[0] > maxLength) {
+            long[] limited = new long[n];
+            for (int i = 0; i < n; i++) {
+                limited[i] = sorted[i] >>> 32;
+            }
+            sortedLengths = packageMerge(limited, maxLength);
+        }
+        for (int i = 0; i < n; i++) {
+            lengths[(int) sorted[i]] = (byte) sortedLengths[i];
+        }
+    }
+
+    /**
+     * Sorts the first n entries of an array into ascending order in place. Arrays.sort can allocate a work array when the entries
+     * already form a few ascending runs, which frequencies often do, so this is used instead to keep buildCodeLengths from allocating.
+     *
+     * @param values The array to sort.
+     * @param n The number of entries to sort.
+     */
+    private static void heapSort(long[] values, int n) {
+        for (int parent = n / 2 - 1; parent >= 0; parent--) {
+            siftDown(values, parent, n);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            long largest = values[0];
+            values[0] = values[end];
+            values[end] = largest;
+            siftDown(values, 0, end);
+        }
+    }
+
+    private static void siftDown(long[] values, int parent, int n) {
+        long value = values[parent];
+        int child;
+        while ((child = 2 * parent + 1) < n) {
+            if (child + 1 < n && values[child + 1] > values[child]) {
+                child++;
+            }
+            if (values[child] <= value) {
+                break;
+            }
+            values[parent] = values[child];
+            parent = child;
+        }
+        values[parent] = value;
+    }
+
+    /**
+     * Works out optimal code lengths for weights that are sorted smallest first, without building a tree. This is the in-place
+     * method of Moffat and Katajainen: the leaves and the merged nodes each form a queue that is already in order, so each merge only
+     * has to compare the fronts of the two, and the whole thing takes linear time.
+     *
+     * @param weights The weights, smallest first. These are overwritten.
+     * @param n The number of weights, at least 2.
+     * @param lengths Where to put the code length for each weight, in the same order.
+     */
+    private static void minimumRedundancyLengths(long[] weights, int n, int[] lengths) {
+        /*
+         First pass, left to right. weights[next] becomes the next merged node, and a node that is merged into a parent has its weight
+         replaced with the index of that parent. root is the front of the queue of merged nodes, and leaf is the front of the leaves.
+         */
+        weights[0] += weights[1];
+        int root = 0;
+        int leaf = 2;
+        for (int next = 1; next < n - 1; next++) {
+            if (leaf >= n || weights[root] < weights[leaf]) {
+                weights[next] = weights[root];
+                weights[root++] = next;
+            } else {
+                weights[next] = weights[leaf++];
+            }
+            if (leaf >= n || (root < next && weights[root] < weights[leaf])) {
+                weights[next] += weights[root];
+                weights[root++] = next;
+            } else {
+                weights[next] += weights[leaf++];
+            }
+        }
+
+        // Second pass, right to left, turning the parent of each merged node into its depth. The last node made is the root.
+        weights[n - 2] = 0;
+        for (int next = n - 3; next >= 0; next--) {
+            weights[next] = weights[(int) weights[next]] + 1;
+        }
+
+        /*
+         Third pass, right to left, handing out depths to the leaves. Every slot at a depth that isn't taken by a merged node is a leaf,
+         and the most frequent leaves get the shallowest slots.
+         */
+        int available = 1;
+        int used = 0;
+        int depth = 0;
+        root = n - 2;
+        int next = n - 1;
+        while (available > 0) {
+            while (root >= 0 && weights[root] == depth) {
+                used++;
+                root--;
+            }
+            while (available > used) {
+                lengths[next--] = depth;
+                available--;
+            }
+            available = 2 * used;
+            depth++;
+            used = 0;
+        }
+    }
+
+    /**
+     * Works out optimal code lengths that are no longer than maxLength, using the package-merge method. Only used when the plain
+     * Huffman code would be too long, which takes a very lopsided set of frequencies.
+     *
+     * @param weights The weights, smallest first.
+     * @param maxLength The longest code to allow.
+     * @return The code length for each weight, in the same order.
+     */
+    private static int[] packageMerge(long[] weights, int maxLength) {
+        int n = weights.length;
+        /*
+         Starting from the deepest level, which is just the leaves, each level above is the leaves merged with "packages" made by pairing
+         up neighbours from the level below. Only whether each item is a package needs remembering, to work back down afterwards.
+         */
+        boolean[][] isPackage = new boolean[maxLength][];
+        long[] level = weights.clone();
+        isPackage[maxLength - 1] = new boolean[n];
+        for (int depth = maxLength - 2; depth >= 0; depth--) {
+            int packages = level.length / 2;
+            long[] merged = new long[n + packages];
+            boolean[] kinds = new boolean[n + packages];
+            int leaf = 0;
+            int pack = 0;
+            for (int i = 0; i < merged.length; i++) {
+                long packageWeight = pack < packages ? level[2 * pack] + level[2 * pack + 1] : Long.MAX_VALUE;
+                if (leaf < n && weights[leaf] <= packageWeight) {
+                    merged[i] = weights[leaf++];
+                } else {
+                    merged[i] = packageWeight;
+                    kinds[i] = true;
+                    pack++;
+                }
+            }
+            level = merged;
+            isPackage[depth] = kinds;
+        }
+
+        /*
+         The cheapest 2n - 2 items of the top level make up the code. Each leaf among them adds one to that leaf's length, and each package
+         among them means two more items are taken from the level below. Leaves appear in weight order, so the leaves taken from any level
+         are always the first few.
+         */
+        int[] lengths = new int[n];
+        int take = 2 * n - 2;
+        for (int depth = 0; depth < maxLength && take > 0; depth++) {
+            int leaves = 0;
+            int packages = 0;
+            for (int i = 0; i < take; i++) {
+                if (isPackage[depth][i]) {
+                    packages++;
+                } else {
+                    leaves++;
+                }
+            }
+            for (int i = 0; i < leaves; i++) {
+                lengths[i]++;
+            }
+            take = 2 * packages;
         }
-        return sb.toString();
+        return lengths;
     }
 }
@@ -1,191 +1,474 @@
 package me.lukecs;
 
 import java.io.*;
-import java.nio.file.FileAlreadyExistsException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class FileUtilities {
     /*
-    Getting the initial raw input data
+    Compressing
      */
     /**
-     * Gets the raw input data from a file and returns a String.
+     * Compresses a file into a single compressed file next to it, with HuffmanFormat.EXTENSION appended to its name.
      *
      * @param path The absolute path as a string.
-     * @param name The file name to get the data from, including extension.
-     * @return The data read from the file.
+     * @param name The file name to compress, including extension.
+     * @param options The options to compress with.
      */
-    public static String getRawInputData(String path, String name) {
-        String data = null;
+    public static void compressFile(String path, String name, CodecOptions options) {
         try {
-            data = new String(Files.readAllBytes(Paths.get(path + "\\" + name)));
+            compressFile(Paths.get(path, name), Paths.get(path, name + HuffmanFormat.EXTENSION), options);
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1);
         }
-        return data;
     }
 
-    /*
-    Storing the decoded data
-     */
     /**
-     * Stores the decoded data to a file.
+     * Compresses one file into another.
      *
-     * @param data The data to store to a file.
-     * @param path The absolute path as a string.
-     * @param name The file name to write the data to, including extension.
+     * @param input The file to compress.
+     * @param output The file to write the compressed file format to, which is replaced if it already exists.
+     * @param options The options to compress with.
+     * @throws IOException If either file can't be read from or written to.
      */
-    public static void storeDecodedData(String data, String path, String name) {
-        try (FileOutputStream fos = new FileOutputStream(path + "\\" + name)) {
-            fos.write(data.getBytes());
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(1);
+    public static void compressFile(Path input, Path output, CodecOptions options) throws IOException {
+        try (InputStream in = options.isMemoryMapped() ? new MappedFileInputStream(input) : Files.newInputStream(input);
+             OutputStream out = options.isMemoryMapped() ? new MappedFileOutputStream(output) : Files.newOutputStream(output)) {
+            if (options.isAdaptive()) {
+                compressAdaptive(in, out);
+            } else {
+                compress(in, out, options);
+            }
         }
     }
 
-    /*
-    Storing
+    /**
+     * Compresses data a block at a time, so no more than one block of it is ever held in memory.
+     *
+     * @param in The data to compress.
+     * @param out The output to write the compressed file format to.
+     * @throws IOException If the input can't be read from or the output can't be written to.
      */
+    public static void compress(InputStream in, OutputStream out) throws IOException {
+        compress(in, out, 1);
+    }
+
     /**
-     * Stores the Huffman data (Huffman tree, padding data, and binary data) to some files.
+     * Compresses data a block at a time, encoding several blocks at once on different threads, but still writing them in order.
+     * Only a couple of blocks per thread are held in memory at once.
+     * Blocks that are text in the platform's default charset are encoded a character at a time. Anything else, including text that
+     * would not turn back into exactly the same bytes, is encoded a byte at a time, so every input comes back out unchanged.
      *
-     * @param huffman The Huffman object.
-     * @param path The absolute path as a string.
+     * @param in The data to compress.
+     * @param out The output to write the compressed file format to.
+     * @param threads The number of threads to compress blocks on.
+     * @throws IOException If the input can't be read from or the output can't be written to.
      */
-    public static void storeHuffmanEncodedResultToFile(Huffman huffman, String path) {
-        try {
-            Files.createDirectory(Paths.get(path + "\\encoded"));
-        } catch (FileAlreadyExistsException fe) {
-            //ignore
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(1);
-        }
-        storeTreeToFile(huffman.getRoot(), path);
-        storeDataToFile(BinaryString.getBinaryFromString(huffman.getEncodedData()), path);
-        storePaddingToFile(huffman.calculatePadding(), path);
+    public static void compress(InputStream in, OutputStream out, int threads) throws IOException {
+        compress(in, out, new CodecOptions().setThreads(threads));
     }
 
     /**
-     * Stores the Huffman tree to a file.
+     * Compresses data a block at a time, with the number of threads, the size of each block and the way it is coded taken from the
+     * options. When pipelined, the input is read ahead and the output written on threads of their own while blocks are encoded.
      *
-     * @param root The root node that represents the tree.
-     * @param path The absolute path as a string.
+     * @param in The data to compress.
+     * @param out The output to write the compressed file format to.
+     * @param options The options to compress with.
+     * @throws IOException If the input can't be read from or the output can't be written to.
      */
-    private static void storeTreeToFile(Node root, String path) {
-        try (FileOutputStream fos = new FileOutputStream(path + "\\encoded\\" + "data.huff")) {
-            ObjectOutputStream out = new ObjectOutputStream(fos);
-            out.writeObject(root);
-        } catch (IOException e) {
-            e.printStackTrace();
+    public static void compress(InputStream in, OutputStream out, CodecOptions options) throws IOException {
+        Charset charset = Charset.defaultCharset();
+        CharsetDecoder decoder = charset.newDecoder();
+        CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(out));
+        DataOutputStream dos = new DataOutputStream(counter);
+        HuffmanFormat.writeHeader(dos, charset, options.getTransforms());
+
+        // Blocks are written in the order they are submitted, so the length of each one can be queued up until it is written.
+        // When pipelined they are written on another thread, but the index and counter are only looked at again once it has finished.
+        BlockIndex index = new BlockIndex();
+        Queue<Integer> blockLengths = new ConcurrentLinkedQueue<>();
+        OrderedBlockExecutor.BlockWriter<Huffman> writer = result -> {
+            CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+            index.add(counter.getCount(), blockLengths.remove());
+            HuffmanFormat.writeBlock(dos, result);
+            probe.lap(CodecMetrics.Stage.WRITE);
+        };
+        int blockSize = options.getBlockSize();
+        try (OrderedBlockExecutor<Huffman> executor = newExecutor(options, writer)) {
+            if (in instanceof MappedFileInputStream) {
+                // The blocks of a mapped file are encoded straight out of the mapping, without being copied onto the heap first.
+                MappedFileInputStream mapped = (MappedFileInputStream) in;
+                ByteBuffer bytes;
+                while ((bytes = mapped.peek(blockSize)).hasRemaining()) {
+                    boolean endOfInput = bytes.remaining() == mapped.available();
+                    mapped.skip(submitBlock(executor, blockLengths, options, decoder, charset, bytes, endOfInput, null));
+                }
+            } else if (options.isPipelined()) {
+                submitPipelined(in, executor, blockLengths, options, decoder, charset);
+            } else {
+                byte[] block = new byte[blockSize];
+                int length = 0;
+                CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+                while ((length = readBlock(in, block, length)) > 0) {
+                    probe.lap(CodecMetrics.Stage.READ);
+                    int end = submitBlock(executor, blockLengths, options, decoder, charset, ByteBuffer.wrap(block, 0, length), length < block.length, null);
+                    // The block may still be being encoded after we move on, so the next one is read into a fresh array.
+                    byte[] full = block;
+                    block = new byte[blockSize];
+                    System.arraycopy(full, end, block, 0, length - end);
+                    length -= end;
+                    probe.skip();
+                }
+            }
+            executor.finish();
         }
+
+        HuffmanFormat.writeEnd(dos);
+        HuffmanFormat.writeIndex(dos, index, counter.getCount());
+        dos.flush();
+        CodecMetrics.getInstance().addBytes(index.getUncompressedLength(), counter.getCount());
     }
 
     /**
-     * Stores the binary data to a file.
+     * Compresses data in a single pass with the adaptive coder, which starts writing output straight away instead of after each block.
      *
-     * @param bytes The byte array that represents the encoded data in binary.
-     * @param path The absolute path as a string.
+     * @param in The data to compress.
+     * @param out The output to write the adaptively compressed stream to.
+     * @throws IOException If the input can't be read from or the output can't be written to.
      */
-    private static void storeDataToFile(byte[] bytes, String path) {
-        try (FileOutputStream fos = new FileOutputStream(path + "\\encoded\\" + "data.bin")) {
-            fos.write(bytes);
-        } catch (IOException e) {
-            e.printStackTrace();
+    public static void compressAdaptive(InputStream in, OutputStream out) throws IOException {
+        AdaptiveHuffmanOutputStream adaptive = new AdaptiveHuffmanOutputStream(new BufferedOutputStream(out));
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            adaptive.write(buffer, 0, read);
         }
+        adaptive.finish();
+        adaptive.flush();
     }
 
     /**
-     * Stores the amount of padding used to a file so that we can restore the data to original state.
+     * Submits blocks as a BlockReader reads them ahead on its own thread, reusing its buffers once each block has been encoded.
      *
-     * @param padding The amount of padding used.
-     * @param path The absolute path as a string.
+     * @param in The data to compress.
+     * @param executor The executor to encode the blocks on, which should write in the background.
+     * @param blockLengths The queue to add the number of bytes in each block to.
+     * @param options The options that say how big each block is and how it should be coded.
+     * @param decoder A decoder for the charset, which reports rather than replaces anything that isn't valid.
+     * @param charset The charset.
+     * @throws IOException If the input can't be read from, or a block failed to be written.
      */
-    private static void storePaddingToFile(byte padding, String path) {
-        try (FileOutputStream fos = new FileOutputStream(path + "\\encoded\\" + "data.pad")) {
-            fos.write(padding);
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static void submitPipelined(InputStream in, OrderedBlockExecutor<Huffman> executor, Queue<Integer> blockLengths, CodecOptions options,
+                                        CharsetDecoder decoder, Charset charset) throws IOException {
+        // Each buffer can be waiting to be taken, or have its block waiting for or being encoded.
+        int depth = options.getQueueDepth() + options.getThreads() + 1;
+        try (BlockReader reader = new BlockReader(in, options.getBlockSize(), depth)) {
+            byte[] carry = new byte[0];
+            BlockReader.Chunk chunk;
+            while ((chunk = reader.take()) != null) {
+                byte[] buffer = chunk.getBuffer();
+                int length = carry.length + chunk.getLength();
+                ByteBuffer bytes;
+                Runnable release;
+                if (carry.length <= BlockReader.HEADROOM) {
+                    // The bytes of a split character go in the headroom, right in front of the rest of the block.
+                    System.arraycopy(carry, 0, buffer, BlockReader.HEADROOM - carry.length, carry.length);
+                    bytes = ByteBuffer.wrap(buffer, BlockReader.HEADROOM - carry.length, length);
+                    // The buffer is only free once the block has been encoded and anything carried over has been copied out of it.
+                    AtomicInteger users = new AtomicInteger(2);
+                    release = () -> {
+                        if (users.decrementAndGet() == 0) {
+                            reader.recycle(buffer);
+                        }
+                    };
+                } else {
+                    byte[] joined = Arrays.copyOf(carry, length);
+                    System.arraycopy(buffer, BlockReader.HEADROOM, joined, carry.length, chunk.getLength());
+                    reader.recycle(buffer);
+                    bytes = ByteBuffer.wrap(joined);
+                    release = null;
+                }
+                int start = bytes.position();
+                int end = submitBlock(executor, blockLengths, options, decoder, charset, bytes, chunk.isLast(), release);
+                carry = Arrays.copyOfRange(bytes.array(), start + end, start + length);
+                if (release != null) {
+                    release.run();
+                }
+            }
+            // A character split across the end of a block that filled its buffer exactly only turns out to be incomplete now.
+            if (carry.length > 0) {
+                submitBlock(executor, blockLengths, options, decoder, charset, ByteBuffer.wrap(carry), true, null);
+            }
         }
     }
 
-    /*
-    Retrieving
+    /**
+     * Makes an executor that writes on the calling thread, or in the background when pipelining.
      */
+    private static <T> OrderedBlockExecutor<T> newExecutor(CodecOptions options, OrderedBlockExecutor.BlockWriter<T> writer) {
+        return options.isPipelined() ? new OrderedBlockExecutor<>(options.getThreads(), options.getQueueDepth(), writer)
+                : new OrderedBlockExecutor<>(options.getThreads(), writer);
+    }
+
     /**
-     * Gets the Huffman result from a file.
+     * Hands a block of bytes to the executor to be encoded, as text if it decodes cleanly and as bytes otherwise.
      *
-     * @param path The absolute path as a string.
-     * @return The Huffman object.
+     * @param executor The executor to encode the block on.
+     * @param blockLengths The queue to add the number of bytes encoded to, before the block is submitted.
+     * @param options The options that say how the block should be coded.
+     * @param decoder A decoder for the charset, which reports rather than replaces anything that isn't valid.
+     * @param charset The charset.
+     * @param bytes The bytes of the block, which must not change until the block has been encoded.
+     * @param endOfInput Whether there are no more bytes after these.
+     * @param encoded Run once the block has been encoded and its bytes are no longer needed, or null.
+     * @return The number of bytes that were encoded, which can be a few short of the whole block if a character is split across its end.
+     * @throws IOException If an earlier block failed to be written.
      */
-    public static Huffman getHuffmanEncodedResultFromFile(String path) {
-        Node root = getTreeFromFile(path);
-        String data = getDataFromFile(path);
-        return new Huffman(data, root);
+    private static int submitBlock(OrderedBlockExecutor<Huffman> executor, Queue<Integer> blockLengths, CodecOptions options,
+                                   CharsetDecoder decoder, Charset charset, ByteBuffer bytes, boolean endOfInput, Runnable encoded) throws IOException {
+        boolean contexts = options.isContextModeled();
+        int transforms = options.getTransforms();
+        int stride = options.getSampleStride();
+        boolean interleaved = options.isInterleaved();
+        if (transforms != 0) {
+            // Transforms work on bytes, so a transformed block is never decoded as text first.
+            ByteBuffer block = bytes.duplicate();
+            blockLengths.add(block.remaining());
+            submit(executor, () -> BlockTransform.compress(block, transforms, contexts), encoded);
+            return block.remaining();
+        }
+        ByteBuffer binary = bytes.duplicate();
+        CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+        CharBuffer text = decodeText(decoder, charset, bytes, endOfInput);
+        probe.lap(CodecMetrics.Stage.CHARSET);
+        if (text != null) {
+            // A character can be split across the end of the block, in which case its first few bytes are carried over to the next.
+            int consumed = bytes.position() - binary.position();
+            blockLengths.add(consumed);
+            submit(executor, () -> contexts ? Encoder.compressWithContexts(text.array(), 0, text.limit())
+                    : interleaved ? Encoder.compressInterleaved(text.array(), 0, text.limit())
+                    : Encoder.compressSampled(text.array(), 0, text.limit(), stride), encoded);
+            return consumed;
+        }
+        blockLengths.add(binary.remaining());
+        submit(executor, () -> contexts ? Encoder.compressWithContexts(binary)
+                : interleaved ? Encoder.compressInterleaved(binary)
+                : Encoder.compressSampled(binary, stride), encoded);
+        return binary.remaining();
+    }
+
+    private static void submit(OrderedBlockExecutor<Huffman> executor, Callable<Huffman> task, Runnable encoded) throws IOException {
+        if (encoded == null) {
+            executor.submit(task);
+            return;
+        }
+        executor.submit(() -> {
+            try {
+                return task.call();
+            } finally {
+                encoded.run();
+            }
+        });
     }
 
     /**
-     * Gets the Huffman tree from a file.
+     * Tries to decode a block of bytes as text.
      *
-     * @param path The absolute path as a string.
-     * @return The root node.
+     * @param decoder A decoder for the charset, which reports rather than replaces anything that isn't valid.
+     * @param charset The charset.
+     * @param bytes The bytes to decode. On success, the position is left after the last complete character.
+     * @param endOfInput Whether there are no more bytes after these, so that an incomplete character at the end is not valid.
+     * @return The decoded text, or null if the bytes are not text that would turn back into exactly the same bytes.
      */
-    private static Node getTreeFromFile(String path) {
-        Node root = null;
-        try {
-            FileInputStream fis = new FileInputStream(path + "\\encoded\\" + "data.huff");
-            ObjectInputStream ois = new ObjectInputStream(fis);
-            root = (Node) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+    private static CharBuffer decodeText(CharsetDecoder decoder, Charset charset, ByteBuffer bytes, boolean endOfInput) {
+        int start = bytes.position();
+        CharBuffer chars = CharBuffer.allocate((int) (bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1);
+        decoder.reset();
+        CoderResult result = decoder.decode(bytes, chars, endOfInput);
+        if (!result.isError() && endOfInput) {
+            result = decoder.flush(chars);
+        }
+        if (result.isError() || bytes.position() == start) {
+            return null;
         }
+        chars.flip();
 
-        return root;
+        // NUL characters almost never turn up in real text, so take one as a sign of binary data.
+        for (int i = 0; i < chars.limit(); i++) {
+            if (chars.get(i) == '\0') {
+                return null;
+            }
+        }
+
+        // Some charsets have more than one way of writing the same character, so check that the text really does turn back into the same bytes.
+        ByteBuffer encoded = charset.encode(chars.duplicate());
+        ByteBuffer original = bytes.duplicate();
+        original.limit(bytes.position());
+        original.position(start);
+        if (!encoded.equals(original)) {
+            return null;
+        }
+        return chars;
+    }
 
+    /**
+     * Reads bytes until the block is full or the input runs out.
+     *
+     * @param in The input to read from.
+     * @param block The block to fill.
+     * @param length The number of bytes already at the start of the block.
+     * @return The number of bytes in the block, which is only less than the block size at the end of the input.
+     * @throws IOException If the input can't be read from.
+     */
+    private static int readBlock(InputStream in, byte[] block, int length) throws IOException {
+        int read;
+        while (length < block.length && (read = in.read(block, length, block.length - length)) != -1) {
+            length += read;
+        }
+        return length;
     }
 
+    /*
+    Decompressing
+     */
     /**
-     * Gets the data from a file, and calls a method to convert from binary to string, before removing padding.
+     * Decompresses a compressed file into another file in the same directory.
      *
      * @param path The absolute path as a string.
-     * @return The data as a string.
+     * @param name The compressed file name, including extension.
+     * @param outputName The file name to write the decompressed data to, including extension.
+     * @param options The options to decompress with.
      */
-    private static String getDataFromFile(String path) {
-        byte[] bytes = null;
-        byte padding = 0;
+    public static void decompressFile(String path, String name, String outputName, CodecOptions options) {
         try {
-            bytes = Files.readAllBytes(Paths.get(path + "\\encoded\\" + "data.bin"));
-            padding = getPaddingFromFile(path);
+            decompressFile(Paths.get(path, name), Paths.get(path, outputName), options);
         } catch (IOException e) {
             e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Decompresses one file into another.
+     *
+     * @param input The compressed file.
+     * @param output The file to write the decompressed data to, which is replaced if it already exists.
+     * @param options The options to decompress with.
+     * @throws IOException If either file can't be read from or written to, or the compressed file is not valid.
+     */
+    public static void decompressFile(Path input, Path output, CodecOptions options) throws IOException {
+        // Compressed blocks are copied out of a mapping as they are read, since they need checking before they are decoded anyway.
+        try (InputStream in = options.isMemoryMapped() ? new MappedFileInputStream(input) : Files.newInputStream(input);
+             OutputStream out = options.isMemoryMapped() ? new MappedFileOutputStream(output) : Files.newOutputStream(output)) {
+            decompress(in, out, options);
         }
+    }
 
-        if (bytes != null) {
-            return BinaryString.removePadding(BinaryString.getStringFromBinary(bytes), padding);
+    /**
+     * Decompresses the compressed file format a block at a time, so no more than one block of it is ever held in memory.
+     *
+     * @param in The input to read the compressed file format from.
+     * @param out The output to write the decompressed data to.
+     * @throws IOException If the input can't be read from, is not valid, or the output can't be written to.
+     */
+    public static void decompress(InputStream in, OutputStream out) throws IOException {
+        decompress(in, out, 1);
+    }
+
+    /**
+     * Decompresses the compressed file format a block at a time, decoding several blocks at once on different threads, but still
+     * writing them in order. Only a couple of blocks per thread are held in memory at once.
+     *
+     * @param in The input to read the compressed file format from.
+     * @param out The output to write the decompressed data to.
+     * @param threads The number of threads to decompress blocks on.
+     * @throws IOException If the input can't be read from, is not valid, or the output can't be written to.
+     */
+    public static void decompress(InputStream in, OutputStream out, int threads) throws IOException {
+        decompress(in, out, new CodecOptions().setThreads(threads));
+    }
+
+    /**
+     * Decompresses the compressed file format a block at a time, with the number of threads taken from the options. When pipelined,
+     * the output is written on a thread of its own while the next blocks are read and decoded.
+     *
+     * @param in The input to read the compressed file format from.
+     * @param out The output to write the decompressed data to.
+     * @param options The options to decompress with.
+     * @throws IOException If the input can't be read from, is not valid, or the output can't be written to.
+     */
+    public static void decompress(InputStream in, OutputStream out, CodecOptions options) throws IOException {
+        CountingInputStream counter = new CountingInputStream(in);
+        BufferedInputStream buffered = new BufferedInputStream(counter);
+        DataInputStream dis = new DataInputStream(buffered);
+        // An adaptively compressed stream has its own magic number, and can only be decoded in one pass.
+        buffered.mark(Integer.BYTES);
+        if (dis.readInt() == HuffmanFormat.ADAPTIVE_MAGIC) {
+            buffered.reset();
+            decompressAdaptive(buffered, out);
+            return;
         }
+        buffered.reset();
+        Charset charset = HuffmanFormat.readHeader(dis);
 
-        return null;
+        long[] written = new long[1];
+        OrderedBlockExecutor.BlockWriter<byte[]> writer = decoded -> {
+            CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+            out.write(decoded);
+            written[0] += decoded.length;
+            probe.lap(CodecMetrics.Stage.WRITE);
+        };
+        try (OrderedBlockExecutor<byte[]> executor = newExecutor(options, writer)) {
+            CodecMetrics.Probe probe = CodecMetrics.getInstance().start();
+            Huffman block;
+            while ((block = HuffmanFormat.readBlock(dis)) != null) {
+                probe.lap(CodecMetrics.Stage.READ);
+                Huffman next = block;
+                executor.submit(() -> decodeBlock(next, charset));
+                probe.skip();
+            }
+            executor.finish();
+        }
+        out.flush();
+        // The index after the end marker is never read, so only the blocks count towards the compressed bytes.
+        CodecMetrics.getInstance().addBytes(written[0], counter.getCount() - buffered.available());
     }
 
     /**
-     * Gets the padding from a file.
+     * Decompresses a stream that was compressed in a single pass by the adaptive coder.
      *
-     * @param path The absolute path as a string.
-     * @return The padding.
+     * @param in The input to read the adaptively compressed stream from.
+     * @param out The output to write the decompressed data to.
+     * @throws IOException If the input can't be read from, is not valid, or the output can't be written to.
      */
-    private static byte getPaddingFromFile(String path) {
-        byte padding = 0;
+    public static void decompressAdaptive(InputStream in, OutputStream out) throws IOException {
+        AdaptiveHuffmanInputStream adaptive = new AdaptiveHuffmanInputStream(in);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = adaptive.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        out.flush();
+    }
 
+    private static byte[] decodeBlock(Huffman block, Charset charset) throws IOException {
         try {
-            String data = new String(Files.readAllBytes(Paths.get(path + "\\encoded\\" + "data.pad")));
-            padding = (byte) data.toCharArray()[0];
-        } catch (IOException e) {
-            e.printStackTrace();
+            return Decoder.decompressToByteArray(block, charset);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Block could not be decoded, the file is corrupt!", e);
         }
-
-        return padding;
     }
 }
@@ -1,55 +1,297 @@
 package me.lukecs;
 
 public class Huffman {
-    private final String encodedData;
-    private final Node root;
+    /**
+     * The number of bitstreams that the symbols of an interleaved block are split across.
+     */
+    public static final int INTERLEAVED_STREAMS = 4;
+
+    private final BlockType type;
+    private final byte[] codeLengths;
+    private final ContextModel contextModel;
+    private final byte[] data;
+    private final long bitLength;
+    private final long[] streamBitLengths;
+    private final int symbolCount;
+    private final int transforms;
+    private final int transformIndex;
+    private final boolean stored;
+    private final int runSymbol;
+
+    /**
+     * A Huffman object should have the type of data that was encoded, the code length of each character, which is all that is needed to
+     * rebuild the canonical Huffman codes, as well as the encoded data (packed bits, most significant bit first), the number of meaningful
+     * bits in that data, and the number of characters it decodes to.
+     *
+     * @param type Whether the symbols that were encoded are characters of text or bytes of binary data.
+     * @param codeLengths The code length of each character, 0 if the character does not occur.
+     * @param data The encoded data, packed into bytes.
+     * @param bitLength The number of bits of encoded data, excluding padding.
+     * @param symbolCount The number of characters that were encoded.
+     */
+    public Huffman(BlockType type, byte[] codeLengths, byte[] data, long bitLength, int symbolCount) {
+        this.type = type;
+        this.codeLengths = codeLengths;
+        this.contextModel = null;
+        this.data = data;
+        this.bitLength = bitLength;
+        this.streamBitLengths = null;
+        this.symbolCount = symbolCount;
+        this.transforms = 0;
+        this.transformIndex = 0;
+        this.stored = false;
+        this.runSymbol = -1;
+    }
+
+    /**
+     * A context modelled Huffman object has a code table for each of the symbols that come before others often enough to be worth one,
+     * instead of a single table for the whole block.
+     *
+     * @param type Whether the symbols that were encoded are characters of text or bytes of binary data.
+     * @param contextModel The code tables, and which symbols each one follows.
+     * @param data The encoded data, packed into bytes.
+     * @param bitLength The number of bits of encoded data, excluding padding.
+     * @param symbolCount The number of characters that were encoded.
+     */
+    public Huffman(BlockType type, ContextModel contextModel, byte[] data, long bitLength, int symbolCount) {
+        this.type = type;
+        this.codeLengths = null;
+        this.contextModel = contextModel;
+        this.data = data;
+        this.bitLength = bitLength;
+        this.streamBitLengths = null;
+        this.symbolCount = symbolCount;
+        this.transforms = 0;
+        this.transformIndex = 0;
+        this.stored = false;
+        this.runSymbol = -1;
+    }
 
     /**
-     * A Huffman object should have the encoded data (a String of bits), as well as the root node that holds the Huffman tree.
+     * An interleaved Huffman object has its symbols split into INTERLEAVED_STREAMS runs, see streamStart, each coded into a bitstream
+     * of its own with the same code table. The streams are padded to whole bytes and stored one after the other, so that a decoder can
+     * work through all of them at once.
      *
-     * @param encodedData The encoded data.
-     * @param root The root node.
+     * @param type Whether the symbols that were encoded are characters of text or bytes of binary data.
+     * @param codeLengths The code length of each character, 0 if the character does not occur.
+     * @param data The encoded streams, each packed into bytes, one after the other.
+     * @param streamBitLengths The number of bits in each stream, excluding padding.
+     * @param symbolCount The number of characters that were encoded.
      */
-    public Huffman(String encodedData, Node root) {
-        this.encodedData = encodedData;
-        this.root = root;
+    public Huffman(BlockType type, byte[] codeLengths, byte[] data, long[] streamBitLengths, int symbolCount) {
+        if (streamBitLengths.length != INTERLEAVED_STREAMS) {
+            throw new IllegalArgumentException("An interleaved block must have " + INTERLEAVED_STREAMS + " streams!");
+        }
+        long bitLength = 0;
+        for (long streamBitLength : streamBitLengths) {
+            bitLength += streamBitLength;
+        }
+        this.type = type;
+        this.codeLengths = codeLengths;
+        this.contextModel = null;
+        this.data = data;
+        this.bitLength = bitLength;
+        this.streamBitLengths = streamBitLengths;
+        this.symbolCount = symbolCount;
+        this.transforms = 0;
+        this.transformIndex = 0;
+        this.stored = false;
+        this.runSymbol = -1;
+    }
+
+    private Huffman(Huffman encoded, int transforms, int transformIndex) {
+        this.type = encoded.type;
+        this.codeLengths = encoded.codeLengths;
+        this.contextModel = encoded.contextModel;
+        this.data = encoded.data;
+        this.bitLength = encoded.bitLength;
+        this.streamBitLengths = encoded.streamBitLengths;
+        this.symbolCount = encoded.symbolCount;
+        this.transforms = transforms;
+        this.transformIndex = transformIndex;
+        this.stored = encoded.stored;
+        this.runSymbol = encoded.runSymbol;
+    }
+
+    private Huffman(BlockType type, byte[] data, int symbolCount, boolean stored, int runSymbol) {
+        this.type = type;
+        this.codeLengths = null;
+        this.contextModel = null;
+        this.data = data;
+        this.bitLength = (long) data.length * Byte.SIZE;
+        this.streamBitLengths = null;
+        this.symbolCount = symbolCount;
+        this.transforms = 0;
+        this.transformIndex = 0;
+        this.stored = stored;
+        this.runSymbol = runSymbol;
     }
 
     /**
-     * Returns the root node.
+     * Makes a stored block, which holds binary data exactly as it was, for data that Huffman coding would barely make smaller. Decoding
+     * it is just a copy.
      *
-     * @return The root node.
+     * @param data The bytes of the block.
+     * @return The stored block.
      */
-    public Node getRoot() {
-        return root;
+    public static Huffman stored(byte[] data) {
+        return new Huffman(BlockType.BINARY, data, data.length, true, -1);
+    }
+
+    /**
+     * Makes a run block, which is a single symbol repeated, so it needs no code table or encoded data at all.
+     *
+     * @param type Whether the symbol is a character of text or a byte of binary data.
+     * @param symbol The symbol.
+     * @param count The number of times it is repeated.
+     * @return The run block.
+     */
+    public static Huffman run(BlockType type, char symbol, int count) {
+        if (type == BlockType.BINARY && symbol >= Encoder.BYTE_ALPHABET_SIZE) {
+            throw new IllegalArgumentException("Binary data can only repeat a byte!");
+        }
+        return new Huffman(type, new byte[0], count, false, symbol);
+    }
+
+    /**
+     * Returns a copy of this block that records the transforms its symbols went through before they were encoded, see BlockTransform.
+     *
+     * @param transforms The transforms that were applied.
+     * @param transformIndex The row of the original data in the Burrows-Wheeler sort, or 0 if BWT was not applied.
+     * @return The block, with its transforms.
+     */
+    public Huffman withTransforms(int transforms, int transformIndex) {
+        return new Huffman(this, transforms, transformIndex);
+    }
+
+    /**
+     * Returns the type of data that was encoded.
+     *
+     * @return The block type.
+     */
+    public BlockType getType() {
+        return type;
+    }
+
+    /**
+     * Returns whether the block holds its bytes as they were, rather than Huffman coded.
+     *
+     * @return Whether the block is stored.
+     */
+    public boolean isStored() {
+        return stored;
+    }
+
+    /**
+     * Returns whether the block is a single symbol repeated, with no code table or encoded data.
+     *
+     * @return Whether the block is a run.
+     */
+    public boolean isRun() {
+        return runSymbol >= 0;
+    }
+
+    /**
+     * Returns the symbol that a run block repeats.
+     *
+     * @return The symbol, which is only meaningful if the block is a run.
+     */
+    public char getRunSymbol() {
+        return (char) runSymbol;
+    }
+
+    /**
+     * Returns the code lengths.
+     *
+     * @return The code length of each character, or null if the block is context modelled, stored or a run.
+     */
+    public byte[] getCodeLengths() {
+        return codeLengths;
+    }
+
+    /**
+     * Returns the code tables of a context modelled block.
+     *
+     * @return The context model, or null if the block has a single code table.
+     */
+    public ContextModel getContextModel() {
+        return contextModel;
+    }
+
+    /**
+     * Returns the transforms that the symbols went through before they were encoded.
+     *
+     * @return The transforms, 0 if there were none.
+     */
+    public int getTransforms() {
+        return transforms;
+    }
+
+    /**
+     * Returns the row of the original data in the Burrows-Wheeler sort, which is needed to undo it.
+     *
+     * @return The row, or 0 if BWT was not applied.
+     */
+    public int getTransformIndex() {
+        return transformIndex;
     }
 
     /**
      * Returns the encoded data.
      *
-     * @return The encoded data (as a String).
+     * @return The encoded data (as packed bytes).
      */
-    public String getEncodedData() {
-        return encodedData;
+    public byte[] getData() {
+        return data;
     }
 
     /**
-     * Calculate the padding, which must be a number from 0-7. This is the difference in length of the encoded data and the number of
-     * additional characters required for length % 8 to equal 0.
+     * Returns the number of bits of encoded data.
+     *
+     * @return The number of bits, excluding padding, summed over every stream of an interleaved block.
+     */
+    public long getBitLength() {
+        return bitLength;
+    }
+
+    /**
+     * Returns the number of bits in each stream of an interleaved block.
+     *
+     * @return The number of bits in each stream, excluding padding, or null if the block is a single stream.
+     */
+    public long[] getStreamBitLengths() {
+        return streamBitLengths;
+    }
+
+    /**
+     * Works out where one stream's symbols start in an interleaved block. The symbols are split into runs of equal length, apart from
+     * the last, which is shorter if they don't divide evenly.
+     *
+     * @param stream The stream, from 0 to INTERLEAVED_STREAMS, where INTERLEAVED_STREAMS gives the end of the last stream.
+     * @param symbolCount The number of symbols in the block.
+     * @return The index of the stream's first symbol.
+     */
+    public static int streamStart(int stream, int symbolCount) {
+        int perStream = (int) (((long) symbolCount + INTERLEAVED_STREAMS - 1) / INTERLEAVED_STREAMS);
+        return (int) Math.min((long) stream * perStream, symbolCount);
+    }
+
+    /**
+     * Returns the number of characters that were encoded.
+     *
+     * @return The number of characters.
+     */
+    public int getSymbolCount() {
+        return symbolCount;
+    }
+
+    /**
+     * Calculate the padding, which must be a number from 0-7. This is the number of additional bits required for the bit length to be
+     * a whole number of bytes.
      *
      * @return The number of bits of padding.
      */
     public byte calculatePadding() {
-        int length = encodedData.length();
-        if (length % 8 == 0) {
-            return 0;
-        }
-        else {
-            while (length % 8 != 0) {
-                length++;
-            }
-        }
-        return (byte) (length - encodedData.length());
-
+        return (byte) ((8 - bitLength % 8) % 8);
     }
 }
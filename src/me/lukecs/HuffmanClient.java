@@ -0,0 +1,107 @@
+package me.lukecs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+public class HuffmanClient implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * A HuffmanClient sends requests to a HuffmanServer running on this machine, over one connection that is kept open between them.
+     *
+     * @param port The port the server is listening on.
+     * @throws IOException If the server can't be connected to.
+     */
+    public HuffmanClient(int port) throws IOException {
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Compresses data into the compressed file format.
+     *
+     * @param data The data to compress.
+     * @return The compressed file format.
+     * @throws IOException If the server can't be reached, or fails to compress the data.
+     */
+    public byte[] compress(byte[] data) throws IOException {
+        return request(HuffmanProtocol.COMPRESS, null, data);
+    }
+
+    /**
+     * Decompresses data in the compressed file format.
+     *
+     * @param data The compressed file format.
+     * @return The decompressed data.
+     * @throws IOException If the server can't be reached, or the data is not valid.
+     */
+    public byte[] decompress(byte[] data) throws IOException {
+        return request(HuffmanProtocol.DECOMPRESS, null, data);
+    }
+
+    /**
+     * Compresses a message against a dictionary that the server has loaded.
+     *
+     * @param dictionaryId The ID of the dictionary.
+     * @param message The message.
+     * @return The compressed message.
+     * @throws IOException If the server can't be reached, or doesn't have the dictionary.
+     */
+    public byte[] compress(int dictionaryId, byte[] message) throws IOException {
+        return request(HuffmanProtocol.COMPRESS_WITH_DICTIONARY, dictionaryId, message);
+    }
+
+    /**
+     * Decompresses a message that was compressed against a dictionary that the server has loaded.
+     *
+     * @param dictionaryId The ID of the dictionary.
+     * @param message The compressed message.
+     * @return The message.
+     * @throws IOException If the server can't be reached, doesn't have the dictionary, or the message is not valid.
+     */
+    public byte[] decompress(int dictionaryId, byte[] message) throws IOException {
+        return request(HuffmanProtocol.DECOMPRESS_WITH_DICTIONARY, dictionaryId, message);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private synchronized byte[] request(byte operation, Integer dictionaryId, byte[] payload) throws IOException {
+        int length = 1 + (dictionaryId == null ? 0 : Integer.BYTES) + payload.length;
+        if (length > HuffmanProtocol.MAX_FRAME_LENGTH) {
+            throw new IOException("Request is too big to send in one frame!");
+        }
+        out.writeInt(length);
+        out.writeByte(operation);
+        if (dictionaryId != null) {
+            out.writeInt(dictionaryId);
+        }
+        out.write(payload);
+        out.flush();
+
+        int responseLength = in.readInt();
+        if (responseLength < 1 || responseLength > HuffmanProtocol.MAX_FRAME_LENGTH) {
+            throw new IOException("Response has an invalid length!");
+        }
+        byte status = in.readByte();
+        byte[] result = new byte[responseLength - 1];
+        in.readFully(result);
+        if (status != HuffmanProtocol.OK) {
+            throw new IOException("Server could not carry out the request: " + new String(result, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+}
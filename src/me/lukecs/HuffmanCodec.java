@@ -0,0 +1,336 @@
+package me.lukecs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+public class HuffmanCodec {
+    /**
+     * The most bytes compress adds on top of the bytes it was given: a marker, the number of bytes, the number of bits and a checksum.
+     * A block is only Huffman coded when its code table and encoded data together take fewer bytes than the original.
+     */
+    public static final int MAX_OVERHEAD = 1 + Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    // Comfortably more than the longest table writeLengths can write for BYTE_ALPHABET_SIZE symbols, which is under 800 bytes.
+    private static final int MAX_TABLE_SIZE = 1024;
+
+    private static final int MIN_PAIRED_BLOCK = 4 << DecodingTable.PRIMARY_BITS;
+
+    private final int[] counts = new int[Encoder.COUNT_TABLES * Encoder.BYTE_ALPHABET_SIZE];
+    private final int[] frequencies = new int[Encoder.BYTE_ALPHABET_SIZE];
+    private final byte[] lengths = new byte[Encoder.BYTE_ALPHABET_SIZE];
+    private final long[] sorted = new long[Encoder.BYTE_ALPHABET_SIZE];
+    private final long[] weights = new long[Encoder.BYTE_ALPHABET_SIZE];
+    private final int[] depths = new int[Encoder.BYTE_ALPHABET_SIZE];
+    private final int[] codes = new int[Encoder.BYTE_ALPHABET_SIZE];
+    private final int[] lengthCounts = new int[CanonicalCode.MAX_LENGTH + 1];
+    private final long[] nextCode = new long[CanonicalCode.MAX_LENGTH + 1];
+    private final ByteBuffer table = ByteBuffer.allocate(MAX_TABLE_SIZE);
+    private final DataOutputStream tableOut = new DataOutputStream(new BufferOutputStream(table));
+    private final BufferInputStream source = new BufferInputStream();
+    private final DataInputStream tableIn = new DataInputStream(source);
+    private final BitWriter writer = new BitWriter(0);
+    private final DecodingTable decodingTable = new DecodingTable();
+    private final BitReader reader = new BitReader(new byte[0], 0);
+    private final CRC32 crc = new CRC32();
+    private byte[] packed = new byte[0];
+    private byte[] decoded = new byte[0];
+
+    /**
+     * A HuffmanCodec owns every array that coding a block of bytes needs, and keeps them from one call to the next. The arrays that
+     * depend on the block size grow to fit the biggest block seen so far and are then reused, so once the codec has seen blocks as big
+     * as it is going to, compress and decompress allocate nothing at all. That suits servers coding lots of small messages, where the
+     * Encoder and Decoder would spend longer making garbage than coding. Stage timings aren't recorded, since each one needs a probe,
+     * and the other metrics are only worked out while they are enabled.
+     */
+    public HuffmanCodec() {
+    }
+
+    /**
+     * Returns the most bytes that compress can write for a block, which is how much room the buffer it writes to must have.
+     *
+     * @param length The number of bytes in the block.
+     * @return The most bytes the compressed block can take.
+     */
+    public static int maxCompressedLength(int length) {
+        if (length < 0 || length > Integer.MAX_VALUE - MAX_OVERHEAD) {
+            throw new IllegalArgumentException("Block length must be from 0-" + (Integer.MAX_VALUE - MAX_OVERHEAD) + "!");
+        }
+        return length + MAX_OVERHEAD;
+    }
+
+    /**
+     * Compresses the bytes from src's position up to its limit into one block, written at dst's position in the same layout as a
+     * binary block of a compressed file, see HuffmanFormat. Like the Encoder, a block of one repeated byte is written as a run, and a
+     * block that Huffman coding would barely shrink is stored as it is. Both buffers' positions are moved past the bytes used.
+     * A HuffmanCodec is not thread safe, so each thread should have its own.
+     *
+     * @param src The bytes to compress.
+     * @param dst The buffer to write the block to, with at least maxCompressedLength(src.remaining()) bytes remaining.
+     * @return The number of bytes written to dst.
+     * @throws BufferOverflowException If dst doesn't have room for the biggest block the bytes could take, in which case neither
+     *                                 buffer is changed.
+     */
+    public int compress(ByteBuffer src, ByteBuffer dst) {
+        int length = src.remaining();
+        if (dst.remaining() < maxCompressedLength(length)) {
+            throw new BufferOverflowException();
+        }
+        int start = dst.position();
+        CodecMetrics metrics = CodecMetrics.getInstance();
+        Encoder.countFrequencies(src, counts, frequencies);
+
+        int symbol = runSymbol(length);
+        if (symbol >= 0) {
+            dst.put((byte) HuffmanFormat.RUN_BINARY_BLOCK_MARKER);
+            dst.putInt(length);
+            dst.putChar((char) symbol);
+            src.position(src.limit());
+            if (metrics.isEnabled()) {
+                metrics.addEncodedBlock(frequencies, length, 0);
+                metrics.addRunBlock();
+                metrics.addBytes(length, dst.position() - start);
+            }
+            return dst.position() - start;
+        }
+
+        Encoder.buildCodeLengths(frequencies, Encoder.MAX_CODE_LENGTH, lengths, sorted, weights, depths);
+        table.clear();
+        try {
+            CanonicalCode.writeLengths(tableOut, lengths);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        table.flip();
+
+        // The same rule as the Encoder, see Encoder.MIN_GAIN_SHIFT.
+        long raw = (long) length * Byte.SIZE;
+        if (Encoder.codedBits(frequencies, lengths) + Byte.SIZE * table.remaining() > raw - (raw >> Encoder.MIN_GAIN_SHIFT)) {
+            dst.put((byte) HuffmanFormat.STORED_BLOCK_MARKER);
+            dst.putInt(length);
+            int dataStart = dst.position();
+            dst.put(src);
+            dst.putInt(checksum(dst, dataStart));
+            if (metrics.isEnabled()) {
+                metrics.addEncodedBlock(frequencies, length, raw);
+                metrics.addStoredBlock();
+                metrics.addBytes(length, dst.position() - start);
+            }
+            return dst.position() - start;
+        }
+
+        CanonicalCode.assignCodes(lengths, codes, lengthCounts, nextCode);
+        writer.reset();
+        if (src.hasArray()) {
+            byte[] data = src.array();
+            for (int i = src.arrayOffset() + src.position(), end = src.arrayOffset() + src.limit(); i < end; i++) {
+                int b = data[i] & 0xFF;
+                writer.write(codes[b], lengths[b]);
+            }
+        } else {
+            for (int i = src.position(), end = src.limit(); i < end; i++) {
+                int b = src.get(i) & 0xFF;
+                writer.write(codes[b], lengths[b]);
+            }
+        }
+        src.position(src.limit());
+
+        dst.put((byte) HuffmanFormat.BINARY_BLOCK_MARKER);
+        dst.putInt(length);
+        dst.put(table);
+        dst.putLong(writer.getBitLength());
+        int dataStart = dst.position();
+        writer.writeTo(dst);
+        dst.putInt(checksum(dst, dataStart));
+        // Working out the entropy takes a logarithm per symbol, which is a lot to pay on a small message when nobody is counting.
+        if (metrics.isEnabled()) {
+            metrics.addEncodedBlock(frequencies, length, writer.getBitLength());
+            metrics.addBytes(length, dst.position() - start);
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * Decompresses one block written by compress, or a binary, stored or run block read from a compressed file, starting at src's
+     * position. The bytes are put at dst's position, and both buffers' positions are moved past the bytes used.
+     *
+     * @param src The buffer holding the block.
+     * @param dst The buffer to put the decompressed bytes in.
+     * @return The number of bytes put in dst.
+     * @throws BufferOverflowException If dst doesn't have room for the decompressed bytes.
+     * @throws IllegalArgumentException If the block is not valid, or is a kind this codec doesn't read.
+     */
+    public int decompress(ByteBuffer src, ByteBuffer dst) {
+        int compressedStart = src.position();
+        int count;
+        try {
+            int marker = src.get() & 0xFF;
+            if (marker == HuffmanFormat.STORED_BLOCK_MARKER) {
+                count = decompressStored(src, dst);
+            } else if (marker == HuffmanFormat.RUN_BINARY_BLOCK_MARKER) {
+                count = decompressRun(src, dst);
+            } else if (marker == HuffmanFormat.BINARY_BLOCK_MARKER) {
+                count = decompressCoded(src, dst);
+            } else {
+                throw new IllegalArgumentException("Block marker " + marker + " is not a binary, stored or run block!");
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Block ends part way through!", e);
+        }
+        CodecMetrics metrics = CodecMetrics.getInstance();
+        if (metrics.isEnabled()) {
+            metrics.addBytes(count, src.position() - compressedStart);
+        }
+        return count;
+    }
+
+    private int decompressStored(ByteBuffer src, ByteBuffer dst) {
+        int length = src.getInt();
+        if (length < 0 || length > src.remaining() - Integer.BYTES) {
+            throw new IllegalArgumentException("Block has an invalid length!");
+        }
+        if (length > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        int limit = src.limit();
+        int dataStart = dst.position();
+        src.limit(src.position() + length);
+        dst.put(src);
+        src.limit(limit);
+        if (src.getInt() != checksum(dst, dataStart)) {
+            dst.position(dataStart);
+            throw new IllegalArgumentException("Block checksum does not match, the data is corrupt!");
+        }
+        return length;
+    }
+
+    private int decompressRun(ByteBuffer src, ByteBuffer dst) {
+        int count = src.getInt();
+        char symbol = src.getChar();
+        if (count < 0 || symbol >= Encoder.BYTE_ALPHABET_SIZE) {
+            throw new IllegalArgumentException("Run block is not valid!");
+        }
+        if (count > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        if (dst.hasArray()) {
+            int from = dst.arrayOffset() + dst.position();
+            Arrays.fill(dst.array(), from, from + count, (byte) symbol);
+            dst.position(dst.position() + count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                dst.put((byte) symbol);
+            }
+        }
+        return count;
+    }
+
+    private int decompressCoded(ByteBuffer src, ByteBuffer dst) {
+        int count = src.getInt();
+        source.buffer = src;
+        try {
+            CanonicalCode.readLengths(tableIn, lengths);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Block has an invalid code length table!", e);
+        } finally {
+            source.buffer = null;
+        }
+        long bitLength = src.getLong();
+        if (count < 0 || bitLength < 0 || (bitLength + 7) / 8 > src.remaining() - Integer.BYTES) {
+            throw new IllegalArgumentException("Block has an invalid length!");
+        }
+        if (count > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        int size = (int) ((bitLength + 7) / 8);
+        packed = ensureCapacity(packed, size);
+        src.get(packed, 0, size);
+        crc.reset();
+        crc.update(packed, 0, size);
+        if (src.getInt() != (int) crc.getValue()) {
+            throw new IllegalArgumentException("Block checksum does not match, the data is corrupt!");
+        }
+
+        CanonicalCode.assignCodes(lengths, codes, lengthCounts, nextCode);
+        // Working out the pairs takes a pass over the whole first level, which only pays for itself on blocks much bigger than it.
+        decodingTable.rebuild(codes, lengths, count >= MIN_PAIRED_BLOCK);
+        reader.reset(packed, 0, bitLength);
+        decoded = ensureCapacity(decoded, count);
+        Decoder.decodeBytes(decodingTable, reader, bitLength, decoded, count);
+        dst.put(decoded, 0, count);
+        return count;
+    }
+
+    // The only symbol that occurs in the block, or -1 if there are none or more than one.
+    private int runSymbol(int length) {
+        if (length == 0) {
+            return -1;
+        }
+        for (int symbol = 0; symbol < frequencies.length; symbol++) {
+            if (frequencies[symbol] != 0) {
+                return frequencies[symbol] == length ? symbol : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Works out the CRC32 of the bytes in a buffer from an index up to its position, by narrowing the buffer to them for a moment
+     * rather than making a view of them.
+     */
+    private int checksum(ByteBuffer buffer, int from) {
+        int limit = buffer.limit();
+        int end = buffer.position();
+        buffer.limit(end);
+        buffer.position(from);
+        crc.reset();
+        crc.update(buffer);
+        buffer.limit(limit);
+        return (int) crc.getValue();
+    }
+
+    // Grows an array to hold at least size bytes, doubling so that a run of slowly growing blocks doesn't allocate every time.
+    private static byte[] ensureCapacity(byte[] array, int size) {
+        if (array.length >= size) {
+            return array;
+        }
+        return new byte[Math.max(size, (int) Math.min(2L * array.length, Integer.MAX_VALUE - 8))];
+    }
+
+    /**
+     * Writes into a buffer, so the code length table can be written with CanonicalCode.writeLengths without allocating.
+     */
+    private static final class BufferOutputStream extends OutputStream {
+        private final ByteBuffer buffer;
+
+        private BufferOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+    }
+
+    /**
+     * Reads from whichever buffer is being decompressed, so the code length table can be read with CanonicalCode.readLengths
+     * without allocating.
+     */
+    private static final class BufferInputStream extends InputStream {
+        private ByteBuffer buffer;
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+    }
+}
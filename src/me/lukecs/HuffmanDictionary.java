@@ -0,0 +1,258 @@
+package me.lukecs;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class HuffmanDictionary {
+    /**
+     * The bytes "HUFD", which every saved dictionary starts with.
+     */
+    public static final int MAGIC = 0x48554644;
+
+    /**
+     * The symbol that ends every message, so a message doesn't need its length stored alongside it.
+     */
+    public static final int END = 256;
+
+    /**
+     * The number of symbols: every byte value, plus END.
+     */
+    public static final int ALPHABET_SIZE = 257;
+
+    private static final ConcurrentMap<Integer, HuffmanDictionary> REGISTERED = new ConcurrentHashMap<>();
+
+    private final int id;
+    private final byte[] lengths;
+    private final int[] codes;
+    private final DecodingTable table;
+
+    /**
+     * A HuffmanDictionary is a code table that is built once and shared by many small messages, so no message has to carry its own
+     * table. The encoding codes and the decoding table are both worked out here, once, and reused by every message.
+     *
+     * @param id The number that identifies the dictionary, so that messages can refer to it.
+     * @param lengths The code length of each byte value and of END, all of which must be non-zero.
+     */
+    public HuffmanDictionary(int id, byte[] lengths) {
+        if (lengths.length != ALPHABET_SIZE) {
+            throw new IllegalArgumentException("Dictionary must have a code length for every byte value and END!");
+        }
+        for (byte length : lengths) {
+            if (length == 0) {
+                throw new IllegalArgumentException("Dictionary must have a code for every byte value and END!");
+            }
+        }
+        this.id = id;
+        this.lengths = lengths.clone();
+        this.codes = CanonicalCode.assignCodes(this.lengths);
+        this.table = new DecodingTable(codes, this.lengths);
+    }
+
+    /**
+     * Builds a dictionary from a sample of the messages it will be used for. Every byte value is counted once more than it occurs,
+     * so that bytes missing from the samples can still be encoded later, just with longer codes.
+     *
+     * @param id The number that identifies the dictionary.
+     * @param samples Some typical messages.
+     * @return The dictionary.
+     */
+    public static HuffmanDictionary train(int id, List<byte[]> samples) {
+        int[] frequencies = new int[ALPHABET_SIZE];
+        Arrays.fill(frequencies, 1);
+        for (byte[] sample : samples) {
+            for (byte b : sample) {
+                frequencies[b & 0xFF]++;
+            }
+            frequencies[END]++;
+        }
+        return new HuffmanDictionary(id, Encoder.buildCodeLengths(frequencies));
+    }
+
+    /**
+     * Makes a dictionary available by its ID through forId.
+     *
+     * @param dictionary The dictionary.
+     */
+    public static void register(HuffmanDictionary dictionary) {
+        REGISTERED.put(dictionary.getId(), dictionary);
+    }
+
+    /**
+     * Returns a dictionary that was registered, with its tables already built.
+     *
+     * @param id The dictionary's ID.
+     * @return The dictionary, or null if none is registered with that ID.
+     */
+    public static HuffmanDictionary forId(int id) {
+        return REGISTERED.get(id);
+    }
+
+    /**
+     * Returns the number that identifies this dictionary.
+     *
+     * @return The ID.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the code length of each symbol.
+     *
+     * @return A copy of the code lengths, indexed by byte value, with END last.
+     */
+    public byte[] getCodeLengths() {
+        return lengths.clone();
+    }
+
+    /**
+     * Compresses a message against this dictionary. The result is just the encoded bits followed by END, padded to a whole byte,
+     * with no header.
+     *
+     * @param message The message.
+     * @return The compressed message.
+     */
+    public byte[] compress(byte[] message) {
+        return compress(message, 0, message.length);
+    }
+
+    /**
+     * Compresses part of an array as a message against this dictionary.
+     *
+     * @param message The array holding the message.
+     * @param offset The index of the first byte of the message.
+     * @param length The number of bytes in the message.
+     * @return The compressed message.
+     */
+    public byte[] compress(byte[] message, int offset, int length) {
+        BitWriter writer = new BitWriter(length / 2);
+        for (int i = offset; i < offset + length; i++) {
+            int b = message[i] & 0xFF;
+            writer.write(codes[b], lengths[b]);
+        }
+        writer.write(codes[END], lengths[END]);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decompresses a message that was compressed against this dictionary.
+     *
+     * @param compressed The compressed message.
+     * @return The message.
+     * @throws IllegalArgumentException If the message was not compressed with this dictionary, or is corrupt.
+     */
+    public byte[] decompress(byte[] compressed) {
+        long[] primary = table.getPrimary();
+        long[] secondary = table.getSecondary();
+        BitReader reader = new BitReader(compressed, (long) compressed.length * Byte.SIZE);
+        // Most messages are text and a code is rarely under 2 bits, so this is usually big enough straight away.
+        byte[] out = new byte[Math.max(16, compressed.length * 4)];
+        int count = 0;
+
+        while (true) {
+            if (count + 2 > out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            reader.refill();
+            long entry = primary[reader.peek(DecodingTable.PRIMARY_BITS)];
+            int kind = DecodingTable.kind(entry);
+            if (kind == DecodingTable.LINK) {
+                int width = DecodingTable.linkWidth(entry);
+                entry = secondary[DecodingTable.linkOffset(entry) + (reader.peek(DecodingTable.PRIMARY_BITS + width) & ((1 << width) - 1))];
+                kind = DecodingTable.kind(entry);
+            }
+            if (kind == DecodingTable.INVALID) {
+                throw new IllegalArgumentException("Message contains a code that is not in the dictionary!");
+            }
+
+            // END can turn up as either symbol of a pair, in which case anything decoded after it is just padding.
+            char first = DecodingTable.firstSymbol(entry);
+            int length = kind == DecodingTable.TWO && first != END ? DecodingTable.totalLength(entry) : DecodingTable.firstLength(entry);
+            if (length > reader.remaining()) {
+                throw new IllegalArgumentException("Message ends before its END code!");
+            }
+            if (first == END) {
+                return Arrays.copyOf(out, count);
+            }
+            out[count++] = (byte) first;
+            if (kind == DecodingTable.TWO) {
+                char second = DecodingTable.secondSymbol(entry);
+                if (second == END) {
+                    return Arrays.copyOf(out, count);
+                }
+                out[count++] = (byte) second;
+            }
+            reader.skip(length);
+        }
+    }
+
+    /**
+     * Writes the dictionary in a compact form.
+     *
+     * @param out The output to write to.
+     * @throws IOException If the output can't be written to.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(id);
+        CanonicalCode.writeLengths(out, lengths);
+    }
+
+    /**
+     * Reads a dictionary that was written by write.
+     *
+     * @param in The input to read from.
+     * @return The dictionary.
+     * @throws IOException If the input can't be read from, or is not a valid dictionary.
+     */
+    public static HuffmanDictionary read(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a dictionary!");
+        }
+        int id = in.readInt();
+        byte[] lengths = CanonicalCode.readLengths(in, ALPHABET_SIZE);
+        try {
+            return new HuffmanDictionary(id, lengths);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Dictionary is not valid!", e);
+        }
+    }
+
+    /**
+     * Saves the dictionary to a file.
+     *
+     * @param path The file to save to.
+     * @throws IOException If the file can't be written.
+     */
+    public void save(Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            write(new DataOutputStream(out));
+        }
+    }
+
+    /**
+     * Loads a dictionary from a file, and registers it so it can be found by its ID afterwards.
+     *
+     * @param path The file to load from.
+     * @return The dictionary.
+     * @throws IOException If the file can't be read, or is not a valid dictionary.
+     */
+    public static HuffmanDictionary load(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            HuffmanDictionary dictionary = read(new DataInputStream(in));
+            register(dictionary);
+            return dictionary;
+        }
+    }
+}
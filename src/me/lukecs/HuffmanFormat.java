@@ -0,0 +1,417 @@
+package me.lukecs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+public class HuffmanFormat {
+    /**
+     * The bytes "HUFF", which every compressed file starts with.
+     */
+    public static final int MAGIC = 0x48554646;
+
+    /**
+     * The bytes "HUFA", which every adaptively compressed stream starts with, see AdaptiveHuffmanOutputStream.
+     */
+    public static final int ADAPTIVE_MAGIC = 0x48554641;
+
+    /**
+     * The bytes "HUFI", which every compressed file ends with, after the block index.
+     */
+    public static final int INDEX_MAGIC = 0x48554649;
+
+    /**
+     * The version of the format that is written.
+     */
+    public static final int VERSION = 4;
+
+    /**
+     * The oldest version of the format that can still be read, which is the same apart from not recording transforms in the header.
+     */
+    public static final int OLDEST_READABLE_VERSION = 3;
+
+    /**
+     * The default number of characters (or bytes) in each block.
+     */
+    public static final int BLOCK_SIZE = 1 << 20;
+
+    /**
+     * The largest number of bytes that compressing will put in a block, which keeps every block's buffers well within what an array can hold.
+     * Reading rejects any block that claims to hold more, so a corrupt length can't make decoding allocate a huge array.
+     */
+    public static final int MAX_BLOCK_SIZE = 1 << 28;
+
+    /**
+     * The file extension given to compressed files.
+     */
+    public static final String EXTENSION = ".huff";
+
+    static final int END_MARKER = 0;
+    static final int TEXT_BLOCK_MARKER = 1;
+    static final int BINARY_BLOCK_MARKER = 2;
+    static final int CONTEXT_TEXT_BLOCK_MARKER = 3;
+    static final int CONTEXT_BINARY_BLOCK_MARKER = 4;
+    static final int TRANSFORMED_BLOCK_MARKER = 5;
+    static final int INTERLEAVED_TEXT_BLOCK_MARKER = 6;
+    static final int INTERLEAVED_BINARY_BLOCK_MARKER = 7;
+    static final int STORED_BLOCK_MARKER = 8;
+    static final int RUN_TEXT_BLOCK_MARKER = 9;
+    static final int RUN_BINARY_BLOCK_MARKER = 10;
+
+    /*
+     A compressed file is laid out as:
+       int   MAGIC
+       byte  VERSION
+       UTF   name of the charset that text blocks are turned back into bytes with
+       byte  the transforms that blocks were written with, see BlockTransform (from version 4)
+       any number of blocks, each one being:
+         if the block was transformed:
+           byte  TRANSFORMED_BLOCK_MARKER
+           byte  the transforms that were applied
+           int   the row of the original data in the Burrows-Wheeler sort, or 0
+           then the transformed symbols, as a block of their own
+         if the block is stored:
+           byte  STORED_BLOCK_MARKER
+           int   number of bytes in the block
+           ...   the bytes, as they were
+           int   CRC32 of the bytes
+         if the block is a run of one symbol:
+           byte  RUN_TEXT_BLOCK_MARKER or RUN_BINARY_BLOCK_MARKER
+           int   number of characters (or bytes) in the block
+           char  the character (or byte) that is repeated
+         otherwise:
+           byte  TEXT_BLOCK_MARKER, BINARY_BLOCK_MARKER, CONTEXT_TEXT_BLOCK_MARKER, CONTEXT_BINARY_BLOCK_MARKER,
+                 INTERLEAVED_TEXT_BLOCK_MARKER or INTERLEAVED_BINARY_BLOCK_MARKER
+           int   number of characters (or bytes) in the block
+           ...   code length table, see CanonicalCode.writeLengths, over all characters for text or all byte values for binary,
+                 or for a context block, a code table for each context, see ContextModel.write. An interleaved block's codes are
+                 at most Encoder.MAX_CODE_LENGTH bits, since its decoder does two lookups per refill of its bit buffers
+           long  number of bits of encoded data
+           for an interleaved block, the jump table:
+             long  number of bits in each stream but the last, which has the rest
+           ...   the encoded data, padded to a whole number of bytes, or for an interleaved block, each stream padded in turn
+           int   CRC32 of the encoded data
+       byte  END_MARKER
+       the block index, being:
+         int   number of blocks
+         for each block:
+           long  offset of its marker in the compressed file
+           long  offset of its first byte in the original data
+         long  length of the original data
+       long  offset of the block index
+       int   INDEX_MAGIC
+     Every block carries its own code table, so each one can be decoded without looking at any other. Readers that start at the
+     beginning can stop at END_MARKER, and readers that want one part of the data can start from the trailer at the end instead.
+     */
+    private static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES;
+
+    /**
+     * Writes the header that starts every compressed file, for a file whose blocks are not transformed.
+     *
+     * @param out The output to write to.
+     * @param charset The charset that the text blocks were decoded from, and should be turned back into bytes with.
+     * @throws IOException If the output can't be written to.
+     */
+    public static void writeHeader(DataOutputStream out, Charset charset) throws IOException {
+        writeHeader(out, charset, 0);
+    }
+
+    /**
+     * Writes the header that starts every compressed file.
+     *
+     * @param out The output to write to.
+     * @param charset The charset that the text blocks were decoded from, and should be turned back into bytes with.
+     * @param transforms The transforms that blocks are written with, see BlockTransform.
+     * @throws IOException If the output can't be written to.
+     */
+    public static void writeHeader(DataOutputStream out, Charset charset, int transforms) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(charset.name());
+        out.writeByte(transforms);
+    }
+
+    /**
+     * Reads and checks the header that starts every compressed file.
+     *
+     * @param in The input to read from.
+     * @return The charset that text blocks should be turned back into bytes with.
+     * @throws IOException If the input can't be read from, or is not a compressed file this version can read.
+     */
+    public static Charset readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a compressed file!");
+        }
+        int version = in.readUnsignedByte();
+        if (version < OLDEST_READABLE_VERSION || version > VERSION) {
+            throw new IOException("Unsupported format version " + version + "!");
+        }
+        String charset = in.readUTF();
+        // Every transformed block records its own transforms, so the ones in the header only need checking.
+        if (version >= 4 && !BlockTransform.isValid(in.readUnsignedByte())) {
+            throw new IOException("Header has unknown transforms!");
+        }
+        try {
+            return Charset.forName(charset);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unsupported charset " + charset + "!", e);
+        }
+    }
+
+    /**
+     * Writes one block of Huffman encoded data, along with the code lengths needed to decode it.
+     *
+     * @param out The output to write to.
+     * @param block The Huffman object for the block.
+     * @throws IOException If the output can't be written to.
+     */
+    public static void writeBlock(DataOutputStream out, Huffman block) throws IOException {
+        if (block.getTransforms() != 0) {
+            out.writeByte(TRANSFORMED_BLOCK_MARKER);
+            out.writeByte(block.getTransforms());
+            out.writeInt(block.getTransformIndex());
+        }
+        if (block.isStored()) {
+            out.writeByte(STORED_BLOCK_MARKER);
+            out.writeInt(block.getSymbolCount());
+            out.write(block.getData());
+            out.writeInt(checksum(block.getData()));
+            return;
+        }
+        if (block.isRun()) {
+            out.writeByte(block.getType() == BlockType.TEXT ? RUN_TEXT_BLOCK_MARKER : RUN_BINARY_BLOCK_MARKER);
+            out.writeInt(block.getSymbolCount());
+            out.writeChar(block.getRunSymbol());
+            return;
+        }
+        ContextModel model = block.getContextModel();
+        if (model != null) {
+            out.writeByte(block.getType() == BlockType.TEXT ? CONTEXT_TEXT_BLOCK_MARKER : CONTEXT_BINARY_BLOCK_MARKER);
+            out.writeInt(block.getSymbolCount());
+            model.write(out, alphabetSize(block.getType()));
+        } else if (block.getStreamBitLengths() != null) {
+            out.writeByte(block.getType() == BlockType.TEXT ? INTERLEAVED_TEXT_BLOCK_MARKER : INTERLEAVED_BINARY_BLOCK_MARKER);
+            out.writeInt(block.getSymbolCount());
+            CanonicalCode.writeLengths(out, block.getCodeLengths());
+        } else {
+            out.writeByte(block.getType() == BlockType.TEXT ? TEXT_BLOCK_MARKER : BINARY_BLOCK_MARKER);
+            out.writeInt(block.getSymbolCount());
+            CanonicalCode.writeLengths(out, block.getCodeLengths());
+        }
+        out.writeLong(block.getBitLength());
+        if (block.getStreamBitLengths() != null) {
+            for (int stream = 0; stream + 1 < Huffman.INTERLEAVED_STREAMS; stream++) {
+                out.writeLong(block.getStreamBitLengths()[stream]);
+            }
+        }
+        out.write(block.getData());
+        out.writeInt(checksum(block.getData()));
+    }
+
+    /**
+     * Writes the marker that ends every compressed file.
+     *
+     * @param out The output to write to.
+     * @throws IOException If the output can't be written to.
+     */
+    public static void writeEnd(DataOutputStream out) throws IOException {
+        out.writeByte(END_MARKER);
+    }
+
+    /**
+     * Writes the block index and the trailer that points at it, after the end marker.
+     *
+     * @param out The output to write to.
+     * @param index The index of every block that was written.
+     * @param indexOffset The offset in the compressed file that the index is being written at.
+     * @throws IOException If the output can't be written to.
+     */
+    public static void writeIndex(DataOutputStream out, BlockIndex index, long indexOffset) throws IOException {
+        out.writeInt(index.size());
+        for (int block = 0; block < index.size(); block++) {
+            out.writeLong(index.getCompressedOffset(block));
+            out.writeLong(index.getUncompressedOffset(block));
+        }
+        out.writeLong(index.getUncompressedLength());
+        out.writeLong(indexOffset);
+        out.writeInt(INDEX_MAGIC);
+    }
+
+    /**
+     * Reads the block index of a compressed file, by following the trailer at the end of it.
+     *
+     * @param channel The compressed file.
+     * @return The block index.
+     * @throws IOException If the file can't be read from, or does not end with a valid index.
+     */
+    public static BlockIndex readIndex(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < TRAILER_SIZE) {
+            throw new IOException("File is too short to have a block index!");
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, size - TRAILER_SIZE);
+        long indexOffset = trailer.getLong(0);
+        if (trailer.getInt(Long.BYTES) != INDEX_MAGIC || indexOffset < 0 || indexOffset > size - TRAILER_SIZE - Integer.BYTES - Long.BYTES) {
+            throw new IOException("File does not end with a valid block index!");
+        }
+
+        ByteBuffer data = ByteBuffer.allocate((int) (size - TRAILER_SIZE - indexOffset));
+        readFully(channel, data, indexOffset);
+        int blocks = data.getInt(0);
+        if (blocks < 0 || data.capacity() != Integer.BYTES + (long) blocks * 2 * Long.BYTES + Long.BYTES) {
+            throw new IOException("Block index has the wrong length!");
+        }
+        long[] compressedOffsets = new long[blocks];
+        long[] uncompressedOffsets = new long[blocks];
+        data.position(Integer.BYTES);
+        for (int block = 0; block < blocks; block++) {
+            compressedOffsets[block] = data.getLong();
+            uncompressedOffsets[block] = data.getLong();
+        }
+        long uncompressedLength = data.getLong();
+        // The offsets are binary searched, so they must start at 0, go up, and stay inside the data, or an offset could land before
+        // the first block.
+        if (blocks == 0 ? uncompressedLength != 0 : uncompressedOffsets[0] != 0) {
+            throw new IOException("Block index is not valid!");
+        }
+        for (int block = 0; block < blocks; block++) {
+            long end = block + 1 < blocks ? uncompressedOffsets[block + 1] : uncompressedLength;
+            if (uncompressedOffsets[block] >= end || compressedOffsets[block] < 0 || compressedOffsets[block] >= indexOffset) {
+                throw new IOException("Block index is not valid!");
+            }
+        }
+        return new BlockIndex(compressedOffsets, uncompressedOffsets, uncompressedLength);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("File ends part way through the block index!");
+            }
+        }
+    }
+
+    /**
+     * Reads the next block, checking it hasn't been corrupted.
+     *
+     * @param in The input to read from.
+     * @return The Huffman object for the block, or null if there are no more blocks.
+     * @throws IOException If the input can't be read from, or the block is not valid.
+     */
+    public static Huffman readBlock(DataInputStream in) throws IOException {
+        int marker = in.readUnsignedByte();
+        if (marker == TRANSFORMED_BLOCK_MARKER) {
+            int transforms = in.readUnsignedByte();
+            int index = in.readInt();
+            if (transforms == 0 || !BlockTransform.isValid(transforms) || index < 0) {
+                throw new IOException("Block has invalid transforms!");
+            }
+            Huffman block = readBlock(in);
+            if (block == null || block.getTransforms() != 0) {
+                throw new IOException("Transformed block is missing its symbols!");
+            }
+            return block.withTransforms(transforms, index);
+        }
+        if (marker == STORED_BLOCK_MARKER) {
+            int length = in.readInt();
+            if (length < 0 || length > MAX_BLOCK_SIZE) {
+                throw new IOException("Block has an invalid length!");
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            if (in.readInt() != checksum(data)) {
+                throw new IOException("Block checksum does not match, the file is corrupt!");
+            }
+            return Huffman.stored(data);
+        }
+        if (marker == RUN_TEXT_BLOCK_MARKER || marker == RUN_BINARY_BLOCK_MARKER) {
+            BlockType type = marker == RUN_TEXT_BLOCK_MARKER ? BlockType.TEXT : BlockType.BINARY;
+            int count = in.readInt();
+            char symbol = in.readChar();
+            if (count < 0 || count > MAX_BLOCK_SIZE || symbol >= alphabetSize(type)) {
+                throw new IOException("Run block is not valid!");
+            }
+            return Huffman.run(type, symbol, count);
+        }
+        BlockType type;
+        if (marker == END_MARKER) {
+            return null;
+        } else if (marker == TEXT_BLOCK_MARKER || marker == CONTEXT_TEXT_BLOCK_MARKER || marker == INTERLEAVED_TEXT_BLOCK_MARKER) {
+            type = BlockType.TEXT;
+        } else if (marker == BINARY_BLOCK_MARKER || marker == CONTEXT_BINARY_BLOCK_MARKER || marker == INTERLEAVED_BINARY_BLOCK_MARKER) {
+            type = BlockType.BINARY;
+        } else {
+            throw new IOException("Unknown block marker " + marker + "!");
+        }
+        boolean contexts = marker == CONTEXT_TEXT_BLOCK_MARKER || marker == CONTEXT_BINARY_BLOCK_MARKER;
+        boolean interleaved = marker == INTERLEAVED_TEXT_BLOCK_MARKER || marker == INTERLEAVED_BINARY_BLOCK_MARKER;
+
+        int symbolCount = in.readInt();
+        byte[] lengths = contexts ? null : CanonicalCode.readLengths(in, alphabetSize(type));
+        ContextModel model = contexts ? ContextModel.read(in, alphabetSize(type)) : null;
+        if (interleaved) {
+            for (byte length : lengths) {
+                if (length > Encoder.MAX_CODE_LENGTH) {
+                    throw new IOException("Interleaved block has a code longer than " + Encoder.MAX_CODE_LENGTH + " bits!");
+                }
+            }
+        }
+        long bitLength = in.readLong();
+        // No code is longer than CanonicalCode.MAX_LENGTH bits, so there can't be more bits than that for every symbol.
+        if (symbolCount < 0 || symbolCount > MAX_BLOCK_SIZE || bitLength < 0 || bitLength > (long) symbolCount * CanonicalCode.MAX_LENGTH) {
+            throw new IOException("Block has an invalid length!");
+        }
+        long[] streamBitLengths = interleaved ? readJumpTable(in, bitLength) : null;
+        long size = (bitLength + 7) / 8;
+        if (interleaved) {
+            // Each stream is padded on its own, so the data can be a few bytes longer than the total number of bits needs.
+            size = 0;
+            for (long streamBitLength : streamBitLengths) {
+                size += (streamBitLength + 7) / 8;
+            }
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Block has an invalid length!");
+        }
+        byte[] data = new byte[(int) size];
+        in.readFully(data);
+        if (in.readInt() != checksum(data)) {
+            throw new IOException("Block checksum does not match, the file is corrupt!");
+        }
+        if (contexts) {
+            return new Huffman(type, model, data, bitLength, symbolCount);
+        }
+        return interleaved ? new Huffman(type, lengths, data, streamBitLengths, symbolCount) : new Huffman(type, lengths, data, bitLength, symbolCount);
+    }
+
+    private static long[] readJumpTable(DataInputStream in, long bitLength) throws IOException {
+        long[] streamBitLengths = new long[Huffman.INTERLEAVED_STREAMS];
+        long rest = bitLength;
+        for (int stream = 0; stream + 1 < streamBitLengths.length; stream++) {
+            streamBitLengths[stream] = in.readLong();
+            if (streamBitLengths[stream] < 0 || streamBitLengths[stream] > rest) {
+                throw new IOException("Block has an invalid jump table!");
+            }
+            rest -= streamBitLengths[stream];
+        }
+        streamBitLengths[streamBitLengths.length - 1] = rest;
+        return streamBitLengths;
+    }
+
+    private static int alphabetSize(BlockType type) {
+        return type == BlockType.TEXT ? Main.SIZE : Encoder.BYTE_ALPHABET_SIZE;
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,109 @@
+package me.lukecs;
+
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+public class HuffmanInputStream extends FilterInputStream {
+    private final DataInputStream data;
+    private final Charset charset;
+    private byte[] block = new byte[0];
+    private int position;
+    private boolean finished;
+
+    /**
+     * A HuffmanInputStream decompresses the compressed file format as it is read from, decoding one block at a time. Text blocks are
+     * turned back into bytes using the charset recorded in the header.
+     *
+     * @param in The input to read the compressed file format from.
+     * @throws IOException If the header can't be read, or is not valid.
+     */
+    public HuffmanInputStream(InputStream in) throws IOException {
+        super(in);
+        this.data = new DataInputStream(in);
+        this.charset = HuffmanFormat.readHeader(data);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int copied = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, copied);
+        position += copied;
+        return copied;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            int step = (int) Math.min(n - skipped, block.length - position);
+            position += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return block.length - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("Mark and reset are not supported!");
+    }
+
+    /**
+     * Makes sure there is something left to read in the current block, decoding the next block if not.
+     *
+     * @return Whether there is anything left to read, false at the end of the compressed data.
+     * @throws IOException If the next block can't be read, or is not valid.
+     */
+    private boolean fill() throws IOException {
+        while (position == block.length) {
+            if (finished) {
+                return false;
+            }
+            Huffman next = HuffmanFormat.readBlock(data);
+            if (next == null) {
+                finished = true;
+                return false;
+            }
+            try {
+                block = Decoder.decompressToByteArray(next, charset);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Block could not be decoded, the file is corrupt!", e);
+            }
+            position = 0;
+        }
+        return true;
+    }
+}
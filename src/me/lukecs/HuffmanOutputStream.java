@@ -0,0 +1,128 @@
+package me.lukecs;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+public class HuffmanOutputStream extends FilterOutputStream {
+    private final CountingOutputStream counter;
+    private final DataOutputStream data;
+    private final BlockIndex index = new BlockIndex();
+    private final byte[] block;
+    private final boolean syncFlush;
+    private int length;
+    private boolean finished;
+
+    /**
+     * A HuffmanOutputStream compresses everything written to it into the compressed file format, buffering one block of bytes at a time.
+     * Each full block gets its own frequency table and is written out straight away, so memory use stays the same however much is written.
+     *
+     * @param out The output to write the compressed file format to.
+     * @throws IOException If the header can't be written.
+     */
+    public HuffmanOutputStream(OutputStream out) throws IOException {
+        this(out, HuffmanFormat.BLOCK_SIZE, false);
+    }
+
+    /**
+     * A HuffmanOutputStream compresses everything written to it into the compressed file format, buffering one block of bytes at a time.
+     *
+     * @param out The output to write the compressed file format to.
+     * @param blockSize The number of bytes to buffer before compressing them as a block.
+     * @param syncFlush Whether flush() should compress and write out a partial block, so everything written so far can be decompressed
+     *                  straight away. This makes blocks smaller, and so the compression worse, if flush() is called often.
+     * @throws IOException If the header can't be written.
+     */
+    public HuffmanOutputStream(OutputStream out, int blockSize, boolean syncFlush) throws IOException {
+        super(out);
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive!");
+        }
+        this.counter = new CountingOutputStream(out);
+        this.data = new DataOutputStream(counter);
+        this.block = new byte[blockSize];
+        this.syncFlush = syncFlush;
+        // Only binary blocks are written, so the charset is never actually used.
+        HuffmanFormat.writeHeader(data, Charset.defaultCharset());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[length++] = (byte) b;
+        if (length == block.length) {
+            writeBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            int copied = Math.min(len, block.length - length);
+            System.arraycopy(b, off, block, length, copied);
+            length += copied;
+            off += copied;
+            len -= copied;
+            if (length == block.length) {
+                writeBlock();
+            }
+        }
+    }
+
+    /**
+     * Flushes the underlying stream, first writing out any partial block if this stream was created with syncFlush.
+     *
+     * @throws IOException If the output can't be written to.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (syncFlush && !finished) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes out any partial block, the end marker and the block index, without closing the underlying stream. Nothing more can be
+     * written afterwards.
+     *
+     * @throws IOException If the output can't be written to.
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            writeBlock();
+            HuffmanFormat.writeEnd(data);
+            HuffmanFormat.writeIndex(data, index, counter.getCount());
+            finished = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (length > 0) {
+            index.add(counter.getCount(), length);
+            HuffmanFormat.writeBlock(data, Encoder.compress(block, 0, length));
+            length = 0;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Stream has already been finished!");
+        }
+    }
+}
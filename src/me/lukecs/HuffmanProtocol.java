@@ -0,0 +1,52 @@
+package me.lukecs;
+
+public class HuffmanProtocol {
+    /**
+     * The port the server listens on when none is given.
+     */
+    public static final int DEFAULT_PORT = 7464;
+
+    /**
+     * The largest frame either side will accept, so a bad length can't make the other side allocate without limit.
+     */
+    public static final int MAX_FRAME_LENGTH = 256 << 20;
+
+    /*
+     Every request and response is one frame, laid out as:
+       int   length of the rest of the frame
+       byte  operation for a request, or status for a response
+       ...   for requests with a dictionary, an int dictionary ID, then the payload either way
+     A client sends a request and waits for its response. A connection can be reused for any number of requests, and requests
+     that are sent without waiting are answered in order.
+     */
+
+    /**
+     * Compress the payload into the compressed file format.
+     */
+    public static final byte COMPRESS = 1;
+
+    /**
+     * Decompress a payload in the compressed file format.
+     */
+    public static final byte DECOMPRESS = 2;
+
+    /**
+     * Compress the payload as a message against a dictionary the server has loaded.
+     */
+    public static final byte COMPRESS_WITH_DICTIONARY = 3;
+
+    /**
+     * Decompress a message that was compressed against a dictionary the server has loaded.
+     */
+    public static final byte DECOMPRESS_WITH_DICTIONARY = 4;
+
+    /**
+     * The request worked, and the payload is the result.
+     */
+    public static final byte OK = 0;
+
+    /**
+     * The request failed, and the payload is a UTF-8 message saying why.
+     */
+    public static final byte ERROR = 1;
+}
@@ -0,0 +1,305 @@
+package me.lukecs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class HuffmanServer implements Closeable {
+    /**
+     * The longest result a response can carry, so that the whole response, its length and status included, is never bigger than the
+     * largest frame the client will accept.
+     */
+    private static final int MAX_RESULT_LENGTH = HuffmanProtocol.MAX_FRAME_LENGTH - Integer.BYTES - 1;
+
+    /**
+     * The most a frame's buffer starts out with. It grows as the bytes actually arrive, so a client can't make the server allocate a
+     * whole frame just by sending a large length.
+     */
+    private static final int INITIAL_BODY_CAPACITY = 1 << 16;
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Queue<Runnable> completed = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    /**
+     * The state of one client connection: the frame being read, or the response being written.
+     */
+    private static class Connection {
+        private final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        private int length;
+        private ByteBuffer body;
+        private ByteBuffer response;
+    }
+
+    /**
+     * A HuffmanServer stays running and answers compress and decompress requests from any number of clients, so the cost of
+     * starting the JVM and warming up the codec is paid once rather than once per file. One thread handles every connection with
+     * non-blocking I/O, and the coding itself is handed to a pool of worker threads.
+     *
+     * @param address The address to listen on, usually the loopback address so only local clients can connect.
+     * @param threads The number of worker threads to code requests on.
+     * @throws IOException If the address can't be listened on.
+     */
+    public HuffmanServer(InetSocketAddress address, int threads) throws IOException {
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Returns the port the server is listening on, which is useful when it was asked to listen on port 0.
+     *
+     * @return The port.
+     * @throws IOException If the port can't be found.
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Handles connections until the server is closed.
+     *
+     * @throws IOException If the server itself fails, rather than a single connection.
+     */
+    public void run() throws IOException {
+        while (running) {
+            try {
+                selector.select();
+            } catch (ClosedSelectorException e) {
+                // The server was closed from another thread.
+                return;
+            }
+            // Responses that workers have finished are handed back to this thread, since only it may touch the selector's keys.
+            Runnable task;
+            while ((task = completed.poll()) != null) {
+                task.run();
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read(key);
+                    } else if (key.isWritable()) {
+                        write(key);
+                    }
+                } catch (IOException | CancelledKeyException | OutOfMemoryError e) {
+                    // A client going away, sending nonsense, or sending more than there is memory for, only closes that client's
+                    // connection.
+                    key.cancel();
+                    key.channel().close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        workers.shutdownNow();
+        selector.wakeup();
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        server.close();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client = server.accept();
+        if (client != null) {
+            client.configureBlocking(false);
+            client.register(selector, SelectionKey.OP_READ, new Connection());
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        if (connection.body == null) {
+            if (channel.read(connection.header) < 0) {
+                throw new IOException("Client closed the connection!");
+            }
+            if (connection.header.hasRemaining()) {
+                return;
+            }
+            int length = connection.header.getInt(0);
+            if (length < 1 || length > HuffmanProtocol.MAX_FRAME_LENGTH) {
+                throw new IOException("Frame has an invalid length!");
+            }
+            connection.length = length;
+            connection.body = ByteBuffer.allocate(Math.min(length, INITIAL_BODY_CAPACITY));
+        }
+        if (channel.read(connection.body) < 0) {
+            throw new IOException("Client closed the connection!");
+        }
+        if (connection.body.position() < connection.length) {
+            if (!connection.body.hasRemaining()) {
+                // Only grow once the buffer has filled up, doubling so a large frame is copied a handful of times at most.
+                ByteBuffer body = ByteBuffer.allocate((int) Math.min(connection.length, 2L * connection.body.capacity()));
+                connection.body.flip();
+                connection.body = body.put(connection.body);
+            }
+            return;
+        }
+
+        // Stop reading from this client until the response is written, so responses always go back in the order of the requests.
+        key.interestOps(0);
+        byte[] request = connection.body.array();
+        connection.body = null;
+        connection.header.clear();
+        workers.execute(() -> {
+            ByteBuffer response = null;
+            try {
+                response = handle(request);
+            } finally {
+                // Whatever happened, the connection has to be handed back, or the client would wait for a response forever.
+                ByteBuffer result = response;
+                completed.add(() -> {
+                    if (!key.isValid()) {
+                        return;
+                    }
+                    if (result == null) {
+                        // Not even an error response could be made, so the only way left to tell the client is to hang up.
+                        key.cancel();
+                        try {
+                            key.channel().close();
+                        } catch (IOException e) {
+                            // Closed either way.
+                        }
+                        return;
+                    }
+                    connection.response = result;
+                    key.interestOps(SelectionKey.OP_WRITE);
+                });
+                selector.wakeup();
+            }
+        });
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ((SocketChannel) key.channel()).write(connection.response);
+        if (!connection.response.hasRemaining()) {
+            connection.response = null;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Carries out one request. Anything that goes wrong, even an Error such as running out of memory on a huge request, is sent back
+     * as an error response, so the client always gets an answer.
+     *
+     * @param request The request frame, without its length.
+     * @return The whole response frame, ready to write.
+     */
+    private static ByteBuffer handle(byte[] request) {
+        byte status = HuffmanProtocol.OK;
+        byte[] result;
+        try {
+            result = process(request);
+            if (result.length > MAX_RESULT_LENGTH) {
+                throw new IOException("Result is too big to send in one frame!");
+            }
+        } catch (Throwable e) {
+            status = HuffmanProtocol.ERROR;
+            result = String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8);
+        }
+        ByteBuffer response = ByteBuffer.allocate(Integer.BYTES + 1 + result.length);
+        response.putInt(1 + result.length).put(status).put(result);
+        response.flip();
+        return response;
+    }
+
+    private static byte[] process(byte[] request) throws IOException {
+        byte operation = request[0];
+        if (operation == HuffmanProtocol.COMPRESS || operation == HuffmanProtocol.DECOMPRESS) {
+            ByteArrayInputStream in = new ByteArrayInputStream(request, 1, request.length - 1);
+            LimitedOutputStream out = new LimitedOutputStream(request.length);
+            if (operation == HuffmanProtocol.COMPRESS) {
+                FileUtilities.compress(in, out);
+            } else {
+                FileUtilities.decompress(in, out);
+            }
+            return out.toByteArray();
+        }
+        if (operation == HuffmanProtocol.COMPRESS_WITH_DICTIONARY || operation == HuffmanProtocol.DECOMPRESS_WITH_DICTIONARY) {
+            if (request.length < 1 + Integer.BYTES) {
+                throw new IOException("Request is missing its dictionary ID!");
+            }
+            int id = ByteBuffer.wrap(request, 1, Integer.BYTES).getInt();
+            HuffmanDictionary dictionary = HuffmanDictionary.forId(id);
+            if (dictionary == null) {
+                throw new IOException("No dictionary with ID " + id + " is loaded!");
+            }
+            int offset = 1 + Integer.BYTES;
+            if (operation == HuffmanProtocol.COMPRESS_WITH_DICTIONARY) {
+                return dictionary.compress(request, offset, request.length - offset);
+            }
+            byte[] message = new byte[request.length - offset];
+            System.arraycopy(request, offset, message, 0, message.length);
+            return dictionary.decompress(message);
+        }
+        throw new IOException("Unknown operation " + operation + "!");
+    }
+
+    /**
+     * Collects a result, failing as soon as it grows past what a response can carry, rather than once all of it has been made.
+     */
+    private static final class LimitedOutputStream extends OutputStream {
+        private final ByteArrayOutputStream bytes;
+
+        private LimitedOutputStream(int size) {
+            this.bytes = new ByteArrayOutputStream(size);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkRoom(1);
+            bytes.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkRoom(len);
+            bytes.write(b, off, len);
+        }
+
+        private byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        private void checkRoom(int length) throws IOException {
+            if (length > MAX_RESULT_LENGTH - bytes.size()) {
+                throw new IOException("Result is too big to send in one frame!");
+            }
+        }
+    }
+}
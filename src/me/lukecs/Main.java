@@ -1,56 +1,261 @@
 package me.lukecs;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
 public class Main {
     /**
      * The number of characters to consider.
      */
-    public static final int SIZE = 65356;
+    public static final int SIZE = 65536;
 
     /**
      * Main method that drives program.
      *
-     * @param args Arguments that should be in the form: [compress/decompress] [absolute path] [file name with extension]
+     * @param args Arguments that should be in the form: [compress/decompress] [absolute path] [file name with extension] [optional output file name, decompress only],
+     *             optionally followed by --threads [number of threads], --mmap, --adaptive, --context, --transform [bwt,mtf,rle], --sample [stride], --interleave, --pipeline, --block-size [bytes], --queue-depth [blocks] and --stats. Whole directories can be handled with
+     *             [batch-compress/batch-decompress] [directory] [optional glob] [optional output directory] instead, and a long running
+     *             server started with serve [optional port], which client [port] [compress/decompress] [input file] [output file] talks to.
      */
     public static void main(String[] args) {
-        final String ERROR = "Error: cannot understand command! Args must be in the form \"[compress/decompress] [absolute path] [file name with extension]\"";
+        final String BATCH_ERROR = "Error: cannot understand command! Batch args must be in the form \"[batch-compress/batch-decompress] [directory] [optional glob] [optional output directory] [--threads n] [--stats]\"";
+        final String SERVER_ERROR = "Error: cannot understand command! Server args must be in the form \"serve [optional port] [--threads n] [--dictionary file]\" or \"client [port] [compress/decompress] [input file] [output file]\"";
+        final String ERROR = "Error: cannot understand command! Args must be in the form \"[compress/decompress] [absolute path] [file name with extension] [optional output file name, decompress only] [--threads n] [--mmap] [--adaptive] [--context] [--transform bwt,mtf,rle] [--sample n] [--interleave] [--pipeline] [--block-size n] [--queue-depth n] [--stats]\"";
+
+        // Pull out any options first, so that the remaining arguments are just the positional ones.
+        List<String> positional = new ArrayList<>();
+        List<String> dictionaries = new ArrayList<>();
+        CodecOptions options = new CodecOptions();
+        boolean stats = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equalsIgnoreCase("--threads")) {
+                if (i + 1 == args.length) {
+                    System.out.println(ERROR);
+                    return;
+                }
+                int threads;
+                try {
+                    threads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    threads = 0;
+                }
+                if (threads < 1) {
+                    System.out.println("Error: the number of threads must be a positive number!");
+                    return;
+                }
+                options.setThreads(threads);
+            } else if (args[i].equalsIgnoreCase("--mmap")) {
+                options.setMemoryMapped(true);
+            } else if (args[i].equalsIgnoreCase("--adaptive")) {
+                options.setAdaptive(true);
+            } else if (args[i].equalsIgnoreCase("--transform")) {
+                if (i + 1 == args.length) {
+                    System.out.println(ERROR);
+                    return;
+                }
+                try {
+                    options.setTransforms(BlockTransform.parse(args[++i]));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Error: transforms must be a comma separated list of bwt, mtf and rle!");
+                    return;
+                }
+            } else if (args[i].equalsIgnoreCase("--sample")) {
+                if (i + 1 == args.length) {
+                    System.out.println(ERROR);
+                    return;
+                }
+                int stride;
+                try {
+                    stride = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    stride = 0;
+                }
+                if (stride < 1) {
+                    System.out.println("Error: the sample stride must be a positive number!");
+                    return;
+                }
+                options.setSampleStride(stride);
+            } else if (args[i].equalsIgnoreCase("--interleave")) {
+                options.setInterleaved(true);
+            } else if (args[i].equalsIgnoreCase("--pipeline")) {
+                options.setPipelined(true);
+            } else if (args[i].equalsIgnoreCase("--block-size")) {
+                if (i + 1 == args.length) {
+                    System.out.println(ERROR);
+                    return;
+                }
+                int blockSize;
+                try {
+                    blockSize = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    blockSize = 0;
+                }
+                if (blockSize < 1 || blockSize > HuffmanFormat.MAX_BLOCK_SIZE) {
+                    System.out.println("Error: the block size must be a number of bytes from 1 to " + HuffmanFormat.MAX_BLOCK_SIZE + "!");
+                    return;
+                }
+                options.setBlockSize(blockSize);
+            } else if (args[i].equalsIgnoreCase("--queue-depth")) {
+                if (i + 1 == args.length) {
+                    System.out.println(ERROR);
+                    return;
+                }
+                int queueDepth;
+                try {
+                    queueDepth = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    queueDepth = 0;
+                }
+                if (queueDepth < 1) {
+                    System.out.println("Error: the queue depth must be a positive number!");
+                    return;
+                }
+                options.setQueueDepth(queueDepth);
+            } else if (args[i].equalsIgnoreCase("--context")) {
+                options.setContextModeled(true);
+            } else if (args[i].equalsIgnoreCase("--stats")) {
+                stats = true;
+            } else if (args[i].equalsIgnoreCase("--dictionary")) {
+                if (i + 1 == args.length) {
+                    System.out.println(SERVER_ERROR);
+                    return;
+                }
+                dictionaries.add(args[++i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        args = positional.toArray(new String[0]);
+        // The metrics cost time to gather, so they are only counted when they'll be printed.
+        CodecMetrics.getInstance().setEnabled(stats);
 
-        if (args.length < 2 || args.length > 3) {
+        // The server keeps running until it is killed, and the client talks to one that is already running.
+        if (args.length > 0 && args[0].equalsIgnoreCase("serve")) {
+            if (args.length > 2) {
+                System.out.println(SERVER_ERROR);
+                return;
+            }
+            try {
+                int port = args.length > 1 ? Integer.parseInt(args[1]) : HuffmanProtocol.DEFAULT_PORT;
+                for (String dictionary : dictionaries) {
+                    HuffmanDictionary.load(Paths.get(dictionary));
+                }
+                HuffmanServer server = new HuffmanServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), options.getThreads());
+                // A server runs for a long time, so its metrics can be watched over JMX while it does.
+                CodecMetrics.registerMBean();
+                System.out.println("Listening on port " + server.getPort() + "!");
+                server.run();
+            } catch (NumberFormatException e) {
+                System.out.println(SERVER_ERROR);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equalsIgnoreCase("client")) {
+            if (args.length != 5) {
+                System.out.println(SERVER_ERROR);
+                return;
+            }
+            boolean compress = args[2].equalsIgnoreCase("c") || args[2].equalsIgnoreCase("compress");
+            if (!compress && !args[2].equalsIgnoreCase("d") && !args[2].equalsIgnoreCase("decompress")) {
+                System.out.println(SERVER_ERROR);
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            try (HuffmanClient client = new HuffmanClient(Integer.parseInt(args[1]))) {
+                byte[] input = Files.readAllBytes(Paths.get(args[3]));
+                Files.write(Paths.get(args[4]), compress ? client.compress(input) : client.decompress(input));
+            } catch (NumberFormatException e) {
+                System.out.println(SERVER_ERROR);
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            System.out.println("Request took: " + (System.currentTimeMillis() - startTime) + " ms!");
+            return;
+        }
+
+        // Batch commands take a directory and an optional glob rather than a single file.
+        boolean batchCompress = args.length > 0 && (args[0].equalsIgnoreCase("bc") || args[0].equalsIgnoreCase("batch-compress"));
+        boolean batchDecompress = args.length > 0 && (args[0].equalsIgnoreCase("bd") || args[0].equalsIgnoreCase("batch-decompress"));
+        if (batchCompress || batchDecompress) {
+            if (args.length < 2 || args.length > 4) {
+                System.out.println(BATCH_ERROR);
+                return;
+            }
+            Path root = Paths.get(args[1]);
+            String glob = args.length > 2 ? args[2] : "*";
+            Path outputRoot = args.length > 3 ? Paths.get(args[3]) : null;
+            try {
+                BatchSummary summary = batchCompress
+                        ? BatchCompressor.compressAll(root, glob, outputRoot, options)
+                        : BatchCompressor.decompressAll(root, glob, outputRoot, options);
+                System.out.println(summary);
+                if (stats) {
+                    System.out.println(CodecMetrics.getInstance().toJson());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+
+        if (args.length < 3 || args.length > 4) {
             System.out.println(ERROR);
             return;
         }
 
         if (args[0].equalsIgnoreCase("c") || args[0].equalsIgnoreCase("compress")) {
             String path = args[1];
-            String encodedFileName = "";
-            if (args.length == 3) {
-                encodedFileName = args[2];
+            String fileName = args[2];
+            // The compressed file is always named after the original, so an output name is not accepted.
+            if (args.length == 4) {
+                System.out.println(ERROR);
+                return;
             }
 
             long startTimeEncoding = System.currentTimeMillis();
-            Huffman hf = Encoder.compress(FileUtilities.getRawInputData(path, encodedFileName));
-
-            FileUtilities.storeHuffmanEncodedResultToFile(hf, path);
+            FileUtilities.compressFile(path, fileName, options);
             long endTimeEncoding = System.currentTimeMillis();
 
-            System.out.println("Compressed successfully!");
+            System.out.println("Compressed successfully to " + fileName + HuffmanFormat.EXTENSION + "!");
             System.out.println("Compressing file took: " + (endTimeEncoding - startTimeEncoding) + " ms!");
         } else if (args[0].equalsIgnoreCase("d") || args[0].equalsIgnoreCase("decompress")) {
             String path = args[1];
-            String decodedFileName = "";
-            if (args.length == 3) {
-                decodedFileName = args[2];
+            String encodedFileName = args[2];
+            // By default, decompress to the original name, by taking the extension added during compression back off.
+            String decodedFileName;
+            if (args.length == 4) {
+                decodedFileName = args[3];
+            } else if (encodedFileName.endsWith(HuffmanFormat.EXTENSION)) {
+                decodedFileName = encodedFileName.substring(0, encodedFileName.length() - HuffmanFormat.EXTENSION.length());
+            } else {
+                System.out.println(ERROR);
+                return;
             }
 
             long startTimeDecoding = System.currentTimeMillis();
-            Huffman resulted = FileUtilities.getHuffmanEncodedResultFromFile(path);
-
-            FileUtilities.storeDecodedData(Decoder.decompress(resulted), path, decodedFileName);
+            FileUtilities.decompressFile(path, encodedFileName, decodedFileName, options);
             long endTimeDecoding = System.currentTimeMillis();
 
-            System.out.println("Decompressed successfully!");
+            System.out.println("Decompressed successfully to " + decodedFileName + "!");
             System.out.println("Decompressing file took: " + (endTimeDecoding - startTimeDecoding) + " ms!");
         } else {
             System.out.println(ERROR);
+            return;
+        }
+        if (stats) {
+            System.out.println(CodecMetrics.getInstance().toJson());
         }
     }
 }
@@ -0,0 +1,141 @@
+package me.lukecs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class MappedFileInputStream extends InputStream {
+    /**
+     * The most of the file that is mapped into memory at once.
+     */
+    public static final int WINDOW_SIZE = 64 << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+    private long windowStart;
+    private MappedByteBuffer window;
+
+    /**
+     * A MappedFileInputStream reads a file through a window that is memory mapped rather than copied in through read calls. Only the
+     * window is mapped at once, so files far larger than the heap (or the 2GB limit on a single mapping) can be read.
+     *
+     * @param path The file to read.
+     * @throws IOException If the file can't be opened.
+     */
+    public MappedFileInputStream(Path path) throws IOException {
+        this(path, WINDOW_SIZE);
+    }
+
+    /**
+     * A MappedFileInputStream reads a file through a window that is memory mapped rather than copied in through read calls.
+     *
+     * @param path The file to read.
+     * @param windowSize The most of the file to map at once.
+     * @throws IOException If the file can't be opened.
+     */
+    public MappedFileInputStream(Path path, int windowSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Returns the next few bytes of the file without reading past them, as a buffer straight onto the mapped memory.
+     *
+     * @param length The number of bytes to return, which must not be more than the window size.
+     * @return A read only buffer of the next bytes, which is only shorter than asked for at the end of the file.
+     * @throws IOException If the file can't be mapped.
+     */
+    public ByteBuffer peek(int length) throws IOException {
+        if (length > windowSize) {
+            throw new IllegalArgumentException("Can't peek at more than one window!");
+        }
+        long position = position();
+        length = (int) Math.min(length, size - position);
+        // Move the window along if the bytes asked for run off the end of it.
+        if (window == null || window.remaining() < length) {
+            map(position);
+        }
+        ByteBuffer slice = window.slice();
+        slice.limit(length);
+        return slice.asReadOnlyBuffer();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureWindow()) {
+            return -1;
+        }
+        return window.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureWindow()) {
+            return -1;
+        }
+        int read = Math.min(len, window.remaining());
+        window.get(b, off, read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = Math.max(0, Math.min(n, size - position()));
+        long target = position() + skipped;
+        if (window != null && target <= windowStart + window.limit()) {
+            window.position((int) (target - windowStart));
+        } else {
+            map(target);
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, size - position());
+    }
+
+    @Override
+    public void close() throws IOException {
+        // There is no way to unmap a window in Java 8, so the mappings are released once the garbage collector gets to them.
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Returns the number of bytes read so far.
+     *
+     * @return The position in the file.
+     */
+    public long position() {
+        return window == null ? windowStart : windowStart + window.position();
+    }
+
+    private boolean ensureWindow() throws IOException {
+        if (window == null || !window.hasRemaining()) {
+            long position = position();
+            if (position >= size) {
+                return false;
+            }
+            map(position);
+        }
+        return true;
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+    }
+}
@@ -0,0 +1,92 @@
+package me.lukecs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class MappedFileOutputStream extends OutputStream {
+    private final FileChannel channel;
+    private final byte[] buffer;
+    private int count;
+    private long position;
+
+    /**
+     * A MappedFileOutputStream writes a file through memory mapped windows rather than write calls. Each window is mapped to exactly the
+     * bytes being written, so the file never has to be truncated afterwards, which some platforms refuse to do while a mapping is open.
+     *
+     * @param path The file to write, which is replaced if it already exists.
+     * @throws IOException If the file can't be opened.
+     */
+    public MappedFileOutputStream(Path path) throws IOException {
+        this(path, MappedFileInputStream.WINDOW_SIZE / 16);
+    }
+
+    /**
+     * A MappedFileOutputStream writes a file through memory mapped windows rather than write calls.
+     *
+     * @param path The file to write, which is replaced if it already exists.
+     * @param windowSize The number of bytes to gather up before mapping them into the file.
+     * @throws IOException If the file can't be opened.
+     */
+    public MappedFileOutputStream(Path path, int windowSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = new byte[windowSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            flush();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        // Big writes go straight into their own window, rather than being copied through the buffer.
+        if (len >= buffer.length) {
+            flush();
+            writeWindow(b, off, len);
+            return;
+        }
+        if (len > buffer.length - count) {
+            flush();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * Maps anything that has been gathered up into the file. The operating system writes mapped pages back to disk in its own time.
+     *
+     * @throws IOException If the file can't be mapped.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            writeWindow(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeWindow(byte[] b, int off, int len) throws IOException {
+        // Mapping past the end of the file grows it to fit.
+        channel.map(FileChannel.MapMode.READ_WRITE, position, len).put(b, off, len);
+        position += len;
+    }
+}
@@ -0,0 +1,266 @@
+package me.lukecs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+public class OrderedBlockExecutor<T> implements Closeable {
+    /**
+     * Receives the result of each block, in the order the blocks were submitted.
+     *
+     * @param <T> The type of result.
+     */
+    public interface BlockWriter<T> {
+        void write(T result) throws IOException;
+    }
+
+    private static final Future<Object> END = CompletableFuture.completedFuture(null);
+
+    private final ForkJoinPool pool;
+    private final Queue<ForkJoinTask<T>> inFlight = new ArrayDeque<>();
+    private final int maxInFlight;
+    private final BlockWriter<T> writer;
+
+    // Only used when writing in the background.
+    private final BlockingQueue<Future<T>> pending;
+    private final Thread writerThread;
+    private final int threads;
+    private final long startTime;
+    private final LongAdder workNanos = new LongAdder();
+    private volatile long writeNanos;
+    private volatile Throwable failure;
+    private boolean finished;
+
+    /**
+     * An OrderedBlockExecutor runs the work for each block on a ForkJoinPool, and hands the results to a writer in the same order the
+     * blocks were submitted. Only a couple of blocks per thread are allowed to be in flight at once, so memory use stays bounded
+     * however many blocks there are. With a single thread, each block is simply run as soon as it is submitted.
+     *
+     * @param threads The number of threads to run blocks on.
+     * @param writer The writer to hand results to.
+     */
+    public OrderedBlockExecutor(int threads, BlockWriter<T> writer) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("There must be at least 1 thread!");
+        }
+        this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        this.maxInFlight = 2 * threads;
+        this.writer = writer;
+        this.pending = null;
+        this.writerThread = null;
+        this.threads = threads;
+        this.startTime = 0;
+    }
+
+    /**
+     * An OrderedBlockExecutor that writes in the background runs the work for each block on a ForkJoinPool, and hands the results to
+     * the writer on a thread of its own, so blocks are written while the next ones are still being read and worked on. Submitting only
+     * waits when queueDepth blocks are already waiting to be written. Even with a single thread, the work for a block runs on the
+     * pool rather than the submitting thread.
+     *
+     * @param threads The number of threads to run blocks on.
+     * @param queueDepth The number of blocks that can be waiting to be written at once.
+     * @param writer The writer to hand results to, which is only ever called from the writing thread.
+     */
+    public OrderedBlockExecutor(int threads, int queueDepth, BlockWriter<T> writer) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("There must be at least 1 thread!");
+        }
+        if (queueDepth < 1) {
+            throw new IllegalArgumentException("Queue depth must be at least 1!");
+        }
+        this.pool = new ForkJoinPool(threads);
+        this.maxInFlight = queueDepth;
+        this.writer = writer;
+        this.pending = new ArrayBlockingQueue<>(queueDepth + 1);
+        this.threads = threads;
+        this.startTime = System.nanoTime();
+        this.writerThread = new Thread(this::writeInBackground, "huffman-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Submits the work for the next block. If too many blocks are already in flight, this waits for the oldest to finish and writes it.
+     *
+     * @param task The work for the block.
+     * @throws IOException If the work for this or an earlier block failed, or a result couldn't be written.
+     */
+    public void submit(Callable<T> task) throws IOException {
+        if (pending != null) {
+            submitInBackground(task);
+            return;
+        }
+        if (pool == null) {
+            writer.write(call(task));
+            return;
+        }
+        inFlight.add(pool.submit(task));
+        while (inFlight.size() >= maxInFlight) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Waits for every block that is still in flight, and writes them.
+     *
+     * @throws IOException If the work for a block failed, or a result couldn't be written.
+     */
+    public void finish() throws IOException {
+        if (pending != null) {
+            finishInBackground();
+            return;
+        }
+        while (!inFlight.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Stops the threads, abandoning any blocks that are still in flight.
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        if (writerThread != null && writerThread.isAlive()) {
+            writerThread.interrupt();
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void submitInBackground(Callable<T> task) throws IOException {
+        if (failure != null) {
+            throw rethrow(failure);
+        }
+        Future<T> future = pool.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                return task.call();
+            } finally {
+                workNanos.add(System.nanoTime() - start);
+            }
+        });
+        CodecMetrics.getInstance().sampleQueue(CodecMetrics.PipelineStage.WRITE, pending.size());
+        put(future);
+    }
+
+    private void finishInBackground() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        // A completed future with no result tells the writing thread that there are no more blocks.
+        put(END);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for blocks to be written!", e);
+        }
+        if (failure != null) {
+            throw rethrow(failure);
+        }
+        long wall = System.nanoTime() - startTime;
+        CodecMetrics metrics = CodecMetrics.getInstance();
+        metrics.addPipelineTime(CodecMetrics.PipelineStage.WORK, workNanos.sum(), wall * threads);
+        metrics.addPipelineTime(CodecMetrics.PipelineStage.WRITE, writeNanos, wall);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void put(Future<?> future) throws IOException {
+        try {
+            pending.put((Future<T>) future);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a block to be written!", e);
+        }
+    }
+
+    private void writeInBackground() {
+        long busy = 0;
+        try {
+            Future<T> next;
+            while ((next = pending.take()) != END) {
+                T result;
+                try {
+                    result = next.get();
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                    break;
+                }
+                long start = System.nanoTime();
+                writer.write(result);
+                busy += System.nanoTime() - start;
+            }
+        } catch (InterruptedException e) {
+            // Closed before finishing, so nothing else is going to be written.
+            return;
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            writeNanos = busy;
+        }
+        if (failure != null) {
+            // Keep taking blocks until the end, so a submit waiting for room never blocks forever. It sees the failure next time.
+            try {
+                Future<T> next;
+                while ((next = pending.take()) != END) {
+                    next.cancel(true);
+                }
+            } catch (InterruptedException e) {
+                // Closed, which is all we were waiting for.
+            }
+        }
+    }
+
+    private void writeNext() throws IOException {
+        T result;
+        try {
+            result = inFlight.remove().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a block!", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+        writer.write(result);
+    }
+
+    private static <T> T call(Callable<T> task) throws IOException {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Passes IOExceptions and unchecked exceptions from a block's work straight through, and wraps anything else.
+     */
+    static IOException rethrow(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+}
@@ -0,0 +1,102 @@
+package me.lukecs;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class SeekableHuffmanReader implements Closeable {
+    private final FileChannel channel;
+    private final Charset charset;
+    private final BlockIndex index;
+    private int cachedBlock = -1;
+    private byte[] cachedData;
+
+    /**
+     * A SeekableHuffmanReader reads any part of the original data back out of a compressed file, using the block index at the end of
+     * the file to decode only the blocks that hold it. The last block decoded is kept, since reads tend to be near each other.
+     *
+     * @param path The compressed file.
+     * @throws IOException If the file can't be read from, or is not a valid compressed file.
+     */
+    public SeekableHuffmanReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.charset = HuffmanFormat.readHeader(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 256)));
+            this.index = HuffmanFormat.readIndex(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the length of the original data.
+     *
+     * @return The uncompressed length.
+     */
+    public long size() {
+        return index.getUncompressedLength();
+    }
+
+    /**
+     * Reads part of the original data.
+     *
+     * @param uncompressedOffset The offset in the original data to start reading from.
+     * @param length The number of bytes to read.
+     * @return The bytes read, which is fewer than length only if the data ends first.
+     * @throws IOException If the file can't be read from, or a block is not valid.
+     */
+    public synchronized byte[] read(long uncompressedOffset, int length) throws IOException {
+        if (uncompressedOffset < 0 || length < 0) {
+            throw new IllegalArgumentException("Offset and length must not be negative!");
+        }
+        int available = (int) Math.max(0, Math.min(length, size() - uncompressedOffset));
+        byte[] out = new byte[available];
+        int copied = 0;
+        while (copied < available) {
+            long position = uncompressedOffset + copied;
+            int block = index.findBlock(position);
+            byte[] data = decodeBlock(block);
+            int start = (int) (position - index.getUncompressedOffset(block));
+            int step = Math.min(available - copied, data.length - start);
+            System.arraycopy(data, start, out, copied, step);
+            copied += step;
+        }
+        return out;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private byte[] decodeBlock(int block) throws IOException {
+        if (block < 0) {
+            throw new IOException("Block index does not cover the offset, the file is corrupt!");
+        }
+        if (block == cachedBlock) {
+            return cachedData;
+        }
+        channel.position(index.getCompressedOffset(block));
+        Huffman huffman = HuffmanFormat.readBlock(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16)));
+        byte[] data;
+        try {
+            data = huffman == null ? null : Decoder.decompressToByteArray(huffman, charset);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Block could not be decoded, the file is corrupt!", e);
+        }
+        // The index and the block have to agree on how long the block is, or offsets inside it would land on the wrong bytes.
+        if (data == null || data.length != index.getUncompressedLength(block)) {
+            throw new IOException("Block does not match the block index, the file is corrupt!");
+        }
+        cachedBlock = block;
+        cachedData = data;
+        return data;
+    }
+}